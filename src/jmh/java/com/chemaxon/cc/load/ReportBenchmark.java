@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Making the HTML report of a run of the given number of requests, made by 10 callers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ReportBenchmark {
+
+    private static final int CALLERS = 10;
+
+    @Param({ "10000", "100000", "1000000" })
+    private int samples;
+
+    private List<CallerStats> stats;
+    private Instant start;
+    private Instant end;
+    private File output;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        stats = new ArrayList<>();
+        for (int i = 0; i < CALLERS; ++i) {
+            stats.add(new CallerStats("ComplianceRunner_" + i, 3, true));
+        }
+        start = Instant.now();
+        long startNanos = ResultJournal.toEpochNanos(start);
+        long[] clocks = new long[CALLERS];
+        for (int i = 0; i < samples; ++i) {
+            int caller = i % CALLERS;
+            long duration = (long) (TimeUnit.MILLISECONDS.toNanos(20) * Math.exp(0.5 * random.nextGaussian()));
+            CallerStats s = stats.get(caller);
+            s.registerSent(5);
+            s.registerResponse(4, 1, 0);
+            s.record(clocks[caller], clocks[caller], clocks[caller] + duration);
+            s.addSample(startNanos + clocks[caller], duration, duration, 5, 4, 0, 1, 2, i / CALLERS);
+            clocks[caller] += duration;
+        }
+        end = Instant.ofEpochSecond(0, startNanos + clocks[0]);
+        output = File.createTempFile("report", ".html");
+    }
+
+    @Benchmark
+    public long saveHtmlReport() throws IOException {
+        long sent = stats.stream().mapToLong(CallerStats::getSentCount).sum();
+        ReportCreator report = new ReportCreator(stats, sent, sent, start, end, false, 0, 10000);
+        report.saveHtmlReport(output);
+        return output.length();
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.delete();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chemaxon.formats.MolImporter;
+import chemaxon.struc.Molecule;
+
+/**
+ * The cost of a request body: exporting a molecule to CSV once, and writing a chunk of exported molecules into the
+ * JSON envelope for every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    @Param({ "100_mols.csv" })
+    private String file;
+
+    @Param({ "5", "60", "500" })
+    private int chunkSize;
+
+    private List<Molecule> molecules;
+    private List<byte[]> chunk;
+    private CheckRequestFactory requests;
+    private ByteArrayOutputStream out;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        molecules = new ArrayList<>();
+        try (MolImporter mi = new MolImporter(new File(file))) {
+            Molecule m;
+            while ((m = mi.read()) != null) {
+                molecules.add(m);
+            }
+        }
+        MoleculePayloads payloads = MoleculePayloads.export(molecules);
+        chunk = new ArrayList<>();
+        for (int i = 0; i < chunkSize; ++i) {
+            chunk.add(payloads.get(i % payloads.size()));
+        }
+        requests = new CheckRequestFactory("2017-01-01", null, false);
+        out = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public byte[] exportMolecule() {
+        next = (next + 1) % molecules.size();
+        return MoleculePayloads.exportOne(molecules.get(next));
+    }
+
+    @Benchmark
+    public int writeRequest() throws IOException {
+        out.reset();
+        requests.createEntity(chunk).writeTo(out);
+        return out.size();
+    }
+}
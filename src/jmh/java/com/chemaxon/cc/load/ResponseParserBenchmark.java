@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Counting the results of a /check/list response, by the streaming parser and by deserializing the whole response.
+ * The responses have the passed, hit and error results in the given ratios, with hits like the checker's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParserBenchmark {
+
+    @Param({ "5", "60", "500" })
+    private int chunkSize;
+
+    @Param({ "0.1" })
+    private double hitRatio;
+
+    @Param({ "0.01" })
+    private double errorRatio;
+
+    private byte[] response;
+    private ResponseParser streaming;
+    private ResponseParser full;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject().name("simpleResponses").beginArray();
+            for (int i = 0; i < chunkSize; ++i) {
+                json.beginArray();
+                double r = random.nextDouble();
+                if (r < errorRatio) {
+                    json.beginObject().name("error").value(true).name("errorMessage").value("Could not import")
+                            .name("input").value("C1CC1").endObject();
+                } else if (r < errorRatio + hitRatio) {
+                    for (int h = 0, hits = 1 + random.nextInt(3); h < hits; ++h) {
+                        json.beginObject().name("casNubmers").beginArray().value("50-00-0").endArray()
+                                .name("deaNubmers").beginArray().endArray().name("example").value("CCN(CC)CC")
+                                .name("categoryName").value("Category " + h).name("legislativeLinks")
+                                .value("https://example.com/legislation/" + h).name("molName").value("Molecule " + i)
+                                .name("input").value("CCN(CC)CC").name("error").value(false).endObject();
+                    }
+                }
+                json.endArray();
+            }
+            json.endArray().endObject();
+        }
+        response = out.toString().getBytes(StandardCharsets.UTF_8);
+        streaming = new ResponseParser(false);
+        full = new ResponseParser(true);
+    }
+
+    @Benchmark
+    public SearchResponseStat streaming() throws IOException {
+        return streaming.parse(new ByteArrayInputStream(response), chunkSize);
+    }
+
+    @Benchmark
+    public SearchResponseStat full() throws IOException {
+        return full.parse(new ByteArrayInputStream(response), chunkSize);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording the result of a request: aggregating the results of its molecules, then adding them to the stats of the
+ * caller and to the live metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsBenchmark {
+
+    @Param({ "5", "60" })
+    private int chunkSize;
+
+    private CallerStats stats;
+    private LiveMetrics live;
+    private SearchResponseStat response;
+    private long latency;
+
+    @Setup
+    public void setUp() {
+        stats = new CallerStats("benchmark", 3, false);
+        live = new LiveMetrics(3);
+        response = aggregate();
+    }
+
+    @Benchmark
+    public SearchResponseStat aggregate() {
+        SearchResponseStat result = new SearchResponseStat();
+        for (int i = 0; i < chunkSize; ++i) {
+            if (i % 100 == 99) {
+                result.registerError();
+            } else if (i % 10 == 9) {
+                result.registerHit(1 + i % 3);
+            } else {
+                result.registerPassed();
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public CallerStats record() {
+        latency = (latency + 7919) % 1000000;
+        long end = 1000000000L + latency;
+        stats.registerSent(chunkSize);
+        stats.record(1000000000L, 1000000000L, end);
+        stats.registerResponse(response);
+        return stats;
+    }
+
+    @Benchmark
+    public LiveMetrics recordLive() {
+        latency = (latency + 7919) % 1000000;
+        live.requestStarted();
+        live.requestCompleted(chunkSize, response, 1000000 + latency);
+        return live;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out send slots at a constant arrival rate, shared by every caller of an open model run. The slots do not
+ * depend on response times, so a slow server makes the callers fall behind the schedule instead of lowering the
+ * offered load.
+ */
+public class ArrivalSchedule {
+
+    private final long startNanos;
+    private final double intervalNanos;
+    private final AtomicLong slots = new AtomicLong();
+
+    public ArrivalSchedule(double requestsPerSecond) {
+        this.startNanos = System.nanoTime();
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+    }
+
+    /**
+     * Takes the next free slot and waits until its time has come. If the caller is already late, it returns at once.
+     *
+     * @return the {@link System#nanoTime()} the request should have been sent at
+     */
+    public long awaitNextSlot() throws InterruptedException {
+        long offset = (long) (slots.getAndIncrement() * intervalNanos);
+        long wait;
+        while ((wait = startNanos + offset - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return startNanos + offset;
+    }
+
+    public double getRequestsPerSecond() {
+        return TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the simulated users on a non-blocking HTTP client instead of one thread per user. A single dispatcher thread
+ * sends the next chunk of every user whose previous response has arrived, a few I/O threads receive the responses. The
+ * I/O threads only take the time a response has arrived at, it is parsed and recorded by as many worker threads, so
+ * the parsing of a large response does not delay the responses of the other connections of its I/O thread. The
+ * number of requests in flight is limited explicitly, the dispatcher waits while the limit is reached. A failed request
+ * is recorded and, if the {@link RequestPolicy} allows it, sent again after its backoff by a timer thread, which also
+ * cancels the requests at the request timeout.
+ */
+public class AsyncComplianceEngine implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncComplianceEngine.class);
+
+    private final URI checkUri;
+    private final HttpHost targetHost;
+    private final CloseableHttpAsyncClient client;
+    private final int maxInFlight;
+    private final int chunkSize;
+    private final CheckRequestFactory requests;
+    private final ResponseParser parser;
+    private final ArrivalSchedule schedule;
+    private final LiveMetrics live;
+    private final ResultJournal journal;
+    private final RequestPolicy policy;
+    private final TransferMeter transfer;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService workers;
+
+    public AsyncComplianceEngine(URL url, String user, String password, int ioThreads, int maxInFlight,
+            int chunkSize, CheckRequestFactory requests, ResponseParser parser, ArrivalSchedule schedule,
+            LiveMetrics live, ResultJournal journal, RequestPolicy policy, TransferMeter transfer)
+            throws URISyntaxException, IOReactorException {
+        this.checkUri = new URI(url.toString() + "/check/list");
+        this.targetHost = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
+        this.maxInFlight = maxInFlight;
+        this.chunkSize = chunkSize;
+        this.requests = requests;
+        this.parser = parser;
+        this.schedule = schedule;
+        this.live = live;
+        this.journal = journal;
+        this.policy = policy;
+        this.transfer = transfer;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "async-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.workers = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread t = new Thread(r, "async-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(IOReactorConfig.custom().setIoThreadCount(ioThreads).build()));
+        connectionManager.setMaxTotal(maxInFlight);
+        connectionManager.setDefaultMaxPerRoute(maxInFlight);
+        List<Header> headers = new ArrayList<>(transfer.getDefaultHeaders());
+        headers.add(CheckerConnections.basicAuthorization(user, password));
+        this.client = HttpAsyncClients.custom().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(policy.toRequestConfig()).setDefaultHeaders(headers)
+                .build();
+    }
+
+    /**
+     * Sends the molecules of every source until all of them are exhausted.
+     *
+     * @param sources the molecules of each simulated user
+     * @param stats where the results of each simulated user are recorded
+     */
+    public void run(List<MoleculeSource> sources, List<CallerStats> stats) throws InterruptedException {
+        client.start();
+        BlockingQueue<Integer> ready = new LinkedBlockingQueue<>();
+        List<HttpClientContext> contexts = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); ++i) {
+            HttpClientContext context = HttpClientContext.create();
+            context.setCookieStore(new BasicCookieStore());
+            contexts.add(context);
+            ready.add(i);
+            live.userStarted();
+        }
+        int[] chunkIndexes = new int[sources.size()];
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        int active = sources.size();
+        while (active > 0) {
+            int user = ready.take();
+            List<byte[]> srcs = sources.get(user).nextChunk(chunkSize);
+            if (srcs.isEmpty()) {
+                --active;
+                live.userStopped();
+                continue;
+            }
+            long slotNanos = schedule == null ? 0 : schedule.awaitNextSlot();
+            inFlight.acquire();
+            long dueNanos = sources.get(user).getDueNanos(srcs);
+            long intendedStartNanos = dueNanos != 0 ? dueNanos : schedule == null ? System.nanoTime() : slotNanos;
+            stats.get(user).registerSent(srcs.size());
+            Chunk chunk = new Chunk(user, srcs.size(), requests.createEntity(srcs), chunkIndexes[user]++,
+                    intendedStartNanos, contexts.get(user), stats.get(user), ready, inFlight);
+            send(chunk, 1);
+        }
+        inFlight.acquire(maxInFlight);
+    }
+
+    private void send(Chunk chunk, int attempt) {
+        Instant start = Instant.now();
+        long startNanos = System.nanoTime();
+        HttpPost post = new HttpPost(checkUri);
+        post.setEntity(transfer.requestEntity(chunk.entity));
+        AtomicReference<ScheduledFuture<?>> deadline = new AtomicReference<>();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        live.requestStarted();
+        Future<HttpResponse> future = client.execute(targetHost, post, chunk.context,
+                new FutureCallback<HttpResponse>() {
+
+                    @Override
+                    public void completed(HttpResponse response) {
+                        long endNanos = System.nanoTime();
+                        // the whole response has arrived in time, only its parsing is left
+                        cancelDeadline();
+                        workers.execute(() -> record(response, endNanos));
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        long failedNanos = System.nanoTime();
+                        cancelDeadline();
+                        Exception failure = timedOut.get() ? CheckerConnections.deadlineExceeded(e) : e;
+                        workers.execute(() -> recordFailure(failure, failedNanos));
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        failed(new CancellationException("Request cancelled at the request timeout"));
+                    }
+
+                    private void cancelDeadline() {
+                        ScheduledFuture<?> d = deadline.get();
+                        if (d != null) {
+                            d.cancel(false);
+                        }
+                    }
+
+                    private void record(HttpResponse response, long endNanos) {
+                        SearchResponseStat res;
+                        try {
+                            if (response.getStatusLine().getStatusCode() != 200) {
+                                throw new CheckerStatusException(response.getStatusLine());
+                            }
+                            res = parser.parse(transfer.responseContent(response.getEntity()), chunk.molCount);
+                        } catch (IOException | RuntimeException e) {
+                            recordFailure(e, endNanos);
+                            return;
+                        }
+                        CallerStats stats = chunk.stats;
+                        long intendedStartNanos = chunk.intendedStartNanos;
+                        live.requestCompleted(chunk.molCount, res, endNanos - intendedStartNanos);
+                        stats.registerResponse(res);
+                        stats.record(intendedStartNanos, startNanos, endNanos);
+                        stats.addSample(start, endNanos - startNanos, endNanos - intendedStartNanos,
+                                chunk.molCount, res, chunk.index);
+                        if (journal != null) {
+                            try {
+                                journal.append(chunk.user, -1, start, endNanos - startNanos,
+                                        endNanos - intendedStartNanos, chunk.molCount, res, chunk.index);
+                            } catch (IOException e) {
+                                LOG.error("Could not write the journal", e);
+                            }
+                        }
+                        chunk.done();
+                    }
+
+                    private void recordFailure(Exception e, long failedNanos) {
+                        boolean retry = policy.shouldRetry(attempt, e);
+                        live.requestFailed(FailureType.label(e));
+                        chunk.stats.recordFailure(e, startNanos, failedNanos);
+                        if (journal != null) {
+                            try {
+                                journal.appendFailure(chunk.user, -1, start, failedNanos - startNanos, chunk.molCount,
+                                        e, retry, chunk.index);
+                            } catch (IOException journalError) {
+                                LOG.error("Could not write the journal", journalError);
+                            }
+                        }
+                        LOG.debug("Request of {} failed: {}", chunk.stats.getName(), e.toString());
+                        if (retry) {
+                            chunk.stats.registerRetry();
+                            live.requestRetried();
+                            timer.schedule(() -> send(chunk, attempt + 1), policy.getBackoffNanos(attempt),
+                                    TimeUnit.NANOSECONDS);
+                        } else {
+                            chunk.done();
+                        }
+                    }
+                });
+        if (policy.hasRequestTimeout()) {
+            deadline.set(timer.schedule(() -> {
+                timedOut.set(true);
+                future.cancel(true);
+            }, policy.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        timer.shutdownNow();
+        workers.shutdown();
+        client.close();
+    }
+
+    /**
+     * A chunk of a user, sent once or more if it is retried.
+     */
+    private static class Chunk {
+
+        private final int user;
+        private final int molCount;
+        private final HttpEntity entity;
+        private final int index;
+        private final long intendedStartNanos;
+        private final HttpClientContext context;
+        private final CallerStats stats;
+        private final BlockingQueue<Integer> ready;
+        private final Semaphore inFlight;
+
+        Chunk(int user, int molCount, HttpEntity entity, int index, long intendedStartNanos,
+                HttpClientContext context, CallerStats stats, BlockingQueue<Integer> ready, Semaphore inFlight) {
+            this.user = user;
+            this.molCount = molCount;
+            this.entity = entity;
+            this.index = index;
+            this.intendedStartNanos = intendedStartNanos;
+            this.context = context;
+            this.stats = stats;
+            this.ready = ready;
+            this.inFlight = inFlight;
+        }
+
+        /**
+         * Lets the user send its next chunk.
+         */
+        void done() {
+            ready.add(user);
+            inFlight.release();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Walks every molecule of the shared {@link MoleculePayloads} once in its own random order, or again and again if
+ * looping, in a new order on every pass so the chunks mix different molecules. Each caller has its own instance, only
+ * the shuffled indexes are copied. The order of a pass is drawn from the seed of the caller and the number of the
+ * pass, so any earlier chunk can be told again by its index.
+ */
+public class CachedMoleculeSource implements MoleculeSource {
+
+    private final MoleculePayloads payloads;
+    private final boolean loop;
+    private final long seed;
+    /** The pass being sent, replaced by the caller only, read by the recording of the responses too. */
+    private volatile Pass current;
+    /** The pass of the latest chunk told again that was not the current one. */
+    private volatile Pass told;
+    private int next = 0;
+
+    /** The order of the molecules in one pass, not changed once made. */
+    private static class Pass {
+
+        private final int index;
+        private final int[] order;
+
+        Pass(int index, int[] order) {
+            this.index = index;
+            this.order = order;
+        }
+    }
+
+    public CachedMoleculeSource(MoleculePayloads payloads, boolean loop) {
+        this.payloads = payloads;
+        this.loop = loop;
+        this.seed = ThreadLocalRandom.current().nextLong();
+        this.current = shuffle(0);
+    }
+
+    private Pass shuffle(int pass) {
+        int[] order = new int[payloads.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        SplittableRandom random = new SplittableRandom(seed + pass);
+        for (int i = order.length - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return new Pass(pass, order);
+    }
+
+    @Override
+    public List<byte[]> nextChunk(int size) {
+        Pass pass = current;
+        if (loop && next == pass.order.length && pass.order.length > 0) {
+            pass = shuffle(pass.index + 1);
+            current = pass;
+            next = 0;
+        }
+        int from = next;
+        next = Math.min(next + size, pass.order.length);
+        return chunk(pass, from, next);
+    }
+
+    @Override
+    public List<byte[]> getChunk(int index, int size) {
+        Pass pass = passOf(index, size);
+        if (pass == null) {
+            return null;
+        }
+        int from = chunkStart(index, size);
+        return chunk(pass, from, Math.min(from + size, pass.order.length));
+    }
+
+    @Override
+    public int[] getMoleculeIndexes(int index, int size) {
+        Pass pass = passOf(index, size);
+        if (pass == null) {
+            return null;
+        }
+        int from = chunkStart(index, size);
+        return Arrays.copyOfRange(pass.order, from, Math.min(from + size, pass.order.length));
+    }
+
+    /**
+     * @return the pass the chunk was sent in, or null if there is no such chunk
+     */
+    private Pass passOf(int index, int size) {
+        int chunksPerPass = (payloads.size() + size - 1) / size;
+        if (chunksPerPass == 0 || (!loop && index >= chunksPerPass)) {
+            return null;
+        }
+        int passIndex = index / chunksPerPass;
+        Pass pass = current;
+        if (pass.index != passIndex) {
+            pass = told;
+            if (pass == null || pass.index != passIndex) {
+                pass = shuffle(passIndex);
+                told = pass;
+            }
+        }
+        return pass;
+    }
+
+    /**
+     * @return the position of the first molecule of the chunk in the order of its pass
+     */
+    private int chunkStart(int index, int size) {
+        int chunksPerPass = (payloads.size() + size - 1) / size;
+        return (index % chunksPerPass) * size;
+    }
+
+    private List<byte[]> chunk(Pass pass, int from, int to) {
+        List<byte[]> srcs = new ArrayList<>(to - from);
+        for (int i = from; i < to; ++i) {
+            srcs.add(payloads.get(pass.order[i]));
+        }
+        return srcs;
+    }
+}
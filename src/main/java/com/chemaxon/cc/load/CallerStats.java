@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The results and latencies measured by one caller. Every request is recorded into high dynamic range histograms, so the
+ * statistics need constant memory however long the run is. The per request samples are only kept if the report needs
+ * them, in a compact {@link SampleStore}. Failed requests are counted by their {@link FailureType} label and their
+ * latencies are kept apart from the ones of the answered requests.
+ * <p>
+ * Not thread safe: it is written by one thread at a time and read after the caller has finished. A thread per user
+ * caller writes it itself. In the {@link AsyncComplianceEngine} it is written by whichever thread handles the only
+ * request of its user in flight: the dispatcher, then a worker or the timer thread. These writes are ordered by the
+ * hand-off of the user from one to the next, through the ready queue, the in-flight semaphore, the HTTP client and the
+ * executors.
+ */
+public class CallerStats {
+
+    private final String name;
+    private final int precision;
+    private final Histogram serviceTimes;
+    private final Histogram responseTimes;
+    private final Histogram failedTimes;
+    private final Map<String, Long> failures = new TreeMap<>();
+    private long retryCount = 0;
+    private final SampleStore samples;
+    private IntFunction<String> requestBodies = chunk -> null;
+    private MoleculeCosts.Recorder moleculeCosts;
+    private long sentCount = 0;
+    private long passedCount = 0;
+    private long hitCount = 0;
+    private long errorCount = 0;
+    private final CallerStats[] phases;
+
+    /**
+     * @param precision the number of significant decimal digits the histograms keep (0-5)
+     * @param keepLogs whether the per request samples are kept too
+     */
+    public CallerStats(String name, int precision, boolean keepLogs) {
+        this(name, precision, keepLogs, 0);
+    }
+
+    /**
+     * @param phaseCount the number of scenario phases the results are split into too
+     */
+    public CallerStats(String name, int precision, boolean keepLogs, int phaseCount) {
+        this.name = name;
+        this.precision = precision;
+        this.phases = new CallerStats[phaseCount];
+        this.serviceTimes = new Histogram(precision);
+        this.responseTimes = new Histogram(precision);
+        this.failedTimes = new Histogram(precision);
+        this.samples = keepLogs ? new SampleStore() : null;
+    }
+
+    /**
+     * Merges the stats of several callers into one, phase by phase too, without their samples.
+     */
+    public static CallerStats merge(String name, List<CallerStats> stats) {
+        int precision = stats.stream().mapToInt(s -> s.precision).max().orElse(3);
+        int phaseCount = stats.stream().mapToInt(CallerStats::getPhaseCount).max().orElse(0);
+        CallerStats merged = new CallerStats(name, precision, false, phaseCount);
+        for (CallerStats s : stats) {
+            merged.add(s.sentCount, s.passedCount, s.hitCount, s.errorCount, s.serviceTimes, s.responseTimes);
+            merged.addFailures(s.failures, s.retryCount, s.failedTimes);
+            for (int i = 0; i < s.phases.length; ++i) {
+                if (s.phases[i] != null) {
+                    CallerStats phase = s.phases[i];
+                    merged.forPhase(i).add(phase.sentCount, phase.passedCount, phase.hitCount, phase.errorCount,
+                            phase.serviceTimes, phase.responseTimes);
+                    merged.forPhase(i).addFailures(phase.failures, phase.retryCount, phase.failedTimes);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Adds results measured somewhere else, e.g. by a worker JVM.
+     */
+    public void add(long sent, long passed, long hits, long errors, Histogram serviceTimes, Histogram responseTimes) {
+        sentCount += sent;
+        passedCount += passed;
+        hitCount += hits;
+        errorCount += errors;
+        this.serviceTimes.add(serviceTimes);
+        this.responseTimes.add(responseTimes);
+    }
+
+    /**
+     * Adds failures counted somewhere else.
+     *
+     * @param failures the number of failed requests by their {@link FailureType} label
+     */
+    public void addFailures(Map<String, Long> failures, long retries, Histogram failedTimes) {
+        failures.forEach((label, count) -> this.failures.merge(label, count, Long::sum));
+        retryCount += retries;
+        this.failedTimes.add(failedTimes);
+    }
+
+    /**
+     * @param intendedStartNanos the {@link System#nanoTime()} the request should have been sent at, equals to
+     *            startNanos in a closed model run
+     */
+    public void record(long intendedStartNanos, long startNanos, long endNanos) {
+        serviceTimes.recordValue(endNanos - startNanos);
+        responseTimes.recordValue(endNanos - intendedStartNanos);
+    }
+
+    /**
+     * Records a request that has got no usable response, its latency measured from its actual send.
+     */
+    public void recordFailure(Throwable failure, long startNanos, long endNanos) {
+        recordFailure(FailureType.label(failure), startNanos, endNanos);
+    }
+
+    /**
+     * @param label the {@link FailureType} label of the failure
+     */
+    public void recordFailure(String label, long startNanos, long endNanos) {
+        failures.merge(label, 1L, Long::sum);
+        failedTimes.recordValue(Math.max(0, endNanos - startNanos));
+    }
+
+    public void registerRetry() {
+        ++retryCount;
+    }
+
+    public void registerSent(int molCount) {
+        sentCount += molCount;
+    }
+
+    public void registerResponse(SearchResponseStat response) {
+        registerResponse(response.getPassed(), response.getHitCount(), response.getError());
+    }
+
+    public void registerResponse(int passed, int hits, int errors) {
+        passedCount += passed;
+        hitCount += hits;
+        errorCount += errors;
+    }
+
+    /**
+     * @return the results of the given scenario phase only
+     */
+    public CallerStats forPhase(int phase) {
+        if (phases[phase] == null) {
+            phases[phase] = new CallerStats(name, precision, false);
+        }
+        return phases[phase];
+    }
+
+    /**
+     * @param chunkIndex the index of the chunk of the caller's {@link MoleculeSource} that was sent
+     */
+    public void addSample(Instant start, long durationNanos, long correctedDurationNanos, int molCount,
+            SearchResponseStat response, int chunkIndex) {
+        if (moleculeCosts != null) {
+            moleculeCosts.record(chunkIndex, durationNanos, response);
+        }
+        addSample(TimeUnit.SECONDS.toNanos(start.getEpochSecond()) + start.getNano(), durationNanos,
+                correctedDurationNanos, molCount, response.getPassed(), response.getError(), response.getHitCount(),
+                response.getHitSize(), chunkIndex);
+    }
+
+    public void addSample(long startEpochNanos, long durationNanos, long correctedDurationNanos, int molCount,
+            int passed, int errors, int hits, int hitSum, int chunkIndex) {
+        if (isKeepingLogs()) {
+            samples.add(startEpochNanos, durationNanos, correctedDurationNanos, molCount, passed, errors, hits, hitSum,
+                    chunkIndex);
+        }
+    }
+
+    /**
+     * @param requestBodies tells the body of a request by the index of its chunk, or null if it is not kept
+     */
+    public void setRequestBodies(IntFunction<String> requestBodies) {
+        this.requestBodies = requestBodies;
+    }
+
+    /**
+     * @param moleculeCosts where the service times of the answered requests are attributed to their molecules
+     */
+    public void setMoleculeCosts(MoleculeCosts.Recorder moleculeCosts) {
+        this.moleculeCosts = moleculeCosts;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the latencies measured from the actual send, in nanoseconds
+     */
+    public Histogram getServiceTimes() {
+        return serviceTimes;
+    }
+
+    /**
+     * @return the latencies measured from the intended send, in nanoseconds
+     */
+    public Histogram getResponseTimes() {
+        return responseTimes;
+    }
+
+    /**
+     * @return the latencies of the failed requests measured from the actual send, in nanoseconds
+     */
+    public Histogram getFailedTimes() {
+        return failedTimes;
+    }
+
+    /**
+     * @return the number of failed requests by their {@link FailureType} label
+     */
+    public Map<String, Long> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public long getFailedRequestCount() {
+        return failedTimes.getTotalCount();
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    public int getPhaseCount() {
+        return phases.length;
+    }
+
+    public boolean isKeepingLogs() {
+        return samples != null;
+    }
+
+    public int getSampleCount() {
+        return samples == null ? 0 : samples.size();
+    }
+
+    public long getSampleDurationNanos(int sample) {
+        return samples.getDurationNanos(sample);
+    }
+
+    /**
+     * @return a view of the given sample, with the request body if it is kept
+     */
+    public RunTimeLog getLog(int sample) {
+        long start = samples.getStartEpochNanos(sample);
+        return new RunTimeLog(Instant.ofEpochSecond(0, start), samples.getDurationNanos(sample),
+                samples.getCorrectedDurationNanos(sample), samples.getMolCount(sample), name,
+                requestBodies.apply(samples.getChunkIndex(sample)), samples.getPassed(sample),
+                samples.getErrors(sample), samples.getHits(sample), samples.getHitSum(sample));
+    }
+
+    public long getRequestCount() {
+        return serviceTimes.getTotalCount();
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getPassedCount() {
+        return passedCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getCheckedCount() {
+        return passedCount + hitCount + errorCount;
+    }
+
+    /**
+     * @return whether every molecule sent has got its result
+     */
+    public boolean isEveryCheckFinnished() {
+        return sentCount == getCheckedCount();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+
+import com.google.gson.Gson;
+
+/**
+ * Builds the body of the /check/list requests from the exported molecules, with the date and categories of the run,
+ * or with the ones of the request if it is replayed from a capture. The parts of the JSON envelope around the
+ * molecules are encoded once, only the molecules change between requests.
+ */
+public class CheckRequestFactory {
+
+    private final byte[] head;
+    private final byte[] tail;
+    private final boolean keepBodies;
+    private RequestCapture capture;
+
+    /**
+     * @param keepBodies whether {@link #bodyForLog(List)} returns the bodies, they are only built if so
+     */
+    public CheckRequestFactory(String dateToCheck, List<String> categoriesToCheck, boolean keepBodies) {
+        Gson gson = new Gson();
+        StringBuilder tailBuilder = new StringBuilder("]");
+        if (dateToCheck != null) {
+            tailBuilder.append(",\"date\":").append(gson.toJson(dateToCheck));
+        }
+        if (categoriesToCheck != null) {
+            tailBuilder.append(",\"categories\":").append(gson.toJson(categoriesToCheck));
+        }
+        tailBuilder.append('}');
+        this.head = "{\"input\":[".getBytes(StandardCharsets.UTF_8);
+        this.tail = tailBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        this.keepBodies = keepBodies;
+    }
+
+    /**
+     * @param capture where the body of every request created from now on is written, or null
+     */
+    public void setCapture(RequestCapture capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * @return the body of a request about to be sent
+     */
+    public HttpEntity createEntity(List<byte[]> srcs) {
+        HttpEntity entity = buildEntity(srcs);
+        if (capture != null) {
+            capture.append(entity);
+        }
+        return entity;
+    }
+
+    private HttpEntity buildEntity(List<byte[]> srcs) {
+        if (srcs instanceof ReplaySource.CapturedRequest) {
+            return new ChunkRequestEntity(head, srcs, ((ReplaySource.CapturedRequest) srcs).getTail());
+        }
+        return new ChunkRequestEntity(head, srcs, tail);
+    }
+
+    /**
+     * @return the body of the request as a String if request bodies are kept, null otherwise
+     */
+    public String bodyForLog(List<byte[]> srcs) {
+        if (!keepBodies) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            buildEntity(srcs).writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
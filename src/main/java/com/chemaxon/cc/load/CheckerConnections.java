@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * The HTTP connections to the checker, pooled and kept alive, shared by every caller. The Basic authorization header
+ * is computed once and sent preemptively with every request. It also counts how the connections are used, so client
+ * side connection churn can be told apart from server latency. The timeouts of the requests are set by a
+ * {@link RequestPolicy}, the bodies are compressed and metered by a {@link TransferMeter}.
+ */
+public class CheckerConnections implements Closeable {
+
+    private final URI checkUri;
+    private final HttpHost targetHost;
+    private final MeteredConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final RequestPolicy policy;
+    private final TransferMeter transfer;
+    private final ScheduledExecutorService deadlines;
+
+    /**
+     * @param maxConnections the maximum number of connections to the checker
+     * @param keepAliveSeconds how long an idle connection is kept if the server does not tell otherwise
+     */
+    public CheckerConnections(URL url, String user, String password, int maxConnections, int keepAliveSeconds,
+            RequestPolicy policy, TransferMeter transfer) throws URISyntaxException {
+        this.policy = policy;
+        this.transfer = transfer;
+        this.deadlines = policy.hasRequestTimeout() ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "request-deadlines");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+        this.checkUri = new URI(url.toString() + "/check/list");
+        this.targetHost = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
+        this.connectionManager = new MeteredConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        List<Header> headers = new ArrayList<>(transfer.getDefaultHeaders());
+        headers.add(basicAuthorization(user, password));
+        // the responses are decompressed by the transfer meter, so their size on the wire can be measured
+        this.client = HttpClients.custom().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(policy.toRequestConfig()).setDefaultHeaders(headers)
+                .disableContentCompression()
+                .setKeepAliveStrategy(keepAliveStrategy(keepAliveSeconds))
+                .evictExpiredConnections().evictIdleConnections(keepAliveSeconds, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * @return the preemptive Basic authorization header of the user
+     */
+    public static Header basicAuthorization(String user, String password) {
+        String credentials = Base64.getEncoder()
+                .encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+        return new BasicHeader(HttpHeaders.AUTHORIZATION, "Basic " + credentials);
+    }
+
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(int keepAliveSeconds) {
+        return (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? serverKeepAlive : TimeUnit.SECONDS.toMillis(keepAliveSeconds);
+        };
+    }
+
+    public CloseableHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return a new context for one simulated user, with its own cookies
+     */
+    public HttpClientContext newContext() {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(new BasicCookieStore());
+        return context;
+    }
+
+    /**
+     * Aborts the request if it has not finished within the request timeout of the policy.
+     *
+     * @return the deadline to cancel once the response is read, or null if there is no request timeout
+     */
+    public ScheduledFuture<?> abortAtDeadline(HttpUriRequest request) {
+        if (deadlines == null) {
+            return null;
+        }
+        return deadlines.schedule(request::abort, policy.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the failure of a request aborted at the request timeout, e.g. of its socket closed while the response is
+     *         read, as a timeout
+     */
+    public static IOException deadlineExceeded(Throwable cause) {
+        InterruptedIOException e = new InterruptedIOException("Request aborted at the request timeout");
+        e.initCause(cause);
+        return e;
+    }
+
+    public RequestPolicy getPolicy() {
+        return policy;
+    }
+
+    public TransferMeter getTransfer() {
+        return transfer;
+    }
+
+    public URI getCheckUri() {
+        return checkUri;
+    }
+
+    public HttpHost getTargetHost() {
+        return targetHost;
+    }
+
+    public Map<String, Double> getMetrics() {
+        long leased = connectionManager.leased.sum();
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("connections leased", (double) leased);
+        metrics.put("connections created", (double) connectionManager.created.sum());
+        metrics.put("connections reused", (double) connectionManager.reused.sum());
+        metrics.put("reuse %", leased == 0 ? 0.0 : ((double) connectionManager.reused.sum()) / leased * 100.0);
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (deadlines != null) {
+            deadlines.shutdownNow();
+        }
+        client.close();
+    }
+
+    private static class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+
+        private final LongAdder leased = new LongAdder();
+        private final LongAdder created = new LongAdder();
+        private final LongAdder reused = new LongAdder();
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    HttpClientConnection connection = request.get(timeout, tunit);
+                    leased.increment();
+                    if (connection.isOpen()) {
+                        reused.increment();
+                    }
+                    return connection;
+                }
+            };
+        }
+
+        @Override
+        public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout,
+                HttpContext context) throws IOException {
+            super.connect(managedConn, route, connectTimeout, context);
+            created.increment();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+
+import org.apache.http.StatusLine;
+
+/**
+ * Thrown when the checker answers a request with a status other than 200.
+ */
+public class CheckerStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public CheckerStatusException(StatusLine statusLine) {
+        super("Compliance checking request returned: " + statusLine);
+        this.status = statusLine.getStatusCode();
+    }
+
+    public CheckerStatusException(int status, String reasonPhrase) {
+        super("Compliance checking request returned: " + status + (reasonPhrase == null ? "" : " " + reasonPhrase));
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
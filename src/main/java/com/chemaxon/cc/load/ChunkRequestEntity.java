@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * The JSON body of a /check/list request, written straight from the pre-encoded molecules to the connection. The
+ * body is never built as a whole, neither as a String nor as a byte array.
+ */
+public class ChunkRequestEntity extends AbstractHttpEntity {
+
+    private static final byte[] SEPARATOR = { ',' };
+
+    private final byte[] head;
+    private final List<byte[]> srcs;
+    private final byte[] tail;
+    private final long length;
+
+    /**
+     * @param head the start of the envelope, up to the opening bracket of the input array
+     * @param srcs the molecules, each the UTF-8 bytes of a JSON string
+     * @param tail the rest of the envelope, from the closing bracket of the input array
+     */
+    public ChunkRequestEntity(byte[] head, List<byte[]> srcs, byte[] tail) {
+        this.head = head;
+        this.srcs = srcs;
+        this.tail = tail;
+        long l = head.length + tail.length + Math.max(0, srcs.size() - 1);
+        for (byte[] src : srcs) {
+            l += src.length;
+        }
+        this.length = l;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new PartsInputStream();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(head);
+        for (int i = 0; i < srcs.size(); ++i) {
+            if (i > 0) {
+                out.write(SEPARATOR);
+            }
+            out.write(srcs.get(i));
+        }
+        out.write(tail);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Reads the parts of the body one after the other, for clients that pull the content instead of letting the entity
+     * write it.
+     */
+    private class PartsInputStream extends InputStream {
+
+        private int part = 0;
+        private int pos = 0;
+
+        private byte[] current() {
+            while (true) {
+                byte[] p = part(part);
+                if (p == null || pos < p.length) {
+                    return p;
+                }
+                ++part;
+                pos = 0;
+            }
+        }
+
+        /**
+         * @return the n-th part: the head, the molecules with separators between them, the tail, or null after that
+         */
+        private byte[] part(int n) {
+            if (n == 0) {
+                return head;
+            }
+            int mol = n - 1;
+            int molParts = Math.max(0, srcs.size() * 2 - 1);
+            if (mol < molParts) {
+                return mol % 2 == 0 ? srcs.get(mol / 2) : SEPARATOR;
+            }
+            return mol == molParts ? tail : null;
+        }
+
+        @Override
+        public int read() {
+            byte[] p = current();
+            return p == null ? -1 : p[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            byte[] p = current();
+            if (p == null) {
+                return -1;
+            }
+            int n = Math.min(len, p.length - pos);
+            System.arraycopy(p, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
@@ -17,15 +17,19 @@
 package com.chemaxon.cc.load;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -36,23 +40,71 @@ public class CliOptions {
 
     private static final Logger LOG = LoggerFactory.getLogger(CliOptions.class);
 
+    /** The options that are not passed to the workers. */
+    private static final List<String> COORDINATOR_OPTIONS = Arrays.asList("workers", "coordinatorPort", "save",
+            "saveInputInReport", "summaryOnly", "reportInterval", "intervalCsv", "metrics-port", "journal",
+            "scenario", "duration", "rampUp", "thinkTime", "pacing", "failOnError", "slowest", "capture");
+
+    /** The options that are not passed to the runs of a sweep. */
+    private static final List<String> SWEEP_OPTIONS = Arrays.asList("sweepThreads", "sweepChunks", "sweepWarmup",
+            "sweepEngines", "engine", "threads", "chunks", "save", "saveInputInReport", "summaryOnly", "reportInterval",
+            "intervalCsv", "metrics-port", "journal", "scenario", "duration", "rampUp", "thinkTime", "pacing",
+            "failOnError", "workers", "coordinatorPort", "slowest", "capture");
+
     private Options opts;
     private CommandLineParser commandlineParser;
     private final CommandLine commandline;
+    private final Scenario scenario;
+
+    public CliOptions(String[] args) throws ParseException, IOException {
+        this(args, null);
+    }
 
-    public CliOptions(String[] args) throws ParseException {
+    /**
+     * @param scenario the scenario to follow instead of the one given by the arguments, e.g. received by a worker
+     */
+    public CliOptions(String[] args, Scenario scenario) throws ParseException, IOException {
+        this(args, scenario, true);
+    }
+
+    /**
+     * @param printHelp whether the help is printed, it is not for the runs of a sweep
+     */
+    CliOptions(String[] args, Scenario scenario, boolean printHelp) throws ParseException, IOException {
         buildOptions();
-        new HelpFormatter().printHelp( "cchecker-load-test", "This program runs load test on cc instance", opts, "For further information please contact cc-support /at/ chemaxon.com", true);
+        if (printHelp) {
+            new HelpFormatter().printHelp( "cchecker-load-test", "This program runs load test on cc instance", opts, "For further information please contact cc-support /at/ chemaxon.com", true);
+        }
         commandlineParser = new DefaultParser();
         commandline = commandlineParser.parse(opts, args);
         for (Option o : commandline.getOptions()) {
-            LOG.debug("Option: {} with value: {}", o, commandline.getOptionValue(o.getOpt()));
+            LOG.debug("Option: {} with value: {}", o, o.getValue());
+        }
+        if (scenario != null) {
+            this.scenario = scenario;
+        } else if (commandline.hasOption("scenario")) {
+            this.scenario = Scenario.load(new File(commandline.getOptionValue("scenario")));
+            if (commandline.hasOption("threads")
+                    && Integer.parseInt(commandline.getOptionValue("threads")) != this.scenario.getMaxUsers()) {
+                throw new IllegalArgumentException("--threads " + commandline.getOptionValue("threads")
+                        + " conflicts with the " + this.scenario.getMaxUsers()
+                        + " users of the --scenario file, leave it out");
+            }
+        } else if (!commandline.hasOption("threads")) {
+            throw new MissingOptionException(Collections.singletonList("t"));
+        } else if (commandline.hasOption("duration")) {
+            this.scenario = Scenario.of(getThreads(), Double.parseDouble(commandline.getOptionValue("rampUp", "0")),
+                    Double.parseDouble(commandline.getOptionValue("duration")),
+                    getThinkTime(), getPacing());
+        } else {
+            this.scenario = null;
         }
     }
 
     private void buildOptions() {
-        Option threads = Option.builder("t").longOpt("threads").desc("The number of threads").hasArg()
-                .type(Integer.class).required().build();
+        Option threads = Option.builder("t").longOpt("threads")
+                .desc("The number of threads (simulated users), required unless given by --scenario").hasArg()
+                .type(Integer.class).required(false).build();
         Option chunks = Option.builder("c").longOpt("chunks").desc("The number of molecules to check in one request")
                 .hasArg().type(Integer.class).required().build();
         Option url = Option.builder("u").longOpt("url").desc("The url of cc-bigdata integration controller").hasArg()
@@ -69,12 +121,156 @@ public class CliOptions {
                 .desc("If set and any error happens, the application will fail with an error.").hasArg(false)
                 .required(false).build();
         Option saveInput = Option.builder("i").longOpt("saveInputInReport")
+                .desc("If set the request bodies are saved into the report.").hasArg(false).required(false).build();
         Option dateToCheck = Option.builder("d").longOpt("dateToCheck").desc("The date to check against").hasArg()
                 .required(false).build();
         Option catgoriesToCheck = Option.builder("l").longOpt("categoriesToCheck").desc("The categories to check against").hasArg()
                 .required(false).build();
+        Option rate = Option.builder("r").longOpt("rate")
+                .desc("Run an open model: send requests at this fixed arrival rate instead of waiting for the previous response")
+                .hasArg().type(Double.class).required(false).build();
+        Option rateUnit = Option.builder().longOpt("rateUnit")
+                .desc("The unit of --rate: 'req' for requests/sec (default) or 'mol' for molecules/sec").hasArg()
+                .required(false).build();
+        Option summaryOnly = Option.builder().longOpt("summaryOnly")
+                .desc("Keep only the latency histograms, not the per request rows, so memory stays constant on long runs")
+                .hasArg(false).required(false).build();
+        Option histogramPrecision = Option.builder().longOpt("histogramPrecision")
+                .desc("The number of significant digits the latency histograms keep (0-5, default 3)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option stream = Option.builder().longOpt("stream")
+                .desc("Stream the molecules of the file to the threads through a bounded queue instead of loading them "
+                        + "all. Every molecule is sent once per pass, by one of the threads")
+                .hasArg(false).required(false).build();
+        Option queueSize = Option.builder().longOpt("queueSize")
+                .desc("The number of molecules buffered ahead in --stream mode (default 10000)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option passes = Option.builder().longOpt("passes")
+                .desc("How many times the file is read in --stream mode, 0 for no limit (default 1)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option maxConnections = Option.builder().longOpt("maxConnections")
+                .desc("The size of the connection pool to the checker (default: the number of threads)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option keepAlive = Option.builder().longOpt("keepAlive")
+                .desc("Seconds an idle pooled connection is kept if the server does not tell otherwise (default 30)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option connectTimeout = Option.builder().longOpt("connectTimeout")
+                .desc("Milliseconds to wait for a connection to the checker, 0 for no limit (default 10000)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option socketTimeout = Option.builder().longOpt("socketTimeout")
+                .desc("Milliseconds to wait for the next packet of a response, 0 for no limit (default 60000)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option requestTimeout = Option.builder().longOpt("requestTimeout")
+                .desc("Milliseconds a request may take as a whole before it is aborted, 0 for no limit (default 0)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option retries = Option.builder().longOpt("retries")
+                .desc("How many times a request failed with a timeout, a connection error, 429 or 5xx is sent again "
+                        + "(default 0)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option retryBackoff = Option.builder().longOpt("retryBackoff")
+                .desc("Milliseconds to wait before the first retry, doubled before every further one (default 100)")
+                .hasArg().type(Long.class).required(false).build();
+        Option compress = Option.builder().longOpt("compress")
+                .desc("Gzip the request bodies and accept gzipped responses").hasArg(false).required(false).build();
+        Option engine = Option.builder().longOpt("engine")
+                .desc("How the users are simulated: 'thread' for a thread per user (default), 'virtual' for a virtual "
+                        + "thread per user (needs Java 21), 'async' for a non-blocking HTTP client or 'h2' for "
+                        + "requests multiplexed over a few HTTP/2 connections")
+                .hasArg().required(false).build();
+        Option ioThreads = Option.builder().longOpt("ioThreads")
+                .desc("The number of I/O threads of the async and h2 engines (default: the number of processors)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option maxInFlight = Option.builder().longOpt("maxInFlight")
+                .desc("The maximum number of requests in flight in the async engine (default: the number of threads)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option h2Connections = Option.builder().longOpt("h2Connections")
+                .desc("The number of HTTP/2 connections of the h2 engine (default 1)").hasArg().type(Integer.class)
+                .required(false).build();
+        Option maxConcurrentStreams = Option.builder().longOpt("maxConcurrentStreams")
+                .desc("The maximum number of requests in flight on one HTTP/2 connection, at most what the server "
+                        + "allows (default 100)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option fullResponseParsing = Option.builder().longOpt("fullResponseParsing")
+                .desc("Deserialize the whole responses instead of only counting their results, for debugging")
+                .hasArg(false).required(false).build();
+        Option scenario = Option.builder().longOpt("scenario")
+                .desc("A JSON file of load phases (ramps, steps, spikes, soak) to follow instead of sending the input "
+                        + "once. The number of users comes from the scenario")
+                .hasArg().type(String.class).required(false).build();
+        Option duration = Option.builder().longOpt("duration")
+                .desc("Run for this many seconds at the number of threads, sending the input again and again. "
+                        + "Ignored with --scenario")
+                .hasArg().type(Double.class).required(false).build();
+        Option rampUp = Option.builder().longOpt("rampUp")
+                .desc("Seconds to start the threads linearly before --duration begins (default 0)").hasArg()
+                .type(Double.class).required(false).build();
+        Option thinkTime = Option.builder().longOpt("thinkTime")
+                .desc("Milliseconds every user waits after a response in --duration mode (default 0)").hasArg()
+                .type(Long.class).required(false).build();
+        Option pacing = Option.builder().longOpt("pacing")
+                .desc("The least milliseconds between the starts of two requests of a user in --duration mode, waited "
+                        + "after a response together with --thinkTime (default 0: no pacing)")
+                .hasArg().type(Long.class).required(false).build();
+        Option reportInterval = Option.builder().longOpt("reportInterval")
+                .desc("Seconds between the lines of live throughput and latency logged during the run, 0 for none "
+                        + "(default 10)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option intervalCsv = Option.builder().longOpt("intervalCsv")
+                .desc("A CSV file the live lines are appended to").hasArg().type(String.class).required(false)
+                .build();
+        Option metricsPort = Option.builder().longOpt("metrics-port")
+                .desc("Serve live metrics in Prometheus format on http://<host>:<port>/metrics while the test runs")
+                .hasArg().type(Integer.class).required(false).build();
+        Option reportRows = Option.builder().longOpt("reportRows")
+                .desc("The maximum number of requests listed in each table of the report (default 10000)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option slowest = Option.builder().longOpt("slowest")
+                .desc("If set, the service time of every request is attributed to the molecules it contained and "
+                        + "this many of the slowest structures are listed in the report (not with --stream)")
+                .hasArg().type(Integer.class).required(false).build();
+        Option latencyBuckets = Option.builder().longOpt("latencyBuckets")
+                .desc("The buckets of the latency distribution charts: 'linear:<ms>' for buckets of the same width "
+                        + "(default linear:100) or 'log:<first bucket ms>:<factor>' for growing ones, e.g. log:1:2")
+                .hasArg().required(false).build();
+        Option journal = Option.builder().longOpt("journal")
+                .desc("Append every result to this binary journal while the test runs. A report can be made of it "
+                        + "later with the 'report' command")
+                .hasArg().type(String.class).required(false).build();
+        Option replay = Option.builder().longOpt("replay")
+                .desc("Send the requests of this JSONL capture instead of the molecules of the file, each once")
+                .hasArg().type(String.class).required(false).build();
+        Option replaySpeed = Option.builder().longOpt("replaySpeed")
+                .desc("How many times faster than captured the timestamped requests of --replay are sent, 0 for as "
+                        + "fast as possible (default 1: real time)")
+                .hasArg().type(Double.class).required(false).build();
+        Option capture = Option.builder().longOpt("capture")
+                .desc("Write every request sent to this JSONL file, with its timestamp, for --replay").hasArg()
+                .type(String.class).required(false).build();
+        Option workers = Option.builder().longOpt("workers")
+                .desc("Coordinate this many worker JVMs instead of sending requests: every worker simulates the "
+                        + "given users, the --rate is shared among them, and one report is made of their results")
+                .hasArg().type(Integer.class).required(false).build();
+        Option coordinatorPort = Option.builder().longOpt("coordinatorPort")
+                .desc("The port the coordinator waits for the workers on (default 7077)").hasArg()
+                .type(Integer.class).required(false).build();
+        Option sweepThreads = Option.builder().longOpt("sweepThreads")
+                .desc("Sweep the load instead of one run: run the test with each of these comma separated numbers of "
+                        + "threads, for each --sweepChunks, for --duration seconds (default 60) each, then fit a "
+                        + "scalability model and write a heatmap report")
+                .hasArg().required(false).build();
+        Option sweepChunks = Option.builder().longOpt("sweepChunks")
+                .desc("The comma separated chunk sizes of the sweep (default: --chunks)").hasArg().required(false)
+                .build();
+        Option sweepEngines = Option.builder().longOpt("sweepEngines")
+                .desc("The comma separated engines of the sweep, e.g. thread,h2 to compare the HTTP/1.1 connection "
+                        + "pool with HTTP/2 (default: --engine)")
+                .hasArg().required(false).build();
+        Option sweepWarmup = Option.builder().longOpt("sweepWarmup")
+                .desc("Seconds every run of the sweep runs before it is measured (default 10)").hasArg()
+                .type(Double.class).required(false).build();
         opts = new Options();
-        opts.addOption(threads)        opts.addOption(chunks);
+        opts.addOption(threads);
+        opts.addOption(chunks);
         opts.addOption(url);
         opts.addOption(file);
         opts.addOption(httpUser);
@@ -84,9 +280,57 @@ public class CliOptions {
         opts.addOption(saveInput);
         opts.addOption(dateToCheck);
         opts.addOption(catgoriesToCheck);
+        opts.addOption(rate);
+        opts.addOption(rateUnit);
+        opts.addOption(summaryOnly);
+        opts.addOption(histogramPrecision);
+        opts.addOption(stream);
+        opts.addOption(queueSize);
+        opts.addOption(passes);
+        opts.addOption(maxConnections);
+        opts.addOption(keepAlive);
+        opts.addOption(connectTimeout);
+        opts.addOption(socketTimeout);
+        opts.addOption(requestTimeout);
+        opts.addOption(retries);
+        opts.addOption(retryBackoff);
+        opts.addOption(compress);
+        opts.addOption(engine);
+        opts.addOption(ioThreads);
+        opts.addOption(maxInFlight);
+        opts.addOption(h2Connections);
+        opts.addOption(maxConcurrentStreams);
+        opts.addOption(fullResponseParsing);
+        opts.addOption(scenario);
+        opts.addOption(duration);
+        opts.addOption(rampUp);
+        opts.addOption(thinkTime);
+        opts.addOption(pacing);
+        opts.addOption(reportInterval);
+        opts.addOption(intervalCsv);
+        opts.addOption(metricsPort);
+        opts.addOption(reportRows);
+        opts.addOption(slowest);
+        opts.addOption(latencyBuckets);
+        opts.addOption(journal);
+        opts.addOption(replay);
+        opts.addOption(replaySpeed);
+        opts.addOption(capture);
+        opts.addOption(workers);
+        opts.addOption(coordinatorPort);
+        opts.addOption(sweepThreads);
+        opts.addOption(sweepChunks);
+        opts.addOption(sweepEngines);
+        opts.addOption(sweepWarmup);
     }
 
+    /**
+     * @return the number of simulated users, the most users of the scenario if given
+     */
     public int getThreads() {
+        if (scenario != null) {
+            return scenario.getMaxUsers();
+        }
         return Integer.parseInt(commandline.getOptionValue("threads"));
     }
 
@@ -153,4 +397,269 @@ public class CliOptions {
         }
         return null;
     }
+
+    public boolean isSummaryOnly() {
+        return commandline.hasOption("summaryOnly");
+    }
+
+    public int getReportRows() {
+        return Integer.parseInt(commandline.getOptionValue("reportRows", "10000"));
+    }
+
+    /**
+     * @return the number of slowest structures listed in the report, 0 if the molecules' costs are not estimated
+     */
+    public int getSlowest() {
+        return Integer.parseInt(commandline.getOptionValue("slowest", "0"));
+    }
+
+    public File getJournal() {
+        if (commandline.hasOption("journal")) {
+            return new File(commandline.getOptionValue("journal"));
+        }
+        return null;
+    }
+
+    public LatencyBuckets getLatencyBuckets() {
+        return LatencyBuckets.parse(commandline.getOptionValue("latencyBuckets", "linear:100"));
+    }
+
+    public int getHistogramPrecision() {
+        return Integer.parseInt(commandline.getOptionValue("histogramPrecision", "3"));
+    }
+
+    public File getReplay() {
+        if (commandline.hasOption("replay")) {
+            return new File(commandline.getOptionValue("replay"));
+        }
+        return null;
+    }
+
+    public double getReplaySpeed() {
+        return Double.parseDouble(commandline.getOptionValue("replaySpeed", "1"));
+    }
+
+    public File getCapture() {
+        if (commandline.hasOption("capture")) {
+            return new File(commandline.getOptionValue("capture"));
+        }
+        return null;
+    }
+
+    public boolean isStreaming() {
+        return commandline.hasOption("stream");
+    }
+
+    public int getQueueSize() {
+        return Integer.parseInt(commandline.getOptionValue("queueSize", "10000"));
+    }
+
+    public int getPasses() {
+        return Integer.parseInt(commandline.getOptionValue("passes", "1"));
+    }
+
+    public int getMaxConnections() {
+        if (commandline.hasOption("maxConnections")) {
+            return Integer.parseInt(commandline.getOptionValue("maxConnections"));
+        }
+        return getThreads();
+    }
+
+    public int getKeepAlive() {
+        return Integer.parseInt(commandline.getOptionValue("keepAlive", "30"));
+    }
+
+    public RequestPolicy getRequestPolicy() {
+        return new RequestPolicy(Integer.parseInt(commandline.getOptionValue("connectTimeout", "10000")),
+                Integer.parseInt(commandline.getOptionValue("socketTimeout", "60000")),
+                Integer.parseInt(commandline.getOptionValue("requestTimeout", "0")),
+                Integer.parseInt(commandline.getOptionValue("retries", "0")),
+                Long.parseLong(commandline.getOptionValue("retryBackoff", "100")));
+    }
+
+    public boolean isCompress() {
+        return commandline.hasOption("compress");
+    }
+
+    public String getEngine() {
+        return commandline.getOptionValue("engine", "thread");
+    }
+
+    public int getIoThreads() {
+        if (commandline.hasOption("ioThreads")) {
+            return Integer.parseInt(commandline.getOptionValue("ioThreads"));
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getMaxInFlight() {
+        if (commandline.hasOption("maxInFlight")) {
+            return Integer.parseInt(commandline.getOptionValue("maxInFlight"));
+        }
+        return getThreads();
+    }
+
+    public int getH2Connections() {
+        return Integer.parseInt(commandline.getOptionValue("h2Connections", "1"));
+    }
+
+    public int getMaxConcurrentStreams() {
+        return Integer.parseInt(commandline.getOptionValue("maxConcurrentStreams", "100"));
+    }
+
+    public boolean isFullResponseParsing() {
+        return commandline.hasOption("fullResponseParsing");
+    }
+
+    public int getReportInterval() {
+        return Integer.parseInt(commandline.getOptionValue("reportInterval", "10"));
+    }
+
+    public File getIntervalCsv() {
+        if (commandline.hasOption("intervalCsv")) {
+            return new File(commandline.getOptionValue("intervalCsv"));
+        }
+        return null;
+    }
+
+    public boolean isServingMetrics() {
+        return commandline.hasOption("metrics-port");
+    }
+
+    public int getMetricsPort() {
+        return Integer.parseInt(commandline.getOptionValue("metrics-port"));
+    }
+
+    public boolean isCoordinator() {
+        return commandline.hasOption("workers");
+    }
+
+    public int getWorkers() {
+        return Integer.parseInt(commandline.getOptionValue("workers"));
+    }
+
+    public int getCoordinatorPort() {
+        return Integer.parseInt(commandline.getOptionValue("coordinatorPort", "7077"));
+    }
+
+    /**
+     * @return the arguments a worker runs its share of the test with: the same as the coordinator's, with the
+     *         --rate divided among the workers and without the options of the coordinator, the report and the
+     *         scenario, which is sent as it is
+     */
+    public List<String> getWorkerArgs() {
+        List<String> args = toArgs(COORDINATOR_OPTIONS);
+        args.add("--summaryOnly");
+        return args;
+    }
+
+    public long getThinkTime() {
+        return Long.parseLong(commandline.getOptionValue("thinkTime", "0"));
+    }
+
+    public long getPacing() {
+        return Long.parseLong(commandline.getOptionValue("pacing", "0"));
+    }
+
+    public boolean isSweep() {
+        return commandline.hasOption("sweepThreads");
+    }
+
+    public List<Integer> getSweepThreads() {
+        return parseInts(commandline.getOptionValue("sweepThreads"));
+    }
+
+    public List<Integer> getSweepChunks() {
+        return parseInts(commandline.getOptionValue("sweepChunks", commandline.getOptionValue("chunks")));
+    }
+
+    public List<String> getSweepEngines() {
+        List<String> engines = new ArrayList<>();
+        for (String s : commandline.getOptionValue("sweepEngines", getEngine()).split(",")) {
+            engines.add(s.trim());
+        }
+        return engines;
+    }
+
+    public double getSweepWarmup() {
+        return Double.parseDouble(commandline.getOptionValue("sweepWarmup", "10"));
+    }
+
+    public double getSweepDuration() {
+        return Double.parseDouble(commandline.getOptionValue("duration", "60"));
+    }
+
+    /**
+     * @return the arguments of one run of the sweep: the same as the sweep's, with the given engine, threads and chunks,
+     *         without the options of the sweep, the report and the scenario
+     */
+    public List<String> getSweepArgs(String engine, int threads, int chunks) {
+        List<String> args = toArgs(SWEEP_OPTIONS);
+        args.add("--engine");
+        args.add(engine);
+        args.add("--threads");
+        args.add(Integer.toString(threads));
+        args.add("--chunks");
+        args.add(Integer.toString(chunks));
+        args.add("--summaryOnly");
+        return args;
+    }
+
+    private List<String> toArgs(List<String> skipped) {
+        List<String> args = new ArrayList<>();
+        for (Option o : commandline.getOptions()) {
+            if (skipped.contains(o.getLongOpt())) {
+                continue;
+            }
+            args.add("--" + o.getLongOpt());
+            if ("rate".equals(o.getLongOpt()) && isCoordinator()) {
+                args.add(Double.toString(Double.parseDouble(o.getValue()) / getWorkers()));
+            } else if (o.hasArg()) {
+                args.add(o.getValue());
+            }
+        }
+        return args;
+    }
+
+    private static List<Integer> parseInts(String list) {
+        List<Integer> ints = new ArrayList<>();
+        for (String s : list.split(",")) {
+            ints.add(Integer.parseInt(s.trim()));
+        }
+        return ints;
+    }
+
+    public boolean isScenarioMode() {
+        return scenario != null;
+    }
+
+    /**
+     * @return the --scenario file, or a ramp-up and steady phase built from --threads, --rampUp and --duration
+     */
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public boolean isRateMode() {
+        return commandline.hasOption("rate");
+    }
+
+    /**
+     * @return the target arrival rate in requests/sec, converted from molecules/sec if --rateUnit is 'mol'
+     */
+    public double getRequestRate() {
+        double rate = Double.parseDouble(commandline.getOptionValue("rate"));
+        if (rate <= 0) {
+            throw new IllegalArgumentException("--rate must be positive: " + rate);
+        }
+        String unit = commandline.getOptionValue("rateUnit", "req");
+        switch (unit) {
+        case "req":
+            return rate;
+        case "mol":
+            return rate / getChunks();
+        default:
+            throw new IllegalArgumentException("Unknown --rateUnit: " + unit);
+        }
+    }
 }
\ No newline at end of file
@@ -17,95 +17,93 @@
 package com.chemaxon.cc.load;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.http.HttpHeaders;
-import org.apache.http.HttpHost;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.AuthCache;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.CookieSpecs;
-import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicAuthCache;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.chemaxon.marvin.io.formats.csv.CsvExport;
-import com.google.gson.Gson;
-
-import chemaxon.formats.MolExporter;
-import chemaxon.struc.Molecule;
-
+/**
+ * One simulated user sending its chunks one after the other. A failed request is recorded with its cause and sent
+ * again if the {@link RequestPolicy} allows it, then the user goes on with its next chunk.
+ */
 public class ComplianceCaller implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(ComplianceCaller.class);
 
-    private final List<Molecule> molsToCheck;
-    private final URI uriToCall;
+    private final MoleculeSource molsToCheck;
+    private final CheckerConnections connections;
     private final int chunkSize;
-    private final String user;
-    private final String password;
-    private final List<RunTimeLog> runs = new ArrayList<>();
-    private final String dateToCheck;
-    private final List<String> categoriesToCheck;
-    private int passedCount = 0;
-    private int hitCount = 0;
-    private int errorCount = 0;
-    
-
-    public ComplianceCaller(List<Molecule> molsToCheck, URL url, int chunkSize, String user, String password, String dateToCheck, List<String> categoriesToCheck) throws URISyntaxException {
-        this.molsToCheck = Collections.unmodifiableList(ComplianceCaller.shuffle(molsToCheck));
-        this.uriToCall = new URI(url.toString() + "/check/list");
+    private final CallerStats stats;
+    private final CheckRequestFactory requests;
+    private final ResponseParser parser;
+    private final ArrivalSchedule schedule;
+    private final Scenario scenario;
+    private final int userIndex;
+    private final LiveMetrics live;
+    private final ResultJournal journal;
+    private final RequestPolicy policy;
+    private final TransferMeter transfer;
+
+    public ComplianceCaller(MoleculeSource molsToCheck, CheckerConnections connections, int chunkSize, CheckRequestFactory requests, ResponseParser parser, ArrivalSchedule schedule, Scenario scenario, int userIndex, LiveMetrics live, ResultJournal journal, CallerStats stats) {
+        this.molsToCheck = molsToCheck;
+        this.connections = connections;
         this.chunkSize = chunkSize;
-        this.user = user;
-        this.password = password;
-        this.dateToCheck=dateToCheck;
-        this.categoriesToCheck=categoriesToCheck;
-    }
-
-    private static List<Molecule> shuffle(List<Molecule> molsToCheck) {
-        List<Molecule> s = new ArrayList<>(molsToCheck);
-        Collections.shuffle(s);
-        return s;
+        this.requests = requests;
+        this.parser = parser;
+        this.schedule = schedule;
+        this.scenario = scenario;
+        this.userIndex = userIndex;
+        this.live = live;
+        this.journal = journal;
+        this.stats = stats;
+        this.policy = connections.getPolicy();
+        this.transfer = connections.getTransfer();
     }
 
     @Override
     public void run() {
+        live.userStarted();
         try {
-            HttpClient client = HttpClients.custom()
-                    .setDefaultRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).build())
-                    .build();
+            HttpClientContext context = connections.newContext();
             try {
-                int count = 0;
-                while (count < molsToCheck.size()) {
-                    Instant start = Instant.now();
-                    String reqBody = createReuest(count);
-                    StringEntity req = new StringEntity(reqBody);
-                    count += chunkSize;
-                    HttpResponse r = sendRequest(client, req);
-                    Instant end = Instant.now();
-                    checkResponse(r);
-                    SearchResponseStat res = countLegistlations(r);
-                    runs.add(new RunTimeLog(start, end, chunkSize, reqBody, res));
+                List<byte[]> srcs;
+                int chunkIndex = -1;
+                while ((scenario == null || scenario.awaitActive(userIndex))
+                        && !(srcs = molsToCheck.nextChunk(chunkSize)).isEmpty()) {
+                    ++chunkIndex;
+                    long slotNanos = schedule == null ? 0 : schedule.awaitNextSlot();
+                    long sendNanos = System.nanoTime();
+                    long dueNanos = molsToCheck.getDueNanos(srcs);
+                    long intendedStartNanos = dueNanos != 0 ? dueNanos : schedule == null ? sendNanos : slotNanos;
+                    int phase = scenario == null ? -1 : scenario.getPhaseIndex(sendNanos);
+                    if (scenario != null && phase < 0) {
+                        break;
+                    }
+                    stats.registerSent(srcs.size());
+                    if (phase >= 0) {
+                        stats.forPhase(phase).registerSent(srcs.size());
+                    }
+                    HttpEntity req = requests.createEntity(srcs);
+                    for (int attempt = 1; !check(context, req, srcs.size(), chunkIndex, phase, intendedStartNanos,
+                            attempt); ++attempt) {
+                        stats.registerRetry();
+                        if (phase >= 0) {
+                            stats.forPhase(phase).registerRetry();
+                        }
+                        live.requestRetried();
+                        TimeUnit.NANOSECONDS.sleep(policy.getBackoffNanos(attempt));
+                    }
+                    if (phase >= 0) {
+                        scenario.awaitNextStart(sendNanos);
+                    }
                 }
             } catch (Exception e) {
                 LOG.error("Could not execute search due to: " + e, e);
@@ -114,101 +112,74 @@ public class ComplianceCaller implements Runnable {
         } catch (Exception e) {
             LOG.error("Could not execute compliance checking", e);
             throw new RuntimeException("Exception during compliance checking", e);
+        } finally {
+            live.userStopped();
         }
     }
 
-    public int getPassedCount() {
-        return passedCount;
-    }
-
-    public int getErrorCount() {
-        return errorCount;
-    }
-
-    public int getHitCount() {
-        return hitCount;
-    }
-
-    public List<RunTimeLog> getLogs() {
-        return new ArrayList<>(runs);
-    }
-
-    public boolean isEveryCheckFinnished() {
-        return molsToCheck.size() == hitCount + errorCount + passedCount;
-    }
-
-    private HttpResponse sendRequest(HttpClient client, StringEntity req) throws IOException, ClientProtocolException {
-        HttpPost post = new HttpPost(uriToCall);
-        post.setEntity(req);
-        post.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString());
-        HttpResponse r = client.execute(targetHost, post, getContext());
-        return r;
+    public CallerStats getStats() {
+        return stats;
     }
 
-    private String createReuest(int count) throws IOException {
-        List<Molecule> subMols = molsToCheck.subList(count, Math.min(count + chunkSize, molsToCheck.size()));
-        List<String> srcs = getSources(subMols);
-
-        CCheckingRequest req = new CCheckingRequest();
-        req.setInput(srcs);
-        req.setDate(dateToCheck);
-        req.setCategories(categoriesToCheck);
-        Gson gson = new Gson();
-        return gson.toJson(req);
-    }
-
-    private SearchResponseStat countLegistlations(HttpResponse r) throws IOException {
-        Gson gson = new Gson();
-        SearchResponseStat result = new SearchResponseStat();
-        LegistlationResponse lr = gson.fromJson(new InputStreamReader(r.getEntity().getContent()),
-                LegistlationResponse.class);
-        for (List<LegistlationData> lds : lr.getSimpleResponses()) {
-            if (lds.isEmpty()) {
-                ++passedCount;
-                result.registerPassed();
-            } else {
-                if (lds.get(0).isError()) {
-                    ++errorCount;
-                    result.registerError();
-                } else {
-                    ++hitCount;
-                    result.registerHit(lds.size());
-                }
+    /**
+     * Sends one attempt of a chunk and records its result or its failure.
+     *
+     * @return false if the attempt has failed and should be retried
+     */
+    private boolean check(HttpClientContext context, HttpEntity req, int molCount, int chunkIndex, int phase,
+            long intendedStartNanos, int attempt) throws IOException {
+        Instant start = Instant.now();
+        long startNanos = System.nanoTime();
+        SearchResponseStat res;
+        long endNanos;
+        live.requestStarted();
+        HttpPost post = new HttpPost(connections.getCheckUri());
+        post.setEntity(transfer.requestEntity(req));
+        ScheduledFuture<?> deadline = connections.abortAtDeadline(post);
+        try (CloseableHttpResponse r = connections.getClient().execute(connections.getTargetHost(), post, context)) {
+            endNanos = System.nanoTime();
+            checkResponse(r);
+            res = parser.parse(transfer.responseContent(r.getEntity()), molCount);
+        } catch (IOException | RuntimeException e) {
+            long failedNanos = System.nanoTime();
+            Exception failure = post.isAborted() ? CheckerConnections.deadlineExceeded(e) : e;
+            boolean retry = policy.shouldRetry(attempt, failure);
+            live.requestFailed(FailureType.label(failure));
+            stats.recordFailure(failure, startNanos, failedNanos);
+            if (phase >= 0) {
+                stats.forPhase(phase).recordFailure(failure, startNanos, failedNanos);
+            }
+            if (journal != null) {
+                journal.appendFailure(userIndex, phase, start, failedNanos - startNanos, molCount, failure, retry,
+                        chunkIndex);
+            }
+            LOG.debug("Request of {} failed: {}", stats.getName(), failure.toString());
+            return !retry;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
             }
         }
-        return result;
-    }
-
-    private void checkResponse(HttpResponse response) {
-        if (response.getStatusLine().getStatusCode() != 200) {
-            throw new IllegalStateException("Compliance checking request returned: " + response.getStatusLine());
+        live.requestCompleted(molCount, res, endNanos - intendedStartNanos);
+        stats.registerResponse(res);
+        stats.record(intendedStartNanos, startNanos, endNanos);
+        stats.addSample(start, endNanos - startNanos, endNanos - intendedStartNanos, molCount, res, chunkIndex);
+        if (journal != null) {
+            journal.append(userIndex, phase, start, endNanos - startNanos, endNanos - intendedStartNanos, molCount,
+                    res, chunkIndex);
         }
+        if (phase >= 0) {
+            CallerStats phaseStats = stats.forPhase(phase);
+            phaseStats.registerResponse(res);
+            phaseStats.record(intendedStartNanos, startNanos, endNanos);
+        }
+        return true;
     }
 
-    private HttpClientContext getContext() {
-        CredentialsProvider credsProvider = getCredentialsProvider();
-        AuthCache authCache = new BasicAuthCache();
-        authCache.put(targetHost, new BasicScheme());
-
-        HttpClientContext hcc = new HttpClientContext();
-        hcc.setCredentialsProvider(credsProvider);
-        hcc.setAuthCache(authCache);
-        return hcc;
-    }
-
-    private CredentialsProvider getCredentialsProvider() {
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider.setCredentials(AuthScope.ANY,
-                new UsernamePasswordCredentials(user, password));
-        return credsProvider;
-    }
-
-    private List<String> getSources(List<Molecule> subMols) throws IOException {
-        List<String> srcs = new ArrayList<>(subMols.size());
-        for (Molecule m : subMols) {
-            srcs.add((String) MolExporter.exportToObject(new Molecule[] { m }, "csv", new CsvExport()));
+    private void checkResponse(HttpResponse response) throws CheckerStatusException {
+        if (response.getStatusLine().getStatusCode() != 200) {
+            throw new CheckerStatusException(response.getStatusLine());
         }
-        return srcs;
     }
 
 }
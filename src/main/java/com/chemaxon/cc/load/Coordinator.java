@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a test on several worker JVMs, see {@link Worker}: waits for the given number of workers to connect, sends them
+ * the test, starts them together, merges their live metrics as they arrive and their results into one outcome.
+ */
+public class Coordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Coordinator.class);
+
+    private final CliOptions clio;
+    private final LiveMetrics live;
+
+    /**
+     * @param live the metrics the ticks of the workers are added to
+     */
+    public Coordinator(CliOptions clio, LiveMetrics live) {
+        this.clio = clio;
+        this.live = live;
+    }
+
+    LoadRunner.Outcome run(LoadRunner.StartSignal startSignal) throws IOException, InterruptedException {
+        int count = clio.getWorkers();
+        if (count < 1) {
+            throw new IllegalArgumentException("--workers must be positive: " + count);
+        }
+        List<WorkerConnection> workers = new ArrayList<>();
+        try {
+            try (ServerSocket server = new ServerSocket(clio.getCoordinatorPort())) {
+                LOG.info("waiting for {} workers on port {}", count, server.getLocalPort());
+                List<String> args = clio.getWorkerArgs();
+                for (int i = 0; i < count; ++i) {
+                    WorkerConnection worker = new WorkerConnection(server.accept());
+                    workers.add(worker);
+                    worker.send(WorkerMessage.plan(args, clio.getScenario(), i, count));
+                    LOG.info("worker {} connected from {}", i + 1, worker.getRemoteAddress());
+                }
+            }
+            for (WorkerConnection worker : workers) {
+                worker.receive(WorkerMessage.READY);
+            }
+            startSignal.ready();
+            for (WorkerConnection worker : workers) {
+                worker.send(WorkerMessage.start());
+            }
+            Instant start = Instant.now();
+            LOG.info("started {} workers", count);
+            WorkerMessage[] results = new WorkerMessage[count];
+            String[] failures = new String[count];
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                int index = i;
+                Thread t = new Thread(() -> {
+                    try {
+                        results[index] = follow(workers.get(index));
+                    } catch (IOException | RuntimeException e) {
+                        failures[index] = "Worker_" + index + ": " + e.getMessage();
+                    }
+                }, "Coordinator_" + i);
+                t.start();
+                threads.add(t);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            Instant end = Instant.now();
+            return outcome(results, failures, start, end);
+        } finally {
+            for (WorkerConnection worker : workers) {
+                worker.close();
+            }
+        }
+    }
+
+    /**
+     * Adds the ticks of a worker to the live metrics until its result arrives.
+     */
+    private WorkerMessage follow(WorkerConnection worker) throws IOException {
+        while (true) {
+            WorkerMessage message = worker.receive();
+            switch (message.getType()) {
+            case WorkerMessage.TICK:
+                message.addTo(live);
+                break;
+            case WorkerMessage.RESULT:
+                return message;
+            default:
+                throw new IOException("Unexpected " + message.getType() + " from " + worker.getRemoteAddress());
+            }
+        }
+    }
+
+    private LoadRunner.Outcome outcome(WorkerMessage[] results, String[] failures, Instant start, Instant end)
+            throws IOException {
+        Scenario scenario = clio.getScenario();
+        List<CallerStats> stats = new ArrayList<>();
+        Map<String, Map<String, Double>> engineMetrics = new LinkedHashMap<>();
+        List<String> failed = new ArrayList<>();
+        long plannedChecks = 0;
+        for (int i = 0; i < results.length; ++i) {
+            String name = "Worker_" + i;
+            if (results[i] == null) {
+                failed.add(failures[i]);
+                continue;
+            }
+            CallerStats s = new CallerStats(name, clio.getHistogramPrecision(), false,
+                    scenario == null ? 0 : scenario.getPhases().size());
+            results[i].getStats().addTo(s);
+            stats.add(s);
+            plannedChecks += results[i].getPlannedChecks();
+            for (Entry<String, Map<String, Double>> section : results[i].getEngineMetrics().entrySet()) {
+                engineMetrics.put(name + " " + section.getKey(), section.getValue());
+            }
+        }
+        double targetRate = clio.isRateMode() ? clio.getRequestRate() : 0;
+        return new LoadRunner.Outcome(stats, plannedChecks, start, end, targetRate, engineMetrics, failed);
+    }
+}
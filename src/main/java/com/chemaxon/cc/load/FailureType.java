@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.EOFException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.util.concurrent.CancellationException;
+
+import org.apache.hc.core5.http2.H2StreamResetException;
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.NoHttpResponseException;
+
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Why a request failed. The failures are counted by their label, so every HTTP status has its own count.
+ */
+public enum FailureType {
+
+    HTTP_STATUS("HTTP"),
+    /** Connect, socket, pool or request timeout. */
+    TIMEOUT("timeout"),
+    CONNECTION_REFUSED("connection refused"),
+    /** The connection or the HTTP/2 stream was reset or closed before the whole response arrived. */
+    CONNECTION_RESET("connection reset"),
+    /** The response is not the JSON the checker should send. */
+    PARSE_ERROR("parse error"),
+    OTHER("other");
+
+    private final String label;
+
+    private FailureType(String label) {
+        this.label = label;
+    }
+
+    public static FailureType of(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CheckerStatusException) {
+                return HTTP_STATUS;
+            } else if (t instanceof InterruptedIOException || t instanceof CancellationException) {
+                // SocketTimeoutException, ConnectTimeoutException, ConnectionPoolTimeoutException and the requests
+                // aborted at the request timeout
+                return TIMEOUT;
+            } else if (t instanceof ConnectException) {
+                return CONNECTION_REFUSED;
+            } else if (t instanceof SocketException || t instanceof NoHttpResponseException
+                    || t instanceof ConnectionClosedException || t instanceof EOFException
+                    || t instanceof org.apache.hc.core5.http.ConnectionClosedException
+                    || t instanceof H2StreamResetException) {
+                return CONNECTION_RESET;
+            } else if (t instanceof ResponseParseException || t instanceof MalformedJsonException) {
+                return PARSE_ERROR;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * @return the label the failure is counted by, e.g. "HTTP 503" or "timeout"
+     */
+    public static String label(Throwable e) {
+        return of(e).getLabel(status(e));
+    }
+
+    /**
+     * @param status the HTTP status of an {@link #HTTP_STATUS} failure, ignored for the other types
+     */
+    public String getLabel(int status) {
+        return this == HTTP_STATUS ? label + " " + status : label;
+    }
+
+    /**
+     * @return whether sending the same request again may succeed: timeouts, connection failures, 429 and 5xx
+     */
+    public static boolean isRetryable(Throwable e) {
+        switch (of(e)) {
+        case TIMEOUT:
+        case CONNECTION_REFUSED:
+        case CONNECTION_RESET:
+            return true;
+        case HTTP_STATUS:
+            int status = status(e);
+            return status == 429 || status >= 500;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the HTTP status the checker answered the failed request with, 0 if it did not answer
+     */
+    static int status(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CheckerStatusException) {
+                return ((CheckerStatusException) t).getStatus();
+            }
+        }
+        return 0;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
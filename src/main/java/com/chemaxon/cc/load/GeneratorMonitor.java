@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Measures what the load generator itself costs during a run: the CPU it uses, the platform threads it needs and how
+ * late its threads are woken up. The wake up delay is measured by a probe thread created like the threads of the
+ * engine (platform or virtual), which sleeps 1 ms again and again. If it is woken up late, the callers are late too and
+ * the engine adds that to the measured latencies.
+ */
+public class GeneratorMonitor {
+
+    private static final long PROBE_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ThreadFactory probeThreads;
+    private final Histogram wakeUpDelays = new Histogram(3);
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private volatile boolean running;
+    private Thread probe;
+    private long startNanos;
+    private long startCpuNanos;
+
+    public GeneratorMonitor(ThreadFactory probeThreads) {
+        this.probeThreads = probeThreads;
+    }
+
+    public void start() {
+        threadBean.resetPeakThreadCount();
+        startNanos = System.nanoTime();
+        startCpuNanos = getProcessCpuNanos();
+        running = true;
+        probe = probeThreads.newThread(this::probe);
+        probe.setDaemon(true);
+        probe.start();
+    }
+
+    private void probe() {
+        try {
+            while (running) {
+                long before = System.nanoTime();
+                TimeUnit.NANOSECONDS.sleep(PROBE_SLEEP_NANOS);
+                wakeUpDelays.recordValue(Math.max(0, System.nanoTime() - before - PROBE_SLEEP_NANOS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the measurement.
+     *
+     * @return the metrics of the generator for the report
+     */
+    public Map<String, Double> stop() throws InterruptedException {
+        running = false;
+        probe.join();
+        long wallNanos = System.nanoTime() - startNanos;
+        int processors = Runtime.getRuntime().availableProcessors();
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("processors", (double) processors);
+        if (startCpuNanos >= 0) {
+            long cpuNanos = getProcessCpuNanos() - startCpuNanos;
+            metrics.put("process CPU seconds", cpuNanos / (double) TimeUnit.SECONDS.toNanos(1));
+            metrics.put("CPU utilisation %", ((double) cpuNanos) / wallNanos / processors * 100.0);
+        }
+        metrics.put("peak platform threads", (double) threadBean.getPeakThreadCount());
+        metrics.put("wake up delay median (ms)", toMillis(wakeUpDelays.getValueAtPercentile(50)));
+        metrics.put("wake up delay 99th percentile (ms)", toMillis(wakeUpDelays.getValueAtPercentile(99)));
+        metrics.put("wake up delay max (ms)", toMillis(wakeUpDelays.getMaxValue()));
+        return metrics;
+    }
+
+    /**
+     * @return the CPU time of the JVM, or -1 if the JVM does not tell
+     */
+    private static long getProcessCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.cookie.BasicCookieStore;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.HttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the simulated users over a few HTTP/2 connections instead of a connection per user: every request is a stream
+ * multiplexed over the connection with the fewest streams in flight. Plain http URLs are called with h2c (prior
+ * knowledge), https ones negotiate HTTP/2 with ALPN. Like the {@link AsyncComplianceEngine}, a single dispatcher
+ * thread sends the next chunk of every user whose previous response has arrived, and waits while every connection
+ * has its maximum number of streams in flight. Unlike that one, it follows a {@link Scenario} too: a user that is not
+ * active yet is looked at again later, and the think time or the pacing is waited on a timer.
+ */
+public class Http2ComplianceEngine implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Http2ComplianceEngine.class);
+    private static final long INACTIVE_POLL_MILLIS = 100;
+
+    private final URI checkUri;
+    private final List<CloseableHttpAsyncClient> connections = new ArrayList<>();
+    private final AtomicInteger[] streams;
+    private final int maxStreams;
+    private final int chunkSize;
+    private final CheckRequestFactory requests;
+    private final ResponseParser parser;
+    private final ArrivalSchedule schedule;
+    private final Scenario scenario;
+    private final LiveMetrics live;
+    private final ResultJournal journal;
+    private final RequestPolicy policy;
+    private final TransferMeter transfer;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger peakStreams = new AtomicInteger();
+
+    /**
+     * @param connectionCount the number of HTTP/2 connections to the checker
+     * @param maxStreams the maximum number of streams in flight on one connection, should not be more than the
+     *            checker allows
+     */
+    public Http2ComplianceEngine(URL url, String user, String password, int ioThreads, int connectionCount,
+            int maxStreams, int chunkSize, CheckRequestFactory requests, ResponseParser parser,
+            ArrivalSchedule schedule, Scenario scenario, LiveMetrics live, ResultJournal journal,
+            RequestPolicy policy, TransferMeter transfer) throws URISyntaxException {
+        this.checkUri = new URI(url.toString() + "/check/list");
+        this.maxStreams = maxStreams;
+        this.chunkSize = chunkSize;
+        this.requests = requests;
+        this.parser = parser;
+        this.schedule = schedule;
+        this.scenario = scenario;
+        this.live = live;
+        this.journal = journal;
+        this.policy = policy;
+        this.transfer = transfer;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "h2-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Header> headers = new ArrayList<>();
+        for (org.apache.http.Header h : transfer.getDefaultHeaders()) {
+            headers.add(new BasicHeader(h.getName(), h.getValue()));
+        }
+        headers.add(new BasicHeader(HttpHeaders.AUTHORIZATION,
+                CheckerConnections.basicAuthorization(user, password).getValue()));
+        // an HTTP/2 client keeps a single connection to the checker, so there is a client for every connection, and
+        // the I/O threads are shared among them
+        int ioThreadsPerConnection = Math.max(1, ioThreads / connectionCount);
+        for (int i = 0; i < connectionCount; ++i) {
+            connections.add(H2AsyncClientBuilder.create()
+                    .setH2Config(H2Config.custom().setPushEnabled(false).build())
+                    .setIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(ioThreadsPerConnection).build())
+                    .setDefaultConnectionConfig(ConnectionConfig.custom()
+                            .setConnectTimeout(Timeout.ofMilliseconds(policy.getConnectTimeoutMillis()))
+                            .setSocketTimeout(Timeout.ofMilliseconds(policy.getSocketTimeoutMillis())).build())
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setResponseTimeout(Timeout.ofMilliseconds(policy.getSocketTimeoutMillis())).build())
+                    .setDefaultHeaders(headers).disableAutomaticRetries().build());
+        }
+        this.streams = new AtomicInteger[connectionCount];
+        for (int i = 0; i < connectionCount; ++i) {
+            streams[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Sends the molecules of every source until all of them are exhausted, or until the end of the scenario.
+     *
+     * @param sources the molecules of each simulated user
+     * @param stats where the results of each simulated user are recorded
+     */
+    public void run(List<MoleculeSource> sources, List<CallerStats> stats) throws InterruptedException {
+        for (CloseableHttpAsyncClient connection : connections) {
+            connection.start();
+        }
+        BlockingQueue<Integer> ready = new LinkedBlockingQueue<>();
+        List<HttpClientContext> contexts = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); ++i) {
+            HttpClientContext context = HttpClientContext.create();
+            context.setCookieStore(new BasicCookieStore());
+            contexts.add(context);
+            ready.add(i);
+            live.userStarted();
+        }
+        int[] chunkIndexes = new int[sources.size()];
+        int maxInFlight = maxStreams * connections.size();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        int active = sources.size();
+        while (active > 0) {
+            int user = ready.take();
+            int phase = -1;
+            if (scenario != null) {
+                long now = System.nanoTime();
+                phase = scenario.getPhaseIndex(now);
+                if (phase >= 0 && user >= scenario.getActiveUsers(now)) {
+                    timer.schedule(() -> ready.add(user), INACTIVE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+            }
+            List<byte[]> srcs = scenario != null && phase < 0 ? Collections.emptyList()
+                    : sources.get(user).nextChunk(chunkSize);
+            if (srcs.isEmpty()) {
+                --active;
+                live.userStopped();
+                continue;
+            }
+            long slotNanos = schedule == null ? 0 : schedule.awaitNextSlot();
+            inFlight.acquire();
+            long sendNanos = System.nanoTime();
+            long dueNanos = sources.get(user).getDueNanos(srcs);
+            long intendedStartNanos = dueNanos != 0 ? dueNanos : schedule == null ? sendNanos : slotNanos;
+            stats.get(user).registerSent(srcs.size());
+            if (phase >= 0) {
+                stats.get(user).forPhase(phase).registerSent(srcs.size());
+            }
+            Chunk chunk = new Chunk(user, phase, srcs.size(), requests.createEntity(srcs), chunkIndexes[user]++,
+                    intendedStartNanos, sendNanos, contexts.get(user), stats.get(user), ready, inFlight);
+            send(chunk, 1);
+        }
+        inFlight.acquire(maxInFlight);
+    }
+
+    /**
+     * @return the connection with the fewest streams in flight, there is always one below the maximum while the
+     *         dispatcher holds a permit
+     */
+    private int leastBusyConnection() {
+        int best = 0;
+        for (int i = 1; i < streams.length; ++i) {
+            if (streams[i].get() < streams[best].get()) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void send(Chunk chunk, int attempt) {
+        int connection = leastBusyConnection();
+        peakStreams.accumulateAndGet(streams[connection].incrementAndGet(), Math::max);
+        Instant start = Instant.now();
+        long startNanos = System.nanoTime();
+        AtomicReference<ScheduledFuture<?>> deadline = new AtomicReference<>();
+        live.requestStarted();
+        SimpleHttpRequest post = SimpleHttpRequest.create("POST", checkUri);
+        try {
+            post.setBody(transfer.requestBody(chunk.entity), ContentType.APPLICATION_JSON);
+        } catch (IOException e) {
+            // the body is written to memory
+            throw new IllegalStateException(e);
+        }
+        if (transfer.isCompressing()) {
+            post.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        Future<SimpleHttpResponse> future = connections.get(connection).execute(post, chunk.context,
+                new FutureCallback<SimpleHttpResponse>() {
+
+                    @Override
+                    public void completed(SimpleHttpResponse response) {
+                        long endNanos = System.nanoTime();
+                        streams[connection].decrementAndGet();
+                        SearchResponseStat res;
+                        try {
+                            if (response.getCode() != 200) {
+                                throw new CheckerStatusException(response.getCode(), response.getReasonPhrase());
+                            }
+                            Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+                            byte[] body = response.getBodyBytes();
+                            res = parser.parse(transfer.responseContent(
+                                    new ByteArrayInputStream(body == null ? new byte[0] : body),
+                                    encoding == null ? null : encoding.getValue()), chunk.molCount);
+                        } catch (IOException | RuntimeException e) {
+                            fail(e);
+                            return;
+                        }
+                        cancelDeadline();
+                        CallerStats stats = chunk.stats;
+                        long intendedStartNanos = chunk.intendedStartNanos;
+                        live.requestCompleted(chunk.molCount, res, endNanos - intendedStartNanos);
+                        stats.registerResponse(res);
+                        stats.record(intendedStartNanos, startNanos, endNanos);
+                        stats.addSample(start, endNanos - startNanos, endNanos - intendedStartNanos,
+                                chunk.molCount, res, chunk.index);
+                        if (chunk.phase >= 0) {
+                            CallerStats phaseStats = stats.forPhase(chunk.phase);
+                            phaseStats.registerResponse(res);
+                            phaseStats.record(intendedStartNanos, startNanos, endNanos);
+                        }
+                        if (journal != null) {
+                            try {
+                                journal.append(chunk.user, chunk.phase, start, endNanos - startNanos,
+                                        endNanos - intendedStartNanos, chunk.molCount, res, chunk.index);
+                            } catch (IOException e) {
+                                LOG.error("Could not write the journal", e);
+                            }
+                        }
+                        done(chunk);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        streams[connection].decrementAndGet();
+                        fail(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        failed(new CancellationException("Request cancelled at the request timeout"));
+                    }
+
+                    private void fail(Exception e) {
+                        cancelDeadline();
+                        live.requestFailed(FailureType.label(e));
+                        long failedNanos = System.nanoTime();
+                        boolean retry = policy.shouldRetry(attempt, e);
+                        chunk.stats.recordFailure(e, startNanos, failedNanos);
+                        if (chunk.phase >= 0) {
+                            chunk.stats.forPhase(chunk.phase).recordFailure(e, startNanos, failedNanos);
+                        }
+                        if (journal != null) {
+                            try {
+                                journal.appendFailure(chunk.user, chunk.phase, start, failedNanos - startNanos,
+                                        chunk.molCount, e, retry, chunk.index);
+                            } catch (IOException journalError) {
+                                LOG.error("Could not write the journal", journalError);
+                            }
+                        }
+                        LOG.debug("Request of {} failed: {}", chunk.stats.getName(), e.toString());
+                        if (retry) {
+                            chunk.stats.registerRetry();
+                            if (chunk.phase >= 0) {
+                                chunk.stats.forPhase(chunk.phase).registerRetry();
+                            }
+                            live.requestRetried();
+                            timer.schedule(() -> send(chunk, attempt + 1), policy.getBackoffNanos(attempt),
+                                    TimeUnit.NANOSECONDS);
+                        } else {
+                            done(chunk);
+                        }
+                    }
+
+                    private void cancelDeadline() {
+                        ScheduledFuture<?> d = deadline.get();
+                        if (d != null) {
+                            d.cancel(false);
+                        }
+                    }
+                });
+        if (policy.hasRequestTimeout()) {
+            deadline.set(timer.schedule(() -> future.cancel(true), policy.getRequestTimeoutMillis(),
+                    TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Lets the user of the chunk send its next one, after the think time or the pacing of the scenario.
+     */
+    private void done(Chunk chunk) {
+        chunk.inFlight.release();
+        long wait = chunk.phase >= 0 ? scenario.getWaitNanos(chunk.sendNanos, System.nanoTime()) : 0;
+        if (wait > 0) {
+            timer.schedule(() -> chunk.ready.add(chunk.user), wait, TimeUnit.NANOSECONDS);
+        } else {
+            chunk.ready.add(chunk.user);
+        }
+    }
+
+    public Map<String, Double> getMetrics() {
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("connections", (double) connections.size());
+        metrics.put("max streams / connection", (double) maxStreams);
+        metrics.put("peak streams on a connection", (double) peakStreams.get());
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        timer.shutdownNow();
+        for (CloseableHttpAsyncClient connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * A chunk of a user, sent once or more if it is retried.
+     */
+    private static class Chunk {
+
+        private final int user;
+        private final int phase;
+        private final int molCount;
+        private final HttpEntity entity;
+        private final int index;
+        private final long intendedStartNanos;
+        /** When the first attempt was sent, the pacing is measured from it as by a {@link ComplianceCaller}. */
+        private final long sendNanos;
+        private final HttpClientContext context;
+        private final CallerStats stats;
+        private final BlockingQueue<Integer> ready;
+        private final Semaphore inFlight;
+
+        Chunk(int user, int phase, int molCount, HttpEntity entity, int index, long intendedStartNanos,
+                long sendNanos, HttpClientContext context, CallerStats stats, BlockingQueue<Integer> ready,
+                Semaphore inFlight) {
+            this.user = user;
+            this.phase = phase;
+            this.molCount = molCount;
+            this.entity = entity;
+            this.index = index;
+            this.intendedStartNanos = intendedStartNanos;
+            this.sendNanos = sendNanos;
+            this.context = context;
+            this.stats = stats;
+            this.ready = ready;
+            this.inFlight = inFlight;
+        }
+    }
+}
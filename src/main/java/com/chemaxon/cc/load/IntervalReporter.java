@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the {@link LiveMetrics} every second into a {@link TimeSeries} for the report, and logs a line every
+ * interval while the test runs, appending it to a CSV file if given, so a degrading run can be seen before it ends.
+ */
+public class IntervalReporter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IntervalReporter.class);
+
+    private static final String CSV_HEADER = "time,elapsed_s,req_per_s,mol_per_s,p50_ms,p99_ms,max_ms,errors,"
+            + "failed_requests,in_flight";
+
+    private final LiveMetrics metrics;
+    private final long intervalSeconds;
+    private final PrintWriter csv;
+    private final ScheduledExecutorService executor;
+    private final TimeSeries timeSeries = new TimeSeries();
+    private final Histogram intervalLatencies;
+    private long startNanos;
+    private long ticks;
+    private Totals lastSample;
+    private Totals lastReport;
+
+    /** The counters of the metrics at a moment. */
+    private static class Totals {
+
+        private final long nanos;
+        private final long requests;
+        private final long molecules;
+        private final long errors;
+        private final long failedRequests;
+
+        Totals(LiveMetrics metrics) {
+            this.nanos = System.nanoTime();
+            this.requests = metrics.getRequests();
+            this.molecules = metrics.getMolecules();
+            this.errors = metrics.getErrors();
+            this.failedRequests = metrics.getFailedRequests();
+        }
+    }
+
+    /**
+     * @param intervalSeconds how often a line is written, 0 to write none
+     * @param csvFile the file the lines are appended to, or null
+     */
+    public IntervalReporter(LiveMetrics metrics, long intervalSeconds, File csvFile) throws IOException {
+        this.metrics = metrics;
+        this.intervalSeconds = intervalSeconds;
+        this.intervalLatencies = new Histogram(metrics.getPrecision());
+        if (csvFile != null && intervalSeconds > 0) {
+            boolean empty = !csvFile.exists() || csvFile.length() == 0;
+            this.csv = new PrintWriter(new OutputStreamWriter(new FileOutputStream(csvFile, true),
+                    StandardCharsets.UTF_8));
+            if (empty) {
+                csv.println(CSV_HEADER);
+            }
+        } else {
+            this.csv = null;
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "IntervalReporter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        metrics.takeIntervalLatencies();
+        lastSample = new Totals(metrics);
+        lastReport = lastSample;
+        startNanos = lastSample.nanos;
+        executor.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public TimeSeries getTimeSeries() {
+        return timeSeries;
+    }
+
+    private void tick() {
+        sample();
+        if (intervalSeconds > 0 && ++ticks % intervalSeconds == 0) {
+            report();
+        }
+    }
+
+    private void sample() {
+        Histogram latencies = metrics.takeIntervalLatencies();
+        Totals now = new Totals(metrics);
+        timeSeries.add(toSeconds(now.nanos - startNanos), toSeconds(now.nanos - lastSample.nanos),
+                now.requests - lastSample.requests, now.molecules - lastSample.molecules,
+                now.errors - lastSample.errors, now.failedRequests - lastSample.failedRequests, latencies);
+        intervalLatencies.add(latencies);
+        lastSample = now;
+    }
+
+    private void report() {
+        Totals now = lastSample;
+        double seconds = toSeconds(now.nanos - lastReport.nanos);
+        double elapsed = toSeconds(now.nanos - startNanos);
+        double requestRate = (now.requests - lastReport.requests) / seconds;
+        double molRate = (now.molecules - lastReport.molecules) / seconds;
+        double p50 = toMillis(intervalLatencies.getValueAtPercentile(50));
+        double p99 = toMillis(intervalLatencies.getValueAtPercentile(99));
+        double max = toMillis(intervalLatencies.getMaxValue());
+        long errors = now.errors - lastReport.errors;
+        long failedRequests = now.failedRequests - lastReport.failedRequests;
+        long inFlight = metrics.getInFlight();
+        LOG.info(String.format(Locale.ROOT,
+                "%6.0fs  %8.1f req/s  %9.1f mol/s  p50 %8.1f ms  p99 %8.1f ms  max %8.1f ms  errors %d  failed %d  "
+                        + "in flight %d",
+                elapsed, requestRate, molRate, p50, p99, max, errors, failedRequests, inFlight));
+        if (csv != null) {
+            csv.println(String.format(Locale.ROOT, "%s,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d", Instant.now(), elapsed,
+                    requestRate, molRate, p50, p99, max, errors, failedRequests, inFlight));
+            csv.flush();
+        }
+        intervalLatencies.reset();
+        lastReport = now;
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Stops the sampling and the reporting, writing the last partial interval too.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sample();
+        if (intervalSeconds > 0) {
+            report();
+        }
+        if (csv != null) {
+            csv.close();
+        }
+    }
+}
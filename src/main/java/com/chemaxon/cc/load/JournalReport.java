@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@code report} command: makes the HTML report of a {@link ResultJournal} again, optionally of a time slice of
+ * the run only, without running the test again.
+ */
+public class JournalReport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalReport.class);
+
+    /** Seconds of the time series kept open for records arriving late, as the callers append concurrently. */
+    private static final long OPEN_SECONDS = 10;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ResultJournal.Metadata metadata;
+    private final long fromNanos;
+    private final long toNanos;
+    private final List<CallerStats> stats = new ArrayList<>();
+    private final TimeSeries timeSeries = new TimeSeries();
+    private final TreeMap<Long, Second> openSeconds = new TreeMap<>();
+    private final Deque<Histogram> freeHistograms = new ArrayDeque<>();
+    private long nextSecond;
+    private long firstStart = Long.MAX_VALUE;
+    private long lastEnd = Long.MIN_VALUE;
+
+    private static class Second {
+
+        private long requests;
+        private long molecules;
+        private long errors;
+        private long failedRequests;
+        private Histogram latencies;
+    }
+
+    /**
+     * @param fromSeconds the start of the slice in seconds from the start of the run
+     * @param toSeconds the end of the slice in seconds from the start of the run
+     * @param keepLogs whether the per request rows are kept for the tables, 48 bytes each
+     */
+    private JournalReport(ResultJournal.Metadata metadata, double fromSeconds, double toSeconds, boolean keepLogs) {
+        this.metadata = metadata;
+        long start = ResultJournal.toEpochNanos(metadata.getStart());
+        this.fromNanos = start + (long) (fromSeconds * SECOND);
+        this.toNanos = toSeconds == Double.POSITIVE_INFINITY ? Long.MAX_VALUE : start + (long) (toSeconds * SECOND);
+        for (String name : metadata.getThreadNames()) {
+            stats.add(new CallerStats(name, metadata.getPrecision(), keepLogs, metadata.getPhases().size()));
+        }
+    }
+
+    public static void main(String[] args) throws ParseException, IOException {
+        Options opts = new Options();
+        opts.addOption(Option.builder("j").longOpt("journal").desc("The journal written by --journal").hasArg()
+                .required().build());
+        opts.addOption(Option.builder("s").longOpt("save").desc("Where to save the report").hasArg().required(false)
+                .build());
+        opts.addOption(Option.builder().longOpt("from")
+                .desc("Leave out the requests started earlier than this many seconds after the start, e.g. warm-up")
+                .hasArg().type(Double.class).required(false).build());
+        opts.addOption(Option.builder().longOpt("to")
+                .desc("Leave out the requests started later than this many seconds after the start").hasArg()
+                .type(Double.class).required(false).build());
+        opts.addOption(Option.builder().longOpt("reportRows")
+                .desc("The maximum number of requests listed in each table of the report (default 10000)").hasArg()
+                .type(Integer.class).required(false).build());
+        opts.addOption(Option.builder().longOpt("summaryOnly")
+                .desc("Keep only the latency histograms, the report has no per request rows. Use it for long runs.")
+                .required(false).build());
+        opts.addOption(Option.builder().longOpt("latencyBuckets")
+                .desc("The buckets of the latency distribution charts: 'linear:<ms>' (default linear:100) or "
+                        + "'log:<first bucket ms>:<factor>'")
+                .hasArg().required(false).build());
+        new HelpFormatter().printHelp("cchecker-load-test report", "Makes the report of a result journal again", opts,
+                null, true);
+        CommandLine commandline = new DefaultParser().parse(opts, args);
+        File file = new File(commandline.getOptionValue("journal"));
+        File output = new File(commandline.getOptionValue("save", "output.html"));
+        double from = Double.parseDouble(commandline.getOptionValue("from", "0"));
+        double to = commandline.hasOption("to") ? Double.parseDouble(commandline.getOptionValue("to"))
+                : Double.POSITIVE_INFINITY;
+        try (ResultJournal.Reader reader = new ResultJournal.Reader(file)) {
+            if (reader.getRecordCount() < 0) {
+                LOG.warn("{} was not closed, reading what the run wrote before it stopped", file);
+            }
+            JournalReport report = new JournalReport(reader.getMetadata(), from, to,
+                    !commandline.hasOption("summaryOnly"));
+            long records = report.read(reader);
+            LOG.info("read {} records of {}", records, file);
+            report.save(output, Integer.parseInt(commandline.getOptionValue("reportRows", "10000")),
+                    LatencyBuckets.parse(commandline.getOptionValue("latencyBuckets", "linear:100")));
+        }
+    }
+
+    private long read(ResultJournal.Reader reader) throws IOException {
+        long records = 0;
+        nextSecond = 0;
+        while (reader.next()) {
+            long start = reader.getStartEpochNanos();
+            if (start < fromNanos || start >= toNanos) {
+                continue;
+            }
+            ++records;
+            long duration = reader.getDurationNanos();
+            long corrected = reader.getCorrectedDurationNanos();
+            int molCount = reader.getMolCount();
+            CallerStats s = stats.get(reader.getThread());
+            firstStart = Math.min(firstStart, start);
+            lastEnd = Math.max(lastEnd, start + duration);
+            if (reader.isFailure()) {
+                readFailure(reader, s, start, duration);
+                continue;
+            }
+            s.registerSent(molCount);
+            s.registerResponse(reader.getPassed(), reader.getHitCount(), reader.getError());
+            s.record(start + duration - corrected, start, start + duration);
+            s.addSample(start, duration, corrected, molCount, reader.getPassed(), reader.getError(),
+                    reader.getHitCount(), reader.getHitSize(), reader.getChunkIndex());
+            if (reader.getPhase() >= 0) {
+                CallerStats phaseStats = s.forPhase(reader.getPhase());
+                phaseStats.registerSent(molCount);
+                phaseStats.registerResponse(reader.getPassed(), reader.getHitCount(), reader.getError());
+                phaseStats.record(start + duration - corrected, start, start + duration);
+            }
+            addToSecond(start + duration, molCount, reader.getError(), corrected);
+        }
+        closeSeconds(Long.MAX_VALUE);
+        return records;
+    }
+
+    /**
+     * Counts a failed request. Its molecules are counted as sent once, by the attempt that is not retried.
+     */
+    private void readFailure(ResultJournal.Reader reader, CallerStats s, long start, long duration) {
+        String label = reader.getFailureLabel();
+        s.recordFailure(label, start, start + duration);
+        if (reader.isRetried()) {
+            s.registerRetry();
+        } else {
+            s.registerSent(reader.getMolCount());
+        }
+        if (reader.getPhase() >= 0) {
+            CallerStats phaseStats = s.forPhase(reader.getPhase());
+            phaseStats.recordFailure(label, start, start + duration);
+            if (reader.isRetried()) {
+                phaseStats.registerRetry();
+            } else {
+                phaseStats.registerSent(reader.getMolCount());
+            }
+        }
+        Second second = getSecond(start + duration);
+        ++second.failedRequests;
+    }
+
+    private void addToSecond(long endNanos, int molCount, int errors, long responseNanos) {
+        Second s = getSecond(endNanos);
+        ++s.requests;
+        s.molecules += molCount;
+        s.errors += errors;
+        s.latencies.recordValue(responseNanos);
+    }
+
+    private Second getSecond(long endNanos) {
+        long second = Math.max(nextSecond, (endNanos - fromNanos) / SECOND);
+        closeSeconds(second - OPEN_SECONDS);
+        Second s = openSeconds.get(second);
+        if (s == null) {
+            s = new Second();
+            s.latencies = freeHistograms.isEmpty() ? new Histogram(metadata.getPrecision()) : freeHistograms.pop();
+            openSeconds.put(second, s);
+        }
+        return s;
+    }
+
+    /**
+     * Moves the seconds before the given one to the time series, with empty ones for the seconds without requests.
+     */
+    private void closeSeconds(long before) {
+        while (!openSeconds.isEmpty() && openSeconds.firstKey() < before) {
+            long second = openSeconds.firstKey();
+            Histogram empty = new Histogram(metadata.getPrecision());
+            for (; nextSecond < second; ++nextSecond) {
+                timeSeries.add(nextSecond + 1, 1, 0, 0, 0, 0, empty);
+            }
+            Second s = openSeconds.remove(second);
+            timeSeries.add(second + 1, 1, s.requests, s.molecules, s.errors, s.failedRequests, s.latencies);
+            s.latencies.reset();
+            freeHistograms.push(s.latencies);
+            nextSecond = second + 1;
+        }
+    }
+
+    private void save(File output, int maxRows, LatencyBuckets latencyBuckets) throws IOException {
+        long planned = stats.stream().mapToLong(CallerStats::getSentCount).sum();
+        long checked = stats.stream().mapToLong(CallerStats::getCheckedCount).sum();
+        Instant start = firstStart == Long.MAX_VALUE ? metadata.getStart() : Instant.ofEpochSecond(0, firstStart);
+        Instant end = lastEnd == Long.MIN_VALUE ? start : Instant.ofEpochSecond(0, lastEnd);
+        CallerStats merged = CallerStats.merge("threads", stats);
+        LOG.info("checked mols: {}\trequests: {}", checked, merged.getRequestCount());
+        LOG.info("taken: {}", Duration.between(start, end));
+        LOG.info("median: {} ms\t99th percentile: {} ms",
+                merged.getServiceTimes().getValueAtPercentile(50) / (double) TimeUnit.MILLISECONDS.toNanos(1),
+                merged.getServiceTimes().getValueAtPercentile(99) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        ReportCreator report = new ReportCreator(stats, planned, checked, start, end, false, metadata.getTargetRate(),
+                maxRows);
+        report.setTimeSeries(timeSeries);
+        report.setLatencyBuckets(latencyBuckets);
+        List<Scenario.Phase> phases = metadata.getPhases();
+        for (int i = 0; i < phases.size(); ++i) {
+            int phase = i;
+            report.addPhase(phases.get(i), CallerStats.merge(phases.get(i).getName(),
+                    stats.stream().map(s -> s.forPhase(phase)).collect(Collectors.toList())));
+        }
+        report.saveHtmlReport(output);
+        LOG.info("saved report: {}", output);
+    }
+}
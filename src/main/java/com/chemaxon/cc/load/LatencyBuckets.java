@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.apache.commons.math3.util.Precision;
+
+/**
+ * The buckets of the latency distribution charts, either of the same width ({@code linear:<ms>}) or growing by a
+ * factor ({@code log:<first bucket ms>:<factor>}). The counts are read from a histogram in one pass.
+ */
+public class LatencyBuckets {
+
+    private final boolean logarithmic;
+    private final long firstBucketNanos;
+    private final double factor;
+
+    private LatencyBuckets(boolean logarithmic, double firstBucketMillis, double factor) {
+        if (firstBucketMillis <= 0 || (logarithmic && factor <= 1)) {
+            throw new IllegalArgumentException("Invalid latency buckets: " + firstBucketMillis + ", " + factor);
+        }
+        this.logarithmic = logarithmic;
+        this.firstBucketNanos = (long) (firstBucketMillis * TimeUnit.MILLISECONDS.toNanos(1));
+        this.factor = factor;
+    }
+
+    public static LatencyBuckets parse(String spec) {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+        case "linear":
+            if (parts.length == 2) {
+                return new LatencyBuckets(false, Double.parseDouble(parts[1]), 1);
+            }
+            break;
+        case "log":
+            if (parts.length == 3) {
+                return new LatencyBuckets(true, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            }
+            break;
+        default:
+            break;
+        }
+        throw new IllegalArgumentException(
+                "Unknown latency buckets: " + spec + ", use linear:<ms> or log:<ms>:<factor>");
+    }
+
+    /**
+     * @return the number of values in each bucket by the upper bound of the bucket in milliseconds, from the bucket
+     *         of the smallest value to the bucket of the largest
+     */
+    public Map<Double, Long> count(Histogram histogram) {
+        Map<Double, Long> counts = new LinkedHashMap<>();
+        if (histogram.getTotalCount() == 0) {
+            return counts;
+        }
+        long min = histogram.getMinValue();
+        Iterable<HistogramIterationValue> buckets = logarithmic
+                ? histogram.logarithmicBucketValues(firstBucketNanos, factor)
+                : histogram.linearBucketValues(firstBucketNanos);
+        for (HistogramIterationValue v : buckets) {
+            if (v.getValueIteratedTo() >= min || !counts.isEmpty()) {
+                counts.put(Precision.round(v.getValueIteratedTo() / (double) TimeUnit.MILLISECONDS.toNanos(1), 3),
+                        v.getCountAddedInThisIterationStep());
+            }
+        }
+        return counts;
+    }
+}
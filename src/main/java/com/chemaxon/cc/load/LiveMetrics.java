@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Counters of the running test, updated by every caller without locking and read by the reporters while the test
+ * runs. The counts are totals since the start, the latencies are collected per interval and into fixed buckets since
+ * the start.
+ */
+public class LiveMetrics {
+
+    /** The upper bounds of the latency buckets in seconds, the last bucket is unbounded. */
+    private static final double[] BUCKET_BOUNDS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder molecules = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder activeUsers = new LongAdder();
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+    private final long[] bucketBoundNanos = new long[BUCKET_BOUNDS.length];
+    private final LongAdder latencySumNanos = new LongAdder();
+    private final int precision;
+    private final Recorder latencies;
+    private Histogram intervalLatencies;
+
+    /**
+     * @param precision the number of significant decimal digits the latency histograms keep (0-5)
+     */
+    public LiveMetrics(int precision) {
+        this.precision = precision;
+        this.latencies = new Recorder(precision);
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new LongAdder();
+        }
+        for (int i = 0; i < BUCKET_BOUNDS.length; ++i) {
+            bucketBoundNanos[i] = (long) (BUCKET_BOUNDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    public void userStarted() {
+        activeUsers.increment();
+    }
+
+    public void userStopped() {
+        activeUsers.decrement();
+    }
+
+    public void requestStarted() {
+        inFlight.increment();
+    }
+
+    /**
+     * @param responseNanos the response time of the request, measured from its intended start
+     */
+    public void requestCompleted(int molCount, SearchResponseStat response, long responseNanos) {
+        inFlight.decrement();
+        requests.increment();
+        molecules.add(molCount);
+        passed.add(response.getPassed());
+        hits.add(response.getHitCount());
+        errors.add(response.getError());
+        latencies.recordValue(responseNanos);
+        latencySumNanos.add(responseNanos);
+        buckets[bucketOf(responseNanos)].increment();
+    }
+
+    private int bucketOf(long nanos) {
+        int bucket = 0;
+        while (bucket < bucketBoundNanos.length && nanos > bucketBoundNanos[bucket]) {
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    /**
+     * @param label the {@link FailureType} label of the failure
+     */
+    public void requestFailed(String label) {
+        inFlight.decrement();
+        failedRequests.increment();
+        failures.computeIfAbsent(label, l -> new LongAdder()).increment();
+    }
+
+    public void requestRetried() {
+        retries.increment();
+    }
+
+    /**
+     * Adds the changes of the counters of another JVM since its previous update, e.g. of a worker.
+     *
+     * @param failures the failed requests by their {@link FailureType} label since the previous update
+     * @param latencies the response times recorded by the other JVM since its previous update
+     */
+    public void add(long requests, long molecules, long passed, long hits, long errors, long failedRequests,
+            Map<String, Long> failures, long retries, long inFlight, long activeUsers, Histogram latencies) {
+        this.requests.add(requests);
+        this.molecules.add(molecules);
+        this.passed.add(passed);
+        this.hits.add(hits);
+        this.errors.add(errors);
+        this.failedRequests.add(failedRequests);
+        failures.forEach((label, count) -> this.failures.computeIfAbsent(label, l -> new LongAdder()).add(count));
+        this.retries.add(retries);
+        this.inFlight.add(inFlight);
+        this.activeUsers.add(activeUsers);
+        for (HistogramIterationValue value : latencies.recordedValues()) {
+            long nanos = latencies.medianEquivalentValue(value.getValueIteratedTo());
+            long count = value.getCountAtValueIteratedTo();
+            this.latencies.recordValueWithCount(nanos, count);
+            latencySumNanos.add(nanos * count);
+            buckets[bucketOf(nanos)].add(count);
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getMolecules() {
+        return molecules.sum();
+    }
+
+    public long getPassed() {
+        return passed.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    /**
+     * @return the number of failed requests by their {@link FailureType} label
+     */
+    public Map<String, Long> getFailures() {
+        Map<String, Long> counts = new TreeMap<>();
+        failures.forEach((label, count) -> counts.put(label, count.sum()));
+        return counts;
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public long getActiveUsers() {
+        return activeUsers.sum();
+    }
+
+    /**
+     * @return the upper bounds of the latency buckets in seconds, without the last, unbounded one
+     */
+    public double[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * @return the number of responses in each latency bucket since the start, not cumulated
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; ++i) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getLatencySumNanos() {
+        return latencySumNanos.sum();
+    }
+
+    /**
+     * Returns the latencies recorded since the previous call. The returned histogram is reused by the next call, so
+     * it has to be read by then. Only one thread may call it.
+     */
+    public Histogram takeIntervalLatencies() {
+        intervalLatencies = latencies.getIntervalHistogram(intervalLatencies);
+        return intervalLatencies;
+    }
+}
@@ -1,19 +1,19 @@
-/*
- * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
- * 
- * Licensed under the Apache License, Version 2.0 (the "License"); you may not
- * use this file except in compliance with the License. You may obtain a copy of
- * the License at
- * 
- * http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
- * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
- * License for the specific language governing permissions and limitations under
- * the License.
- */
-
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
 package com.chemaxon.cc.load;
 
 import java.io.IOException;
@@ -21,7 +21,13 @@ import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadFactory;
 import java.util.stream.Collectors;
 
 import org.apache.commons.cli.ParseException;
@@ -35,59 +41,440 @@ public class LoadRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(LoadRunner.class);
 
-    public static void main(String[] args)
-            throws ParseException, IOException, URISyntaxException, InterruptedException {
+    /** What a run produced, for the report. */
+    static class Outcome {
+
+        private final List<CallerStats> stats;
+        private final long plannedChecks;
+        private final Instant start;
+        private final Instant end;
+        private final double targetRate;
+        private final Map<String, Map<String, Double>> engineMetrics;
+        private final List<String> failures;
+        private final MoleculeCosts moleculeCosts;
+
+        /**
+         * @param failures the errors that lost results, e.g. of workers that failed
+         */
+        Outcome(List<CallerStats> stats, long plannedChecks, Instant start, Instant end, double targetRate,
+                Map<String, Map<String, Double>> engineMetrics, List<String> failures) {
+            this(stats, plannedChecks, start, end, targetRate, engineMetrics, failures, null);
+        }
+
+        /**
+         * @param moleculeCosts the service times attributed to the molecules, or null if they were not recorded
+         */
+        Outcome(List<CallerStats> stats, long plannedChecks, Instant start, Instant end, double targetRate,
+                Map<String, Map<String, Double>> engineMetrics, List<String> failures,
+                MoleculeCosts moleculeCosts) {
+            this.stats = stats;
+            this.plannedChecks = plannedChecks;
+            this.start = start;
+            this.end = end;
+            this.targetRate = targetRate;
+            this.engineMetrics = engineMetrics;
+            this.failures = failures;
+            this.moleculeCosts = moleculeCosts;
+        }
+
+        List<CallerStats> getStats() {
+            return stats;
+        }
+
+        long getPlannedChecks() {
+            return plannedChecks;
+        }
+
+        Instant getStart() {
+            return start;
+        }
+
+        Instant getEnd() {
+            return end;
+        }
+
+        double getTargetRate() {
+            return targetRate;
+        }
+
+        Map<String, Map<String, Double>> getEngineMetrics() {
+            return engineMetrics;
+        }
+
+        List<String> getFailures() {
+            return failures;
+        }
+
+        MoleculeCosts getMoleculeCosts() {
+            return moleculeCosts;
+        }
+    }
+
+    /** Tells when everything is prepared, and returns when the requests may be started. */
+    interface StartSignal {
+
+        void ready() throws IOException, InterruptedException;
+    }
+
+    public static void main(String[] args)
+            throws ParseException, IOException, URISyntaxException, InterruptedException {
+        if (args.length > 0 && "report".equals(args[0])) {
+            JournalReport.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "mock".equals(args[0])) {
+            MockChecker.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "worker".equals(args[0])) {
+            Worker.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         CliOptions clio = new CliOptions(args);
-        final List<Molecule> mols = loadMolecules(clio);
+        if (clio.isCoordinator() && clio.getReplay() != null) {
+            throw new IllegalArgumentException("--replay is not supported with --workers");
+        }
+        if ((clio.isCoordinator() || clio.isSweep()) && clio.getCapture() != null) {
+            throw new IllegalArgumentException("--capture is not supported with --workers and --sweepThreads");
+        }
+        if ((clio.isCoordinator() || clio.isSweep()) && clio.getJournal() != null) {
+            throw new IllegalArgumentException("--journal is not supported with --workers and --sweepThreads");
+        }
+        if ((clio.isCoordinator() || clio.isSweep()) && clio.getSlowest() > 0) {
+            throw new IllegalArgumentException("--slowest is not supported with --workers and --sweepThreads");
+        }
+        if (clio.isSweep()) {
+            new Sweep(clio).run();
+            return;
+        }
+        Scenario scenario = clio.getScenario();
+        LiveMetrics live = new LiveMetrics(clio.getHistogramPrecision());
+        IntervalReporter intervalReporter = new IntervalReporter(live, clio.getReportInterval(),
+                clio.getIntervalCsv());
+        MetricsServer metricsServer = null;
+        if (clio.isServingMetrics()) {
+            metricsServer = new MetricsServer(clio.getMetricsPort(), live,
+                    scenario != null && !clio.isCoordinator() ? () -> scenario.getActiveUsers(System.nanoTime())
+                            : live::getActiveUsers);
+            metricsServer.start();
+            LOG.info("serving metrics on port {}", metricsServer.getPort());
+        }
+        Outcome outcome;
+        if (clio.isCoordinator()) {
+            outcome = new Coordinator(clio, live).run(intervalReporter::start);
+        } else {
+            outcome = runLoad(clio, live, intervalReporter::start);
+        }
+        intervalReporter.close();
+        boolean noErrors = report(clio, outcome, intervalReporter.getTimeSeries());
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        if (clio.isFailOnError() && !noErrors) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the test of the options, recording the results into the live metrics too.
+     */
+    static Outcome runLoad(CliOptions clio, LiveMetrics live, StartSignal startSignal)
+            throws IOException, URISyntaxException, InterruptedException {
+        if (clio.isScenarioMode() && "async".equals(clio.getEngine())) {
+            throw new IllegalArgumentException("--scenario and --duration are not supported by the async engine");
+        }
+        if (clio.getSlowest() > 0 && (clio.isStreaming() || clio.getReplay() != null)) {
+            throw new IllegalArgumentException("--slowest is not supported with --stream and --replay");
+        }
+        if (clio.isStreaming() && clio.getPasses() == 0 && !clio.isScenarioMode()) {
+            throw new IllegalArgumentException("--passes 0 needs --duration or --scenario to end the test");
+        }
+        StreamingMoleculeSource stream = null;
+        ReplaySource replay = null;
+        MoleculePayloads payloads = null;
+        if (clio.getReplay() != null) {
+            replay = new ReplaySource(clio.getReplay(), clio.getQueueSize(), clio.getReplaySpeed());
+        } else if (clio.isStreaming()) {
+            stream = new StreamingMoleculeSource(clio.getFile(), clio.getQueueSize(),
+                    clio.isScenarioMode() ? 0 : clio.getPasses());
+        } else {
+            payloads = MoleculePayloads.export(loadMolecules(clio));
+        }
         LOG.info("running on {} concurrent threads", clio.getThreads());
         LOG.info("sending {} mols in one request", clio.getChunks());
         LOG.info("using service: {}", clio.getURL());
         LOG.info("using user: {}", clio.getUser());
-        LOG.info("loading file: {}", clio.getFile());
-        LOG.info("saving file: {}", clio.getOutput());
-        LOG.info("loaded {} molecules", mols.size());
-        List<Thread> threads = new ArrayList<>();
-        List<ComplianceCaller> ccallers = new ArrayList<>();
-        Instant start = Instant.now();
+        LOG.info("loading file: {}", replay != null ? clio.getReplay() : clio.getFile());
+        Scenario scenario = clio.getScenario();
+        if (scenario != null) {
+            LOG.info("following a scenario of {} phases for {} seconds, think time: {} ms, pacing: {} ms",
+                    scenario.getPhases().size(), scenario.getDurationSeconds(), scenario.getThinkTimeMillis(),
+                    scenario.getPacingMillis());
+        }
+        if (replay != null) {
+            LOG.info("replaying requests at {}x speed (0: as fast as possible)", clio.getReplaySpeed());
+        } else if (stream != null) {
+            LOG.info("streaming molecules through a queue of {}, passes: {}", clio.getQueueSize(),
+                    scenario != null || clio.getPasses() == 0 ? "unlimited" : clio.getPasses());
+        } else {
+            LOG.info("loaded {} molecules", payloads.size());
+        }
+        if (clio.isRateMode()) {
+            LOG.info("open model: sending {} requests/sec", clio.getRequestRate());
+        }
+        LOG.info("using engine: {}", clio.getEngine());
+        List<MoleculeSource> sources = new ArrayList<>();
+        List<CallerStats> stats = new ArrayList<>();
         for (int i = 0; i < clio.getThreads(); ++i) {
-            ComplianceCaller ccaller = new ComplianceCaller(mols, clio.getURL(), clio.getChunks(), clio.getUser(), clio.getPassword(), clio.getDate(), clio.getCategories());
-            ccallers.add(ccaller);
-            Thread t = new Thread(ccaller, "ComplianceRunner_" + i);
-            t.start();
-            threads.add(t);
+            sources.add(replay != null ? replay
+                    : stream != null ? stream : new CachedMoleculeSource(payloads, scenario != null));
+            stats.add(new CallerStats("ComplianceRunner_" + i, clio.getHistogramPrecision(), !clio.isSummaryOnly(),
+                    scenario == null ? 0 : scenario.getPhases().size()));
+        }
+        CheckRequestFactory requests = new CheckRequestFactory(clio.getDate(), clio.getCategories(),
+                clio.isSaveInput() && !clio.isSummaryOnly());
+        for (int i = 0; i < stats.size(); ++i) {
+            MoleculeSource source = sources.get(i);
+            stats.get(i).setRequestBodies(chunk -> {
+                List<byte[]> srcs = source.getChunk(chunk, clio.getChunks());
+                return srcs == null ? null : requests.bodyForLog(srcs);
+            });
+        }
+        MoleculeCosts moleculeCosts = null;
+        if (clio.getSlowest() > 0) {
+            moleculeCosts = new MoleculeCosts(payloads);
+            for (int i = 0; i < stats.size(); ++i) {
+                stats.get(i).setMoleculeCosts(moleculeCosts.recorder(sources.get(i), clio.getChunks()));
+            }
+        }
+        ResponseParser parser = new ResponseParser(clio.isFullResponseParsing());
+        Map<String, Map<String, Double>> engineMetrics = new LinkedHashMap<>();
+        boolean virtual = "virtual".equals(clio.getEngine());
+        GeneratorMonitor monitor = new GeneratorMonitor(
+                virtual ? VirtualThreads.factory("GeneratorProbe_") : r -> new Thread(r, "GeneratorProbe"));
+        if (stream != null) {
+            stream.start();
+        }
+        if (replay != null) {
+            replay.start();
         }
-        for (Thread t : threads) {
-            t.join();
+        RequestCapture capture = null;
+        if (clio.getCapture() != null) {
+            capture = new RequestCapture(clio.getCapture());
+            requests.setCapture(capture);
+            LOG.info("capturing the requests to: {}", clio.getCapture());
+        }
+        monitor.start();
+        startSignal.ready();
+        Instant start = Instant.now();
+        ArrivalSchedule schedule = clio.isRateMode() ? new ArrivalSchedule(clio.getRequestRate()) : null;
+        ResultJournal journal = null;
+        if (clio.getJournal() != null) {
+            journal = new ResultJournal(clio.getJournal(), new ResultJournal.Metadata(start,
+                    stats.stream().map(CallerStats::getName).collect(Collectors.toList()),
+                    clio.getHistogramPrecision(), schedule == null ? 0 : schedule.getRequestsPerSecond(), scenario));
+            LOG.info("writing the results to journal: {}", clio.getJournal());
+        }
+        if (scenario != null) {
+            scenario.start();
+        }
+        switch (clio.getEngine()) {
+        case "thread":
+            runThreads(clio, sources, stats, requests, parser, schedule, scenario, live, journal, Thread::new,
+                    engineMetrics);
+            break;
+        case "virtual":
+            runThreads(clio, sources, stats, requests, parser, schedule, scenario, live, journal,
+                    VirtualThreads.factory("ComplianceRunner_"), engineMetrics);
+            break;
+        case "async":
+            runAsync(clio, sources, stats, requests, parser, schedule, live, journal, engineMetrics);
+            break;
+        case "h2":
+            runHttp2(clio, sources, stats, requests, parser, schedule, scenario, live, journal, engineMetrics);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown --engine: " + clio.getEngine());
         }
         Instant end = Instant.now();
+        if (journal != null) {
+            journal.close();
+        }
+        if (capture != null) {
+            capture.close();
+        }
+        engineMetrics.put("Generator (" + clio.getEngine() + " engine)", monitor.stop());
+        if (replay != null) {
+            replay.close();
+        }
+        if (stream != null) {
+            stream.close();
+        }
+        List<String> failures = new ArrayList<>();
+        if (stream != null && stream.getFailure() != null) {
+            failures.add("Could not read every molecule of " + clio.getFile() + ": " + stream.getFailure());
+        }
+        if (replay != null && replay.getFailure() != null) {
+            failures.add("Could not read every request of " + clio.getReplay() + ": " + replay.getFailure());
+        }
+        if (capture != null && capture.getFailure() != null) {
+            failures.add("Could not write the capture " + clio.getCapture() + ": " + capture.getFailure());
+        }
+        long plannedChecks;
+        if (scenario != null) {
+            plannedChecks = stats.stream().mapToLong(CallerStats::getSentCount).sum();
+        } else if (replay != null) {
+            plannedChecks = replay.getReadCount();
+        } else if (stream != null) {
+            plannedChecks = stream.getReadCount();
+        } else {
+            plannedChecks = (long) clio.getThreads() * payloads.size();
+        }
+        return new Outcome(stats, plannedChecks, start, end, schedule == null ? 0 : schedule.getRequestsPerSecond(),
+                engineMetrics, failures, moleculeCosts);
+    }
+
+    /**
+     * Logs the results and saves the report.
+     *
+     * @return whether every check could finish
+     */
+    static boolean report(CliOptions clio, Outcome outcome, TimeSeries timeSeries) throws IOException {
+        List<CallerStats> stats = outcome.getStats();
+        long plannedChecks = outcome.getPlannedChecks();
+        Instant start = outcome.getStart();
+        Instant end = outcome.getEnd();
+        Scenario scenario = clio.getScenario();
         boolean noErrors = true;
-        int sumChecks = 0;
+        long sumChecks = 0;
         int faliedThreads = 0;
-        for (ComplianceCaller ccaller : ccallers) {
-            noErrors &= ccaller.isEveryCheckFinnished();
-            sumChecks += ccaller.getErrorCount() + ccaller.getHitCount() + ccaller.getPassedCount();
-            if (!ccaller.isEveryCheckFinnished()) {
+        for (CallerStats s : stats) {
+            noErrors &= s.isEveryCheckFinnished();
+            sumChecks += s.getCheckedCount();
+            if (!s.isEveryCheckFinnished()) {
                 ++faliedThreads;
             }
-            LOG.info("hit: {}\terrror: {}\tpassed: {}\t -- {}", ccaller.getHitCount(), ccaller.getErrorCount(),
-                    ccaller.getPassedCount(), ccaller.isEveryCheckFinnished() ? "PASSED" : "FAILED");
+            LOG.info("hit: {}\terrror: {}\tpassed: {}\t -- {}", s.getHitCount(), s.getErrorCount(),
+                    s.getPassedCount(), s.isEveryCheckFinnished() ? "PASSED" : "FAILED");
         }
-        if (noErrors) {
+        for (String failure : outcome.getFailures()) {
+            LOG.error(failure);
+            noErrors = false;
+        }
+        if (noErrors) {
             LOG.info("Every check could finnish");
         } else {
             LOG.error("Error has happenned during checking");
             LOG.error("Failed threads count: {}", faliedThreads);
         }
-        LOG.info("checked mols: {}\tplannedChecks: {}\t {}%", sumChecks, clio.getThreads() * mols.size(),
-                ((double) sumChecks) / (clio.getThreads() * mols.size()) * 100.0);
+        LOG.info("checked mols: {}\tplannedChecks: {}\t {}%", sumChecks, plannedChecks,
+                ((double) sumChecks) / plannedChecks * 100.0);
+        CallerStats merged = CallerStats.merge("threads", stats);
+        if (merged.getFailedRequestCount() > 0) {
+            LOG.warn("failed requests: {} {}\tretries: {}", merged.getFailedRequestCount(), merged.getFailures(),
+                    merged.getRetryCount());
+        }
         LOG.info("taken: {}", Duration.between(start, end));
-        LOG.info("throughput: {} mol/sec", (((double) sumChecks) / Duration.between(start, end).toMillis()) * 1000);
-        new ReportCreator(ccallers.stream().map(cc -> cc.getLogs()).collect(Collectors.toList()),
-                clio.getThreads() * mols.size(), sumChecks, start, end, clio.isSaveInput())
-                        .saveHtmlReport(clio.getOutput());
-        if (clio.isFailOnError() && !noErrors) {
-            System.exit(1);
+        LOG.info("throughput: {} mol/sec", (((double) sumChecks) / Duration.between(start, end).toMillis()) * 1000);
+        ReportCreator report = new ReportCreator(stats, plannedChecks, sumChecks, start, end, clio.isSaveInput(),
+                outcome.getTargetRate(), clio.getReportRows());
+        report.setTimeSeries(timeSeries);
+        report.setLatencyBuckets(clio.getLatencyBuckets());
+        for (Entry<String, Map<String, Double>> section : outcome.getEngineMetrics().entrySet()) {
+            LOG.info("{}: {}", section.getKey(), section.getValue());
+            report.addSection(section.getKey(), section.getValue());
+        }
+        if (scenario != null) {
+            for (int i = 0; i < scenario.getPhases().size(); ++i) {
+                int phase = i;
+                CallerStats phaseStats = CallerStats.merge(scenario.getPhases().get(i).getName(),
+                        stats.stream().map(s -> s.forPhase(phase)).collect(Collectors.toList()));
+                LOG.info("phase {}: {} requests, {} mols, {} errors", phaseStats.getName(),
+                        phaseStats.getRequestCount(), phaseStats.getCheckedCount(), phaseStats.getErrorCount());
+                report.addPhase(scenario.getPhases().get(i), phaseStats);
+            }
+        }
+        if (outcome.getMoleculeCosts() != null) {
+            MoleculeCosts.Estimate costs = outcome.getMoleculeCosts().estimate();
+            LOG.info("Molecule costs: {}", costs.getSummary());
+            for (MoleculeCosts.Structure s : costs.getSlowest(Math.min(5, clio.getSlowest()))) {
+                LOG.info("slow structure {}: {} ms in {} requests, {} atoms, {} hits", s.getId(),
+                        String.format(Locale.ROOT, "%.2f", s.getCostMillis()), s.getRequests(), s.getAtomCount(),
+                        s.getHits());
+            }
+            report.addSection("Molecule costs", costs.getSummary());
+            report.setSlowestStructures(costs.getSlowest(clio.getSlowest()));
+        }
+        LOG.info("saving file: {}", clio.getOutput());
+        report.saveHtmlReport(clio.getOutput());
+        return noErrors;
+    }
+
+    private static void runThreads(CliOptions clio, List<MoleculeSource> sources, List<CallerStats> stats,
+            CheckRequestFactory requests, ResponseParser parser, ArrivalSchedule schedule, Scenario scenario,
+            LiveMetrics live, ResultJournal journal, ThreadFactory threadFactory,
+            Map<String, Map<String, Double>> engineMetrics)
+            throws IOException, URISyntaxException, InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        TransferMeter transfer = new TransferMeter(clio.isCompress());
+        try (CheckerConnections connections = new CheckerConnections(clio.getURL(), clio.getUser(),
+                clio.getPassword(), clio.getMaxConnections(), clio.getKeepAlive(), clio.getRequestPolicy(),
+                transfer)) {
+            for (int i = 0; i < sources.size(); ++i) {
+                ComplianceCaller ccaller = new ComplianceCaller(sources.get(i), connections, clio.getChunks(),
+                        requests, parser, schedule, scenario, i, live, journal, stats.get(i));
+                Thread t = threadFactory.newThread(ccaller);
+                t.setName(stats.get(i).getName());
+                t.start();
+                threads.add(t);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            engineMetrics.put("Connections", connections.getMetrics());
+            engineMetrics.put("Transfer", transfer.getMetrics());
+        }
+    }
+
+    private static void runAsync(CliOptions clio, List<MoleculeSource> sources, List<CallerStats> stats,
+            CheckRequestFactory requests, ResponseParser parser, ArrivalSchedule schedule, LiveMetrics live,
+            ResultJournal journal, Map<String, Map<String, Double>> engineMetrics)
+            throws IOException, URISyntaxException, InterruptedException {
+        LOG.info("async engine: {} I/O threads, at most {} requests in flight", clio.getIoThreads(),
+                clio.getMaxInFlight());
+        TransferMeter transfer = new TransferMeter(clio.isCompress());
+        try (AsyncComplianceEngine engine = new AsyncComplianceEngine(clio.getURL(), clio.getUser(),
+                clio.getPassword(), clio.getIoThreads(), clio.getMaxInFlight(), clio.getChunks(), requests, parser,
+                schedule, live, journal, clio.getRequestPolicy(), transfer)) {
+            engine.run(sources, stats);
+        }
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("simulated users", (double) sources.size());
+        metrics.put("I/O threads", (double) clio.getIoThreads());
+        metrics.put("max requests in flight", (double) clio.getMaxInFlight());
+        engineMetrics.put("Async engine", metrics);
+        engineMetrics.put("Transfer", transfer.getMetrics());
+    }
+
+    private static void runHttp2(CliOptions clio, List<MoleculeSource> sources, List<CallerStats> stats,
+            CheckRequestFactory requests, ResponseParser parser, ArrivalSchedule schedule, Scenario scenario,
+            LiveMetrics live, ResultJournal journal, Map<String, Map<String, Double>> engineMetrics)
+            throws IOException, URISyntaxException, InterruptedException {
+        LOG.info("h2 engine: {} connections, at most {} streams each", clio.getH2Connections(),
+                clio.getMaxConcurrentStreams());
+        TransferMeter transfer = new TransferMeter(clio.isCompress());
+        try (Http2ComplianceEngine engine = new Http2ComplianceEngine(clio.getURL(), clio.getUser(),
+                clio.getPassword(), clio.getIoThreads(), clio.getH2Connections(), clio.getMaxConcurrentStreams(),
+                clio.getChunks(), requests, parser, schedule, scenario, live, journal, clio.getRequestPolicy(),
+                transfer)) {
+            engine.run(sources, stats);
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            metrics.put("simulated users", (double) sources.size());
+            metrics.put("I/O threads", (double) clio.getIoThreads());
+            metrics.putAll(engine.getMetrics());
+            engineMetrics.put("HTTP/2 engine", metrics);
         }
+        engineMetrics.put("Transfer", transfer.getMetrics());
     }
 
     private static List<Molecule> loadMolecules(CliOptions clio) throws IOException {
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the {@link LiveMetrics} and a few JVM metrics in the Prometheus text format on {@code /metrics} while the
+ * test runs, so the load generator can be scraped like the checker service.
+ */
+public class MetricsServer implements Closeable {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final LiveMetrics metrics;
+    private final LongSupplier activeUsers;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param activeUsers the number of users sending requests at the moment
+     */
+    public MetricsServer(int port, LiveMetrics metrics, LongSupplier activeUsers) throws IOException {
+        this.metrics = metrics;
+        this.activeUsers = activeUsers;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MetricsServer");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String scrape() {
+        StringBuilder sb = new StringBuilder();
+        counter(sb, "cc_load_requests_total", "Requests answered by the checker", metrics.getRequests());
+        counter(sb, "cc_load_failed_requests_total", "Requests failed with an exception or a non 200 status",
+                metrics.getFailedRequests());
+        help(sb, "cc_load_request_failures_total", "counter", "Failed requests by the cause of the failure");
+        for (Entry<String, Long> failure : metrics.getFailures().entrySet()) {
+            sample(sb, "cc_load_request_failures_total{type=\"" + failure.getKey() + "\"}", failure.getValue());
+        }
+        counter(sb, "cc_load_retries_total", "Failed requests sent again", metrics.getRetries());
+        counter(sb, "cc_load_molecules_total", "Molecules checked", metrics.getMolecules());
+        help(sb, "cc_load_results_total", "counter", "Results of the checked molecules");
+        sample(sb, "cc_load_results_total{result=\"passed\"}", metrics.getPassed());
+        sample(sb, "cc_load_results_total{result=\"hit\"}", metrics.getHits());
+        sample(sb, "cc_load_results_total{result=\"error\"}", metrics.getErrors());
+        gauge(sb, "cc_load_in_flight_requests", "Requests sent and not answered yet", metrics.getInFlight());
+        gauge(sb, "cc_load_active_users", "Simulated users sending requests", activeUsers.getAsLong());
+
+        help(sb, "cc_load_response_time_seconds", "histogram",
+                "Response times measured from the intended start of the requests");
+        double[] bounds = metrics.getBucketBounds();
+        long[] counts = metrics.getBucketCounts();
+        long cumulated = 0;
+        for (int i = 0; i < bounds.length; ++i) {
+            cumulated += counts[i];
+            sample(sb, "cc_load_response_time_seconds_bucket{le=\"" + bounds[i] + "\"}", cumulated);
+        }
+        cumulated += counts[bounds.length];
+        sample(sb, "cc_load_response_time_seconds_bucket{le=\"+Inf\"}", cumulated);
+        sample(sb, "cc_load_response_time_seconds_sum",
+                metrics.getLatencySumNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+        sample(sb, "cc_load_response_time_seconds_count", cumulated);
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        gauge(sb, "jvm_memory_heap_used_bytes", "Used heap", heap.getUsed());
+        gauge(sb, "jvm_memory_heap_committed_bytes", "Committed heap", heap.getCommitted());
+        gauge(sb, "jvm_threads_live", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        help(sb, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(sb, "jvm_gc_collection_seconds_total{gc=\"" + gc.getName() + "\"}",
+                    gc.getCollectionTime() / 1000.0);
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            help(sb, "process_cpu_seconds_total", "counter", "CPU time of the load generator");
+            sample(sb, "process_cpu_seconds_total", ((com.sun.management.OperatingSystemMXBean) os)
+                    .getProcessCpuTime() / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        help(sb, name, "counter", help);
+        sample(sb, name, value);
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        help(sb, name, "gauge", help);
+        sample(sb, name, value);
+    }
+
+    private static void help(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, double value) {
+        sb.append(name).append(' ').append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
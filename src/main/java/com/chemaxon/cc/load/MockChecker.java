@@ -0,0 +1,355 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stub of the checker with known behavior: answers {@code POST .../check/list} with Basic authorization like the
+ * integration API, with random passed, hit and error results in the given ratios, after a latency of the given
+ * distribution. Requests can be failed with an HTTP error too. Used to measure the ceiling of the load generator
+ * itself, and to run the tool without a checker.
+ */
+public class MockChecker implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MockChecker.class);
+
+    private final String authorization;
+    private final double hitRatio;
+    private final double errorRatio;
+    private final int minHits;
+    private final int maxHits;
+    private final Latency latency;
+    private final long latencyPerMolNanos;
+    private final double failureRatio;
+    private final int failureStatus;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder molecules = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * The latency of the responses: "fixed:&lt;ms&gt;", "uniform:&lt;min ms&gt;:&lt;max ms&gt;", "exp:&lt;mean
+     * ms&gt;" or "lognormal:&lt;median ms&gt;:&lt;sigma&gt;".
+     */
+    static class Latency {
+
+        private final String type;
+        private final double a;
+        private final double b;
+
+        private Latency(String type, double a, double b) {
+            this.type = type;
+            this.a = a;
+            this.b = b;
+        }
+
+        static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            try {
+                switch (parts[0]) {
+                case "fixed":
+                case "exp":
+                    if (parts.length == 2) {
+                        return new Latency(parts[0], Double.parseDouble(parts[1]), 0);
+                    }
+                    break;
+                case "uniform":
+                case "lognormal":
+                    if (parts.length == 3) {
+                        return new Latency(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    }
+                    break;
+                default:
+                    break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid --latency: " + spec, e);
+            }
+            throw new IllegalArgumentException("Invalid --latency: " + spec
+                    + ", expected fixed:<ms>, uniform:<min ms>:<max ms>, exp:<mean ms> or lognormal:<median ms>:<sigma>");
+        }
+
+        long nextNanos() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double millis;
+            switch (type) {
+            case "uniform":
+                millis = a + random.nextDouble() * (b - a);
+                break;
+            case "exp":
+                millis = -a * Math.log(1 - random.nextDouble());
+                break;
+            case "lognormal":
+                millis = a * Math.exp(b * random.nextGaussian());
+                break;
+            default:
+                millis = a;
+                break;
+            }
+            return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        @Override
+        public String toString() {
+            return type + ":" + a + ("uniform".equals(type) || "lognormal".equals(type) ? ":" + b : "");
+        }
+    }
+
+    /**
+     * @param hitRatio the share of the molecules with hits
+     * @param errorRatio the share of the molecules with an error result
+     * @param failureRatio the share of the requests answered with the failure status instead of results
+     */
+    public MockChecker(int port, String user, String password, double hitRatio, double errorRatio, int minHits,
+            int maxHits, Latency latency, long latencyPerMolNanos, double failureRatio, int failureStatus)
+            throws IOException {
+        if (hitRatio < 0 || errorRatio < 0 || hitRatio + errorRatio > 1) {
+            throw new IllegalArgumentException("--hitRatio and --errorRatio must be >= 0 and at most 1 together");
+        }
+        if (minHits < 1 || maxHits < minHits) {
+            throw new IllegalArgumentException("--hits must be <min>-<max> with 1 <= min <= max");
+        }
+        this.authorization = "Basic " + Base64.getEncoder()
+                .encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.hitRatio = hitRatio;
+        this.errorRatio = errorRatio;
+        this.minHits = minHits;
+        this.maxHits = maxHits;
+        this.latency = latency;
+        this.latencyPerMolNanos = latencyPerMolNanos;
+        this.failureRatio = failureRatio;
+        this.failureStatus = failureStatus;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        // a thread per request in progress, the latency is simulated by sleeping
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "MockChecker");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws ParseException, IOException, InterruptedException {
+        Options opts = new Options();
+        opts.addOption(Option.builder().longOpt("port").desc("The port to listen on (default 8082)").hasArg()
+                .type(Integer.class).required(false).build());
+        opts.addOption(Option.builder("h").longOpt("http-user").desc("The user to accept (default admin)").hasArg()
+                .required(false).build());
+        opts.addOption(Option.builder("p").longOpt("http-password").desc("The password to accept (default adminPass)")
+                .hasArg().required(false).build());
+        opts.addOption(Option.builder().longOpt("hitRatio")
+                .desc("The share of the molecules with hits (default 0.1)").hasArg().type(Double.class)
+                .required(false).build());
+        opts.addOption(Option.builder().longOpt("errorRatio")
+                .desc("The share of the molecules with an error result (default 0.01)").hasArg().type(Double.class)
+                .required(false).build());
+        opts.addOption(Option.builder().longOpt("hits")
+                .desc("The number of hits of a molecule with hits, '<n>' or '<min>-<max>' (default 1-3)").hasArg()
+                .required(false).build());
+        opts.addOption(Option.builder().longOpt("latency")
+                .desc("The latency of a request: 'fixed:<ms>' (default fixed:0), 'uniform:<min ms>:<max ms>', "
+                        + "'exp:<mean ms>' or 'lognormal:<median ms>:<sigma>'")
+                .hasArg().required(false).build());
+        opts.addOption(Option.builder().longOpt("latencyPerMol")
+                .desc("Milliseconds added to the latency for every molecule of the request (default 0)").hasArg()
+                .type(Double.class).required(false).build());
+        opts.addOption(Option.builder().longOpt("failureRatio")
+                .desc("The share of the requests answered with --failureStatus (default 0)").hasArg()
+                .type(Double.class).required(false).build());
+        opts.addOption(Option.builder().longOpt("failureStatus")
+                .desc("The HTTP status of the failed requests (default 500)").hasArg().type(Integer.class)
+                .required(false).build());
+        new HelpFormatter().printHelp("cchecker-load-test mock", "Runs a stub checker with known behavior", opts,
+                null, true);
+        CommandLine commandline = new DefaultParser().parse(opts, args);
+        String[] hits = commandline.getOptionValue("hits", "1-3").split("-");
+        MockChecker mock = new MockChecker(Integer.parseInt(commandline.getOptionValue("port", "8082")),
+                commandline.getOptionValue("http-user", "admin"),
+                commandline.getOptionValue("http-password", "adminPass"),
+                Double.parseDouble(commandline.getOptionValue("hitRatio", "0.1")),
+                Double.parseDouble(commandline.getOptionValue("errorRatio", "0.01")), Integer.parseInt(hits[0]),
+                Integer.parseInt(hits[hits.length - 1]), Latency.parse(commandline.getOptionValue("latency", "fixed:0")),
+                (long) (Double.parseDouble(commandline.getOptionValue("latencyPerMol", "0"))
+                        * TimeUnit.MILLISECONDS.toNanos(1)),
+                Double.parseDouble(commandline.getOptionValue("failureRatio", "0")),
+                Integer.parseInt(commandline.getOptionValue("failureStatus", "500")));
+        mock.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(mock::close, "MockCheckerShutdown"));
+        LOG.info("mock checker listening on port {}, latency: {}", mock.getPort(), mock.latency);
+        Thread.currentThread().join();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestURI().getPath().endsWith("/check/list")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!authorization.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"cc-bigdata\"");
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            int molCount = countInput(exchange, isGzip(exchange.getRequestHeaders().getFirst("Content-Encoding")));
+            sleep(latency.nextNanos() + molCount * latencyPerMolNanos);
+            requests.increment();
+            if (failureRatio > 0 && ThreadLocalRandom.current().nextDouble() < failureRatio) {
+                failures.increment();
+                exchange.sendResponseHeaders(failureStatus, -1);
+                return;
+            }
+            molecules.add(molCount);
+            byte[] body = createResponse(molCount).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip")) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream os = new GZIPOutputStream(exchange.getResponseBody())) {
+                    os.write(body);
+                }
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the number of molecules in the input of the request
+     */
+    private static int countInput(HttpExchange exchange, boolean gzipped) throws IOException {
+        int count = 0;
+        InputStream body = gzipped ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+        try (JsonReader json = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("input".equals(json.nextName())) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        json.skipValue();
+                        ++count;
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        return count;
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        return "gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding);
+    }
+
+    private String createResponse(int molCount) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject().name("simpleResponses").beginArray();
+            for (int i = 0; i < molCount; ++i) {
+                json.beginArray();
+                double r = random.nextDouble();
+                if (r < errorRatio) {
+                    json.beginObject().name("error").value(true).name("errorMessage").value("Mock error").endObject();
+                } else if (r < errorRatio + hitRatio) {
+                    int hits = random.nextInt(minHits, maxHits + 1);
+                    for (int h = 0; h < hits; ++h) {
+                        json.beginObject().name("error").value(false).name("categoryName").value("Mock category " + h)
+                                .name("casNubmers").beginArray().value("0-00-" + h).endArray().endObject();
+                    }
+                }
+                json.endArray();
+            }
+            json.endArray().endObject();
+        }
+        return out.toString();
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the server, logging how many requests it has answered.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        LOG.info("mock checker answered {} requests, {} mols, failed {} requests", requests.sum(), molecules.sum(),
+                failures.sum());
+    }
+}
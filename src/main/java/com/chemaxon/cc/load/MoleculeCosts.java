@@ -0,0 +1,311 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Attributes the service time of the answered requests to the molecules they contained, to find the structures that
+ * make the checker slow. The service time of a request is modelled as a base latency plus the sum of the costs of its
+ * molecules, and the model is fitted by backfitting: the cost of every molecule in turn is moved by the mean residual
+ * of the requests it was sent in, until the costs settle. Every caller shuffles the molecules on its own, and again on
+ * every pass of a looping run, so across many requests a molecule is seen in many mixes, which tells its cost apart
+ * from the costs of its neighbours.
+ * <p>
+ * Every caller records into its own {@link Recorder}, the costs are estimated after the callers have finished.
+ */
+public class MoleculeCosts {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MoleculeCosts.class);
+    /**
+     * The molecules of the requests kept for the fit, counted as often as they were sent: 12 bytes per request and 8
+     * bytes per molecule while fitting, and the arrays of the fit are indexed by int.
+     */
+    private static final long MAX_MOLECULES = 20_000_000;
+    private static final int MAX_ITERATIONS = 200;
+    private static final double CONVERGED_MILLIS = 1e-4;
+    /**
+     * Shrinks the costs of the molecules seen in few requests towards zero, which is also what tells the base latency
+     * apart from the cost of the average molecule when every request has the same number of molecules.
+     */
+    private static final double SHRINKAGE = 1;
+
+    private final MoleculePayloads payloads;
+    private final AtomicIntegerArray hits;
+    private final AtomicLong moleculeCount = new AtomicLong();
+    private final List<Recorder> recorders = new ArrayList<>();
+
+    /**
+     * The fitted cost of a molecule.
+     */
+    public static class Structure {
+
+        private final String id;
+        private final int atomCount;
+        private final int hits;
+        private final int requests;
+        private final double meanMillis;
+        private final double costMillis;
+
+        Structure(String id, int atomCount, int hits, int requests, double meanMillis, double costMillis) {
+            this.id = id;
+            this.atomCount = atomCount;
+            this.hits = hits;
+            this.requests = requests;
+            this.meanMillis = meanMillis;
+            this.costMillis = costMillis;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getAtomCount() {
+            return atomCount;
+        }
+
+        /**
+         * @return the number of regulation hits the checker found for the molecule, 0 if it passed
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the number of answered requests the molecule was sent in
+         */
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the mean service time of the requests the molecule was sent in
+         */
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        /**
+         * @return the fitted cost of the molecule: the milliseconds it adds to the service time of a request
+         */
+        public double getCostMillis() {
+            return costMillis;
+        }
+    }
+
+    /**
+     * The molecules and service times of the requests of one caller.
+     * <p>
+     * Not thread safe: it is written by its own caller only.
+     */
+    public class Recorder {
+
+        private final MoleculeSource source;
+        private final int chunkSize;
+        private int[] molecules = new int[256];
+        private int[] ends = new int[64];
+        private double[] millis = new double[64];
+        private int size = 0;
+
+        Recorder(MoleculeSource source, int chunkSize) {
+            this.source = source;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * @param chunkIndex the index of the chunk of the caller's {@link MoleculeSource} that was answered
+         */
+        public void record(int chunkIndex, long durationNanos, SearchResponseStat response) {
+            int[] chunk = source.getMoleculeIndexes(chunkIndex, chunkSize);
+            if (chunk == null) {
+                return;
+            }
+            List<Integer> hitIndexes = response.getHitIndexes();
+            for (int i = 0; i < hitIndexes.size(); ++i) {
+                if (hitIndexes.get(i) < chunk.length) {
+                    hits.accumulateAndGet(chunk[hitIndexes.get(i)], response.getHits().get(i), Math::max);
+                }
+            }
+            // a request without molecules still takes a slot
+            int slots = Math.max(1, chunk.length);
+            long count = moleculeCount.addAndGet(slots);
+            if (count > MAX_MOLECULES) {
+                if (count - slots <= MAX_MOLECULES) {
+                    LOG.warn("The costs of the molecules are estimated from the requests of the first {} molecules",
+                            MAX_MOLECULES);
+                }
+                return;
+            }
+            int from = size == 0 ? 0 : ends[size - 1];
+            if (from + chunk.length > molecules.length) {
+                molecules = Arrays.copyOf(molecules, Math.max(molecules.length * 2, from + chunk.length));
+            }
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, size * 2);
+                millis = Arrays.copyOf(millis, size * 2);
+            }
+            System.arraycopy(chunk, 0, molecules, from, chunk.length);
+            ends[size] = from + chunk.length;
+            millis[size] = (double) durationNanos / TimeUnit.MILLISECONDS.toNanos(1);
+            ++size;
+        }
+    }
+
+    public MoleculeCosts(MoleculePayloads payloads) {
+        this.payloads = payloads;
+        this.hits = new AtomicIntegerArray(payloads.size());
+    }
+
+    /**
+     * @return the recorder of a caller sending the chunks of the given source
+     */
+    public Recorder recorder(MoleculeSource source, int chunkSize) {
+        Recorder recorder = new Recorder(source, chunkSize);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * Fits the costs of the molecules to the recorded requests.
+     */
+    public Estimate estimate() {
+        // within int by MAX_MOLECULES
+        int requests = Math.toIntExact(recorders.stream().mapToLong(r -> r.size).sum());
+        int[] starts = new int[requests + 1];
+        int[] molecules = new int[Math.toIntExact(
+                recorders.stream().mapToLong(r -> r.size == 0 ? 0 : r.ends[r.size - 1]).sum())];
+        double[] millis = new double[requests];
+        int request = 0;
+        for (Recorder r : recorders) {
+            int offset = starts[request];
+            for (int i = 0; i < r.size; ++i) {
+                millis[request] = r.millis[i];
+                starts[++request] = offset + r.ends[i];
+            }
+            if (r.size > 0) {
+                System.arraycopy(r.molecules, 0, molecules, offset, r.ends[r.size - 1]);
+            }
+        }
+        // the requests of every molecule, for updating the residuals of one molecule at a time
+        int[] requestStarts = new int[payloads.size() + 1];
+        for (int m : molecules) {
+            ++requestStarts[m + 1];
+        }
+        for (int m = 0; m < payloads.size(); ++m) {
+            requestStarts[m + 1] += requestStarts[m];
+        }
+        int[] requestsOf = new int[molecules.length];
+        int[] filled = Arrays.copyOf(requestStarts, payloads.size());
+        for (int r = 0; r < requests; ++r) {
+            for (int i = starts[r]; i < starts[r + 1]; ++i) {
+                requestsOf[filled[molecules[i]]++] = r;
+            }
+        }
+        double[] residuals = millis.clone();
+        double[] costs = new double[payloads.size()];
+        double base = 0;
+        int iterations = 0;
+        double change = Double.MAX_VALUE;
+        while (requests > 0 && iterations < MAX_ITERATIONS && change > CONVERGED_MILLIS) {
+            double shift = Arrays.stream(residuals).sum() / requests;
+            base += shift;
+            for (int r = 0; r < requests; ++r) {
+                residuals[r] -= shift;
+            }
+            change = Math.abs(shift);
+            for (int m = 0; m < costs.length; ++m) {
+                int count = requestStarts[m + 1] - requestStarts[m];
+                if (count == 0) {
+                    continue;
+                }
+                double sum = 0;
+                for (int i = requestStarts[m]; i < requestStarts[m + 1]; ++i) {
+                    sum += residuals[requestsOf[i]];
+                }
+                double delta = sum / (count + SHRINKAGE);
+                costs[m] += delta;
+                for (int i = requestStarts[m]; i < requestStarts[m + 1]; ++i) {
+                    residuals[requestsOf[i]] -= delta;
+                }
+                change = Math.max(change, Math.abs(delta));
+            }
+            ++iterations;
+        }
+        List<Structure> structures = new ArrayList<>();
+        for (int m = 0; m < costs.length; ++m) {
+            int count = requestStarts[m + 1] - requestStarts[m];
+            if (count > 0) {
+                double sum = 0;
+                for (int i = requestStarts[m]; i < requestStarts[m + 1]; ++i) {
+                    sum += millis[requestsOf[i]];
+                }
+                structures.add(new Structure(payloads.getId(m), payloads.getAtomCount(m), hits.get(m), count,
+                        sum / count, costs[m]));
+            }
+        }
+        structures.sort(Comparator.comparingDouble(Structure::getCostMillis).reversed());
+        double mean = requests == 0 ? 0 : Arrays.stream(millis).sum() / requests;
+        double total = Arrays.stream(millis).map(v -> (v - mean) * (v - mean)).sum();
+        double unexplained = Arrays.stream(residuals).map(v -> v * v).sum();
+        return new Estimate(structures, requests, base, total > 0 ? 1 - unexplained / total : 0, iterations);
+    }
+
+    /**
+     * The fitted costs of the molecules that were sent, the most expensive first.
+     */
+    public static class Estimate {
+
+        private final List<Structure> structures;
+        private final int requests;
+        private final double baseMillis;
+        private final double rSquared;
+        private final int iterations;
+
+        Estimate(List<Structure> structures, int requests, double baseMillis, double rSquared, int iterations) {
+            this.structures = structures;
+            this.requests = requests;
+            this.baseMillis = baseMillis;
+            this.rSquared = rSquared;
+            this.iterations = iterations;
+        }
+
+        public List<Structure> getSlowest(int count) {
+            return structures.subList(0, Math.min(count, structures.size()));
+        }
+
+        public Map<String, Double> getSummary() {
+            Map<String, Double> summary = new LinkedHashMap<>();
+            summary.put("requests", (double) requests);
+            summary.put("molecules", (double) structures.size());
+            summary.put("base latency of a request (ms)", baseMillis);
+            summary.put("R squared of the fit", rSquared);
+            summary.put("iterations", (double) iterations);
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chemaxon.marvin.io.formats.csv.CsvExport;
+import com.google.gson.Gson;
+
+import chemaxon.formats.MolExporter;
+import chemaxon.struc.Molecule;
+
+/**
+ * The molecules of the input exported to their wire format once, shared by every caller. Exporting is the most
+ * expensive part of building a request, so it is done up front in parallel instead of per request and per thread.
+ * Every molecule is kept as the UTF-8 bytes of a JSON string, ready to be written into a request body as is, along
+ * with its ID and atom count to tell the molecules apart in the report.
+ */
+public class MoleculePayloads {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MoleculePayloads.class);
+    private static final Gson GSON = new Gson();
+    /** The column of the input files that identifies the molecules. */
+    private static final String ID_PROPERTY = "ID";
+
+    private final byte[][] sources;
+    private final String[] ids;
+    private final int[] atomCounts;
+
+    MoleculePayloads(byte[][] sources, String[] ids, int[] atomCounts) {
+        this.sources = sources;
+        this.ids = ids;
+        this.atomCounts = atomCounts;
+    }
+
+    public static MoleculePayloads export(List<Molecule> mols) throws IOException {
+        Instant start = Instant.now();
+        byte[][] sources;
+        try {
+            sources = IntStream.range(0, mols.size()).parallel().mapToObj(i -> exportOne(mols.get(i)))
+                    .toArray(byte[][]::new);
+        } catch (UncheckedIOException e) {
+            LOG.error("Could not export molecules", e.getCause());
+            throw e.getCause();
+        }
+        String[] ids = new String[mols.size()];
+        int[] atomCounts = new int[mols.size()];
+        for (int i = 0; i < ids.length; ++i) {
+            String id = mols.get(i).getProperty(ID_PROPERTY);
+            ids[i] = id == null || id.isEmpty() ? "#" + (i + 1) : id;
+            atomCounts[i] = mols.get(i).getAtomCount();
+        }
+        LOG.info("exported {} molecules in {}", sources.length, Duration.between(start, Instant.now()));
+        return new MoleculePayloads(sources, ids, atomCounts);
+    }
+
+    /**
+     * @return the molecule exported to CSV, as the UTF-8 bytes of a JSON string
+     */
+    static byte[] exportOne(Molecule m) {
+        try {
+            String src = (String) MolExporter.exportToObject(new Molecule[] { m }, "csv", new CsvExport());
+            return GSON.toJson(src).getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int size() {
+        return sources.length;
+    }
+
+    public byte[] get(int index) {
+        return sources[index];
+    }
+
+    /**
+     * @return the ID column of the molecule, or its line number (#1 for the first molecule) if it has none
+     */
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    public int getAtomCount(int index) {
+        return atomCounts[index];
+    }
+}
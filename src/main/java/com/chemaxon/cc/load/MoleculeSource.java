@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.List;
+
+/**
+ * Supplies the molecules a caller sends, already exported to their wire format: the UTF-8 bytes of a JSON string.
+ */
+public interface MoleculeSource {
+
+    /**
+     * @return the next at most size molecules, or an empty list if there is nothing left to send
+     */
+    List<byte[]> nextChunk(int size) throws InterruptedException;
+
+    /**
+     * Tells the molecules of an earlier chunk again, so the requests need not be kept to show them.
+     *
+     * @param index the index of the chunk, counted from 0 by the calls of {@link #nextChunk(int)}
+     * @return the molecules of the chunk, or null if this source can not tell them again
+     */
+    default List<byte[]> getChunk(int index, int size) {
+        return null;
+    }
+
+    /**
+     * Tells which molecules of the input an earlier chunk contained.
+     *
+     * @return the indexes of the molecules of the chunk in the {@link MoleculePayloads}, or null if this source can
+     *         not tell them
+     */
+    default int[] getMoleculeIndexes(int index, int size) {
+        return null;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} a chunk of this source was due to be sent at if the source paces the
+     *         requests itself, 0 otherwise
+     */
+    default long getDueNanos(List<byte[]> chunk) {
+        return 0;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Replays a capture of /check/list requests, a JSON object a line: either a request body, or
+ * <code>{"timestamp": &lt;epoch millis or ISO-8601 instant&gt;, "request": &lt;request body&gt;}</code> as written by
+ * {@link RequestCapture}. The capture is read on a background thread into a bounded queue shared by every caller, so
+ * memory use does not depend on its size. Every request is sent once, with its own molecules, date and categories, by
+ * whichever caller takes it first.
+ * <p>
+ * If the speed is not 0, a request with a timestamp is held back until its time since the first request, divided by
+ * the speed, has passed since the replay started. The latency of a request sent late because every caller was busy
+ * is measured from its due time.
+ * <p>
+ * Lines that are not requests are skipped. If the capture can not be read to its end, the callers finish with the
+ * requests read so far and the error is kept for the run to fail with.
+ */
+public class ReplaySource implements MoleculeSource, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplaySource.class);
+    private static final Gson GSON = new Gson();
+
+    /** Marks the end of the capture, it is put back for the other callers once taken. */
+    private static final CapturedRequest END = new CapturedRequest(Collections.emptyList(), new byte[0], false, 0);
+
+    private final File file;
+    private final double speed;
+    private final BlockingQueue<CapturedRequest> queue;
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final Thread reader;
+    private volatile Exception failure;
+    private volatile long startNanos;
+    private volatile boolean started;
+
+    /**
+     * A request of the capture: its molecules, the rest of its body and when it is due.
+     */
+    static class CapturedRequest extends AbstractList<byte[]> {
+
+        private final List<byte[]> inputs;
+        private final byte[] tail;
+        private final boolean timed;
+        private final long offsetNanos;
+        private long dueNanos;
+
+        /**
+         * @param tail the body after the molecules, closing their array
+         * @param offsetNanos the time of the request since the first one of the capture, divided by the speed
+         */
+        CapturedRequest(List<byte[]> inputs, byte[] tail, boolean timed, long offsetNanos) {
+            this.inputs = inputs;
+            this.tail = tail;
+            this.timed = timed;
+            this.offsetNanos = offsetNanos;
+        }
+
+        @Override
+        public byte[] get(int index) {
+            return inputs.get(index);
+        }
+
+        @Override
+        public int size() {
+            return inputs.size();
+        }
+
+        byte[] getTail() {
+            return tail;
+        }
+    }
+
+    /**
+     * @param speed how many times faster than captured the requests are sent, 0 to send them as fast as possible
+     */
+    public ReplaySource(File file, int queueSize, double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("--replaySpeed must not be negative: " + speed);
+        }
+        this.file = file;
+        this.speed = speed;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.reader = new Thread(this::read, "ReplayReader");
+        this.reader.setDaemon(true);
+    }
+
+    public void start() {
+        reader.start();
+    }
+
+    private void read() {
+        try {
+            try (BufferedReader lines = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                JsonParser parser = new JsonParser();
+                long firstMillis = 0;
+                boolean first = true;
+                long lineNumber = 0;
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    ++lineNumber;
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    CapturedRequest captured;
+                    try {
+                        JsonObject json = parser.parse(line).getAsJsonObject();
+                        Long millis = parseTimestamp(json.get("timestamp"));
+                        if (millis != null && first) {
+                            firstMillis = millis;
+                            first = false;
+                        }
+                        boolean timed = millis != null && speed > 0;
+                        long offsetNanos = timed ? (long) (TimeUnit.MILLISECONDS.toNanos(millis - firstMillis) / speed)
+                                : 0;
+                        captured = toCaptured(json.has("request") ? json.getAsJsonObject("request") : json, timed,
+                                offsetNanos);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Skipping line {} of {}: {}", lineNumber, file, e.toString());
+                        continue;
+                    }
+                    queue.put(captured);
+                    readCount.addAndGet(captured.size());
+                    requestCount.incrementAndGet();
+                }
+                LOG.info("finished reading {} requests of {}", requestCount.get(), file);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Could not read requests from " + file, e);
+                failure = e;
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            LOG.debug("Reading of {} stopped", file);
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+
+    private static Long parseTimestamp(JsonElement timestamp) {
+        if (timestamp == null || timestamp.isJsonNull()) {
+            return null;
+        }
+        if (timestamp.getAsJsonPrimitive().isNumber()) {
+            return timestamp.getAsLong();
+        }
+        return Instant.parse(timestamp.getAsString()).toEpochMilli();
+    }
+
+    /**
+     * Splits the body into the molecules and the rest, which is kept as it is.
+     *
+     * @throws IllegalArgumentException if there are no molecules, as an empty chunk would end the caller
+     */
+    private static CapturedRequest toCaptured(JsonObject request, boolean timed, long offsetNanos) {
+        List<byte[]> inputs = new ArrayList<>();
+        for (JsonElement input : request.getAsJsonArray("input")) {
+            inputs.add(GSON.toJson(input).getBytes(StandardCharsets.UTF_8));
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input");
+        }
+        StringBuilder tail = new StringBuilder("]");
+        for (Entry<String, JsonElement> field : request.entrySet()) {
+            if (!"input".equals(field.getKey())) {
+                tail.append(',').append(GSON.toJson(field.getKey())).append(':').append(GSON.toJson(field.getValue()));
+            }
+        }
+        tail.append('}');
+        return new CapturedRequest(inputs, tail.toString().getBytes(StandardCharsets.UTF_8), timed, offsetNanos);
+    }
+
+    /**
+     * @return the molecules of the next request of the capture, once it is due, whatever the size is
+     */
+    @Override
+    public List<byte[]> nextChunk(int size) throws InterruptedException {
+        CapturedRequest request = queue.take();
+        if (request == END) {
+            queue.put(END);
+            return request;
+        }
+        if (!started) {
+            synchronized (this) {
+                if (!started) {
+                    startNanos = System.nanoTime();
+                    started = true;
+                }
+            }
+        }
+        if (request.timed) {
+            request.dueNanos = startNanos + request.offsetNanos;
+            long wait;
+            while ((wait = request.dueNanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+        return request;
+    }
+
+    @Override
+    public long getDueNanos(List<byte[]> chunk) {
+        if (chunk instanceof CapturedRequest && ((CapturedRequest) chunk).timed) {
+            return ((CapturedRequest) chunk).dueNanos;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of molecules read so far, which is the number of checks planned
+     */
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * @return the error that stopped the reading of the capture before its end, or null if there was none
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void close() {
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -16,102 +16,181 @@
 
 package com.chemaxon.cc.load;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
-import org.apache.commons.math3.stat.StatUtils;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.HdrHistogram.Histogram;
 import org.apache.commons.math3.util.Precision;
-import org.dom4j.Document;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
-import org.dom4j.io.OutputFormat;
-import org.dom4j.io.XMLWriter;
 
 import com.google.gson.Gson;
 
+/**
+ * Writes the HTML report element by element, so only the summaries and the rows shown are held in memory. The row
+ * tables are capped at a given number of rows (the slowest requests of all threads, the first requests of each
+ * thread), the statistics and the distribution charts are computed from the histograms of every request.
+ */
 public class ReportCreator {
 
-    private final List<List<RunTimeLog>> logs;
-    private final int plannedMolCount;
-    private final int finishedMolCount;
+    private static final int MAX_CHART_POINTS = 1000;
+    private static final String[] CHART_COLORS = { "#1f77b4", "#ff7f0e", "#d62728", "#2ca02c" };
+
+    private final List<CallerStats> stats;
+    private final long plannedMolCount;
+    private final long finishedMolCount;
     private final Instant start;
     private final Instant end;
     private final AtomicInteger ai = new AtomicInteger();
     private final boolean saveInput;
+    private final double targetRate;
+    private final int maxRows;
+    private final Map<String, Map<String, Double>> sections = new LinkedHashMap<>();
+    private final Map<Scenario.Phase, CallerStats> phases = new LinkedHashMap<>();
+    private final Gson gson = new Gson();
+    private TimeSeries timeSeries;
+    private List<MoleculeCosts.Structure> slowestStructures = Collections.emptyList();
+    private LatencyBuckets latencyBuckets = LatencyBuckets.parse("linear:100");
+    private XMLStreamWriter xw;
 
-    public ReportCreator(List<List<RunTimeLog>> logs, int plannedMolCount, int finishedMolCount, Instant start,
-            Instant end, boolean saveInput) {
-        this.logs = Collections
-                .unmodifiableList(logs.stream().map(l -> Collections.unmodifiableList(l)).collect(Collectors.toList()));
+    /**
+     * @param targetRate the arrival rate of an open model run in requests/sec, or 0 for a closed model run
+     * @param maxRows the maximum number of rows of each request table
+     */
+    public ReportCreator(List<CallerStats> stats, long plannedMolCount, long finishedMolCount, Instant start,
+            Instant end, boolean saveInput, double targetRate, int maxRows) {
+        this.stats = Collections.unmodifiableList(stats);
         this.plannedMolCount = plannedMolCount;
         this.finishedMolCount = finishedMolCount;
         this.start = start;
         this.end = end;
         this.saveInput = saveInput;
+        this.targetRate = targetRate;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Adds a table of additional metrics to the summary.
+     */
+    public void addSection(String title, Map<String, Double> values) {
+        sections.put(title, values);
+    }
+
+    /**
+     * Adds the results of a scenario phase, merged over the users.
+     */
+    public void addPhase(Scenario.Phase phase, CallerStats phaseStats) {
+        phases.put(phase, phaseStats);
+    }
+
+    /**
+     * Adds the charts of the throughput, errors and latencies over time.
+     */
+    public void setTimeSeries(TimeSeries timeSeries) {
+        this.timeSeries = timeSeries;
+    }
+
+    /**
+     * Adds a table of the molecules with the highest fitted cost, the slowest first.
+     */
+    public void setSlowestStructures(List<MoleculeCosts.Structure> slowestStructures) {
+        this.slowestStructures = slowestStructures;
+    }
+
+    public void setLatencyBuckets(LatencyBuckets latencyBuckets) {
+        this.latencyBuckets = latencyBuckets;
     }
 
     public void saveHtmlReport(File file) throws IOException {
-        Document doc = getDocument();
-        try (PrintWriter pw = new PrintWriter(file)) {
-            OutputFormat format = OutputFormat.createPrettyPrint();
-            format.setXHTML(true);
-            format.setTrimText(false);
-            XMLWriter xw = new XMLWriter(pw, format);
-            xw.write(doc);
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            xw = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+            try {
+                writeDocument();
+                xw.flush();
+            } finally {
+                xw.close();
+                xw = null;
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not write the report to " + file, e);
         }
     }
 
-    private Document getDocument() {
-        Document main = DocumentHelper.createDocument();
-        Element html = main.addElement("html");
-        Element head = html.addElement("head");
-        head.addElement("title").addText("Report");
-        head.addElement("link").addAttribute("rel", "stylesheet").addAttribute("type", "text/css").addAttribute("href",
-                "https://cdn.datatables.net/1.10.15/css/jquery.dataTables.css");
-        head.addElement("script").addAttribute("integrity", "sha256-ZosEbRLbNQzLpnKIkEdrPv7lOy9C27hHQ+Xp8a4MxAQ=")
-                .addAttribute("type", "text/javascript")
-                .addAttribute("src", "https://code.jquery.com/jquery-1.12.4.min.js")
-                .addAttribute("crossorigin", "anonymous").addText(" ");
-        head.addElement("script").addAttribute("charset", "utf8").addAttribute("type", "text/javascript")
-                .addAttribute("src", "https://cdn.datatables.net/1.10.15/js/jquery.dataTables.min.js").addText(" ");
-        head.addElement("script").addAttribute("integrity", "sha256-VNbX9NjQNRW+Bk02G/RO6WiTKuhncWI4Ey7LkSbE+5s=")
-                .addAttribute("type", "text/javascript")
-                .addAttribute("src", "https://cdnjs.cloudflare.com/ajax/libs/Chart.js/2.6.0/Chart.bundle.min.js")
-                .addAttribute("crossorigin", "anonymous").addText(" ");
-        Element body = html.addElement("body");
-        writeSummary(body);
-        writeTables(body);
-        addTableScript("threads", body);
-        logs.forEach(ls -> {
-            if (!ls.isEmpty()) {
-                addTableScript(ls.get(0).getThreadName(), body);
-            }
-        });
-        return main;
+    private void writeDocument() throws XMLStreamException {
+        xw.writeDTD("<!DOCTYPE html>");
+        newLine();
+        xw.writeStartElement("html");
+        xw.writeStartElement("head");
+        element("title", "Report");
+        xw.writeEmptyElement("link");
+        xw.writeAttribute("rel", "stylesheet");
+        xw.writeAttribute("type", "text/css");
+        xw.writeAttribute("href", "https://cdn.datatables.net/1.10.15/css/jquery.dataTables.css");
+        externalScript("https://code.jquery.com/jquery-1.12.4.min.js",
+                "sha256-ZosEbRLbNQzLpnKIkEdrPv7lOy9C27hHQ+Xp8a4MxAQ=");
+        externalScript("https://cdn.datatables.net/1.10.15/js/jquery.dataTables.min.js", null);
+        externalScript("https://cdnjs.cloudflare.com/ajax/libs/Chart.js/2.6.0/Chart.bundle.min.js",
+                "sha256-VNbX9NjQNRW+Bk02G/RO6WiTKuhncWI4Ey7LkSbE+5s=");
+        xw.writeEndElement();
+        newLine();
+        xw.writeStartElement("body");
+        writeSummary();
+        writeTimeSeries();
+        writeTables();
+        xw.writeEndElement();
+        xw.writeEndElement();
+        xw.writeEndDocument();
+    }
+
+    private void externalScript(String src, String integrity) throws XMLStreamException {
+        xw.writeStartElement("script");
+        if (integrity != null) {
+            xw.writeAttribute("integrity", integrity);
+            xw.writeAttribute("crossorigin", "anonymous");
+        } else {
+            xw.writeAttribute("charset", "utf8");
+        }
+        xw.writeAttribute("type", "text/javascript");
+        xw.writeAttribute("src", src);
+        xw.writeCharacters(" ");
+        xw.writeEndElement();
+        newLine();
     }
 
-    private void writeSummary(Element root) {
-        root.addElement("h1").addText("Summary");
+    private void writeSummary() throws XMLStreamException {
+        element("h1", "Summary");
+        xw.writeStartElement("h1");
         if (plannedMolCount != finishedMolCount) {
-            root.addElement("h1").addText("ERROR DURING CHECK!").addAttribute("style", "color:red;");
+            xw.writeAttribute("style", "color:red;");
+            xw.writeCharacters("ERROR DURING CHECK!");
         } else {
-            root.addElement("h1").addText("Everything is good").addAttribute("style", "color:green;");
+            xw.writeAttribute("style", "color:green;");
+            xw.writeCharacters("Everything is good");
         }
+        xw.writeEndElement();
         Map<String, Double> summary = new LinkedHashMap<>();
         summary.put("planned search", 0.0 + plannedMolCount);
         summary.put("executed search", 0.0 + finishedMolCount);
@@ -119,184 +198,429 @@ public class ReportCreator {
         summary.put("took (seconds)", ((double) Duration.between(start, end).toMillis()) / 1000.0);
         summary.put("mol/second",
                 ((double) finishedMolCount) / (((double) Duration.between(start, end).toMillis()) / 1000.0));
-        writeKeyValueTable(root, summary);
-    }
-
-    private void addTableScript(String id, Element root) {
-        root.addElement("script")
-                .addText("$(document).ready(function(){\n" + "    $('#" + id + "').DataTable();\n" + "});");
-    }
-
-    private void writeTables(Element body) {
-        List<RunTimeLog> all = logs.stream().flatMap(l -> l.stream())
-                .sorted((left, rigth) -> left.getDuration().compareTo(rigth.getDuration()))
-                .collect(Collectors.toList());
-        Element threadsDiv = body.addElement("div");
-        threadsDiv.addAttribute("stlye", "padding:20px;margin:20px;");
-        threadsDiv.addElement("h1").addText("All");
-        createTable("threads", all, threadsDiv);
-        createCanvas("threads_cv", all, threadsDiv, "Runtimes");
-        createCanvas("threads_cv2", all, threadsDiv, "Distribution");
-        addCanvasScript("threads_cv", all, threadsDiv);
-        addGausCanvasScript("threads_cv2", all, threadsDiv);
-        logs.forEach(ls -> {
-            if (!ls.isEmpty()) {
-                Element subDiv = body.addElement("div").addAttribute("style", "margin:20px; padding:20px;");
-                subDiv.addElement("p").addText(" ");
-                subDiv.addElement("h1").addText(ls.get(0).getThreadName());
-                createTable(ls.get(0).getThreadName(), ls,
-                        subDiv.addElement("div").addAttribute("stlye", "padding:20px;margin:20px;"));
-                subDiv.addElement("p").addText(" ");
-                createCanvas(ls.get(0).getThreadName() + "_cv", ls,
-                        subDiv.addElement("div").addAttribute("stlye", "padding:20px;margin:20px;"), "Runtimes");
-                addCanvasScript(ls.get(0).getThreadName() + "_cv", ls,
-                        subDiv.addElement("div").addAttribute("stlye", "padding:20px;margin:20px;"));
-                subDiv.addElement("p").addText(" ");
-                createCanvas(ls.get(0).getThreadName() + "_cv2", all,
-                        subDiv.addElement("div").addAttribute("stlye", "padding:20px;margin:20px;"), "Distribution");
-                addGausCanvasScript(ls.get(0).getThreadName() + "_cv2", ls,
-                        subDiv.addElement("div").addAttribute("stlye", "padding:20px;margin:20px;"));
-                subDiv.addElement("p").addText(" ");
+        if (isOpenModel()) {
+            summary.put("target request/second", targetRate);
+            summary.put("request/second", ((double) stats.stream().mapToLong(CallerStats::getRequestCount).sum())
+                    / (((double) Duration.between(start, end).toMillis()) / 1000.0));
+        }
+        writeKeyValueTable(summary);
+        writeFailures();
+        for (Entry<String, Map<String, Double>> section : sections.entrySet()) {
+            element("h2", section.getKey());
+            writeKeyValueTable(section.getValue());
+        }
+        for (Entry<Scenario.Phase, CallerStats> phase : phases.entrySet()) {
+            writePhase(phase.getKey(), phase.getValue());
+        }
+        if (!slowestStructures.isEmpty()) {
+            writeSlowestStructures();
+        }
+    }
+
+    /**
+     * The molecules that add the most to the service time of a request, estimated from every request they were sent
+     * in.
+     */
+    private void writeSlowestStructures() throws XMLStreamException {
+        element("h2", "Slowest structures");
+        xw.writeStartElement("table");
+        xw.writeAttribute("id", "slowest_structures");
+        xw.writeStartElement("thead");
+        xw.writeStartElement("tr");
+        element("td", "Rank");
+        element("td", "ID");
+        element("td", "Estimated cost (ms)");
+        element("td", "Atoms");
+        element("td", "Hits");
+        element("td", "Requests");
+        element("td", "Mean service time of its requests (ms)");
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+        xw.writeStartElement("tbody");
+        int rank = 0;
+        for (MoleculeCosts.Structure s : slowestStructures) {
+            xw.writeStartElement("tr");
+            element("td", Integer.toString(++rank));
+            element("td", s.getId());
+            element("td", String.format(Locale.ROOT, "%.2f", s.getCostMillis()));
+            element("td", Integer.toString(s.getAtomCount()));
+            element("td", Integer.toString(s.getHits()));
+            element("td", Integer.toString(s.getRequests()));
+            element("td", String.format(Locale.ROOT, "%.2f", s.getMeanMillis()));
+            xw.writeEndElement();
+            newLine();
+        }
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+        addTableScript("slowest_structures");
+    }
+
+    /**
+     * The requests that got no usable response by the cause, and the molecules the checker answered with an error.
+     */
+    private void writeFailures() throws XMLStreamException {
+        CallerStats merged = CallerStats.merge("threads", stats);
+        if (merged.getFailedRequestCount() == 0 && merged.getErrorCount() == 0) {
+            return;
+        }
+        long attempts = merged.getRequestCount() + merged.getFailedRequestCount();
+        Map<String, Double> failures = new LinkedHashMap<>();
+        failures.put("failed requests", (double) merged.getFailedRequestCount());
+        failures.put("failed requests %", attempts == 0 ? 0.0 : merged.getFailedRequestCount() * 100.0 / attempts);
+        for (Entry<String, Long> failure : merged.getFailures().entrySet()) {
+            failures.put(failure.getKey(), (double) failure.getValue());
+        }
+        failures.put("retries", (double) merged.getRetryCount());
+        failures.put("error results (molecules)", (double) merged.getErrorCount());
+        element("h2", "Errors");
+        writeKeyValueTable(failures);
+    }
+
+    private void writePhase(Scenario.Phase phase, CallerStats phaseStats) throws XMLStreamException {
+        element("h2", "Phase: " + phase.getName() + " (" + phase.getType() + ")");
+        Map<String, Double> summary = new LinkedHashMap<>();
+        summary.put("users", (double) phase.getUsers());
+        summary.put("took (seconds)", phase.getDurationSeconds());
+        summary.put("requests", (double) phaseStats.getRequestCount());
+        summary.put("executed search", (double) phaseStats.getCheckedCount());
+        summary.put("error", (double) phaseStats.getErrorCount());
+        summary.put("failed requests", (double) phaseStats.getFailedRequestCount());
+        summary.put("request/second", phaseStats.getRequestCount() / phase.getDurationSeconds());
+        summary.put("mol/second", phaseStats.getCheckedCount() / phase.getDurationSeconds());
+        writeKeyValueTable(summary);
+        saveStatistics(phaseStats);
+    }
+
+    private void writeTimeSeries() throws XMLStreamException {
+        if (timeSeries == null || timeSeries.getPoints().isEmpty()) {
+            return;
+        }
+        List<TimeSeries.Point> all = timeSeries.getPoints();
+        List<TimeSeries.Point> points = TimeSeries.downsample(all,
+                (all.size() + MAX_CHART_POINTS - 1) / MAX_CHART_POINTS);
+        List<Double> labels = new ArrayList<>(points.size());
+        Map<String, List<Double>> throughput = new LinkedHashMap<>();
+        Map<String, List<Double>> latency = new LinkedHashMap<>();
+        Map<String, List<Double>> errors = new LinkedHashMap<>();
+        for (TimeSeries.Point p : points) {
+            labels.add(Precision.round(p.getElapsedSeconds(), 1));
+            series(throughput, "request/second").add(p.getRequestRate());
+            series(throughput, "mol/second").add(p.getMolRate());
+            series(latency, "median").add(p.getP50Millis());
+            series(latency, "99th percentile").add(p.getP99Millis());
+            series(latency, "max").add(p.getMaxMillis());
+            series(errors, "error results %").add(p.getErrorPercent());
+            series(errors, "failed requests").add((double) p.getFailedRequests());
+            series(errors, "failed requests %").add(p.getFailedPercent());
+        }
+        element("h1", "Over time");
+        if (points.size() < all.size()) {
+            element("p", "Every point merges " + (all.size() + points.size() - 1) / points.size() + " seconds");
+        }
+        createCanvas("throughput_cv", "Throughput");
+        addSeriesChart("throughput_cv", gson.toJson(labels), throughput, "Time (s)", "Throughput");
+        createCanvas("latency_cv", "Response time");
+        addSeriesChart("latency_cv", gson.toJson(labels), latency, "Time (s)", "Time (ms)");
+        createCanvas("errors_cv", "Errors");
+        addSeriesChart("errors_cv", gson.toJson(labels), errors, "Time (s)", "Errors");
+    }
+
+    private static List<Double> series(Map<String, List<Double>> series, String name) {
+        return series.computeIfAbsent(name, n -> new ArrayList<>());
+    }
+
+    private void addTableScript(String id) throws XMLStreamException {
+        element("script", "$(document).ready(function(){\n" + "    $('#" + id + "').DataTable();\n" + "});");
+        newLine();
+    }
+
+    private void writeTables() throws XMLStreamException {
+        CallerStats merged = CallerStats.merge("threads", stats);
+        xw.writeStartElement("div");
+        xw.writeAttribute("style", "padding:20px;margin:20px;");
+        element("h1", "All");
+        saveStatistics(merged);
+        boolean keepingLogs = !stats.isEmpty() && stats.stream().allMatch(CallerStats::isKeepingLogs);
+        if (keepingLogs && merged.getRequestCount() > 0) {
+            List<RunTimeLog> slowest = getSlowest(maxRows);
+            if (slowest.size() < merged.getRequestCount()) {
+                element("p", "The " + slowest.size() + " slowest of " + merged.getRequestCount() + " requests");
+            }
+            createTable("threads", slowest);
+            createCanvas("threads_cv", "Runtimes");
+            createCanvas("threads_cv2", "Distribution");
+            addPercentileCanvasScript("threads_cv", merged.getServiceTimes());
+            addDistributionCanvasScript("threads_cv2", merged.getServiceTimes());
+        }
+        xw.writeEndElement();
+        newLine();
+        if (keepingLogs && merged.getRequestCount() > 0) {
+            addTableScript("threads");
+        }
+        for (CallerStats s : stats) {
+            if (s.getRequestCount() == 0) {
+                continue;
+            }
+            xw.writeStartElement("div");
+            xw.writeAttribute("style", "margin:20px; padding:20px;");
+            element("h1", s.getName());
+            saveStatistics(s);
+            if (s.isKeepingLogs()) {
+                if (s.getSampleCount() > maxRows) {
+                    element("p", "The first " + maxRows + " of " + s.getSampleCount() + " requests");
+                }
+                List<RunTimeLog> first = new ArrayList<>();
+                for (int i = 0; i < Math.min(maxRows, s.getSampleCount()); ++i) {
+                    first.add(s.getLog(i));
+                }
+                createTable(s.getName(), first);
+                createCanvas(s.getName() + "_cv", "Runtimes");
+                createCanvas(s.getName() + "_cv2", "Distribution");
+                addCanvasScript(s.getName() + "_cv", s);
+                addDistributionCanvasScript(s.getName() + "_cv2", s.getServiceTimes());
             }
-        });
+            xw.writeEndElement();
+            newLine();
+            if (s.isKeepingLogs()) {
+                addTableScript(s.getName());
+            }
+        }
     }
 
-    private void addGausCanvasScript(String id, List<RunTimeLog> logs, Element body) {
-        int idx = ai.getAndIncrement();
-        Map<Double, Long> sim = countSimilarTimes(logs);
-        body.addElement("script")
-                .addText("var ctx" + idx + "= document.getElementById('" + id + "').getContext('2d');\n" + "var chart"
-                        + idx + " = new Chart(ctx" + idx + ", { type:'line', data: { labels: "
-                        + getCountLabels(sim.keySet()) + ", datasets: [{ data:"
-                        + getMilliSecLongJSON(new ArrayList<Long>(sim.values())) + "}]},\n"
-                        + "options:{scales: {xAxes:[{display:true, scaleLabel: {display:true, labelString:'Time'}}],\n"
-                        + "yAxes:[{display:true, scaleLabel: {display:true, labelString:'Count'}}]}}});");
+    /**
+     * @return the slowest requests of all threads, sorted by duration
+     */
+    private List<RunTimeLog> getSlowest(int count) {
+        // {caller, sample} pairs, the fastest on top
+        Comparator<int[]> byDuration = Comparator
+                .comparingLong(ref -> stats.get(ref[0]).getSampleDurationNanos(ref[1]));
+        PriorityQueue<int[]> slowest = new PriorityQueue<>(count + 1, byDuration);
+        for (int c = 0; c < stats.size(); ++c) {
+            CallerStats s = stats.get(c);
+            for (int i = 0; i < s.getSampleCount(); ++i) {
+                if (slowest.size() < count
+                        || s.getSampleDurationNanos(i) > stats.get(slowest.peek()[0]).getSampleDurationNanos(
+                                slowest.peek()[1])) {
+                    slowest.add(new int[] { c, i });
+                    if (slowest.size() > count) {
+                        slowest.poll();
+                    }
+                }
+            }
+        }
+        List<int[]> sorted = new ArrayList<>(slowest);
+        sorted.sort(byDuration);
+        List<RunTimeLog> logs = new ArrayList<>(sorted.size());
+        for (int[] ref : sorted) {
+            logs.add(stats.get(ref[0]).getLog(ref[1]));
+        }
+        return logs;
     }
 
-    private String getMilliSecLongJSON(List<Long> list) {
-        return new Gson().toJson(list);
+    /**
+     * A chart of the durations sorted, drawn from the percentiles of the histogram.
+     */
+    private void addPercentileCanvasScript(String id, Histogram histogram) throws XMLStreamException {
+        long count = histogram.getTotalCount();
+        int points = (int) Math.min(count, MAX_CHART_POINTS);
+        List<Long> labels = new ArrayList<>(points);
+        List<Long> data = new ArrayList<>(points);
+        for (int i = 0; i < points; ++i) {
+            double percentile = points == 1 ? 100.0 : 100.0 * i / (points - 1);
+            labels.add(Math.round(percentile / 100.0 * (count - 1)));
+            data.add(TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(percentile)));
+        }
+        addLineChart(id, gson.toJson(labels), gson.toJson(data), "nth request", "Time");
     }
 
-    private String getCountLabels(Set<Double> keySet) {
-        Gson gson = new Gson();
-        List<Double> vals = new ArrayList<>(keySet.size());
-        for (double v : keySet) {
-            vals.add(v);
+    /**
+     * A chart of the durations in the order of the requests, every nth of them if there are too many.
+     */
+    private void addCanvasScript(String id, CallerStats callerStats) throws XMLStreamException {
+        int count = callerStats.getSampleCount();
+        int step = (count + MAX_CHART_POINTS - 1) / MAX_CHART_POINTS;
+        List<Integer> labels = new ArrayList<>();
+        List<Long> data = new ArrayList<>();
+        for (int i = 0; i < count; i += step) {
+            labels.add(i);
+            data.add(TimeUnit.NANOSECONDS.toMillis(callerStats.getSampleDurationNanos(i)));
         }
-        return gson.toJson(vals);
+        addLineChart(id, gson.toJson(labels), gson.toJson(data), "nth request", "Time");
+    }
+
+    /**
+     * A chart of the number of requests in each latency bucket.
+     */
+    private void addDistributionCanvasScript(String id, Histogram histogram) throws XMLStreamException {
+        Map<Double, Long> counts = latencyBuckets.count(histogram);
+        addLineChart(id, gson.toJson(counts.keySet()), gson.toJson(counts.values()), "Time (ms)", "Count");
     }
 
-    private void addCanvasScript(String id, List<RunTimeLog> logs, Element body) {
+    private void addLineChart(String id, String labels, String data, String xLabel, String yLabel)
+            throws XMLStreamException {
         int idx = ai.getAndIncrement();
-        body.addElement("script")
-                .addText("var ctx" + idx + "= document.getElementById('" + id + "').getContext('2d');\n" + "var chart"
-                        + idx + " = new Chart(ctx" + idx + ", { type:'line', data: { labels: " + getCountLabels(logs)
-                        + ", datasets: [{ data:" + getMilliSecJSON(logs) + "}]},\n"
-                        + "options:{scales: {xAxes:[{display:true, scaleLabel: {display:true, labelString:'nth request'}}],\n"
-                        + "yAxes:[{display:true, scaleLabel: {display:true, labelString:'Time'}}]}}});");
-    }
-
-    private String getCountLabels(List<RunTimeLog> logs) {
-        Gson gson = new Gson();
-        List<Integer> counts = new ArrayList<>(logs.size());
-        for (int i = 0; i < logs.size(); ++i) {
-            counts.add(i);
+        element("script", "var ctx" + idx + "= document.getElementById('" + id + "').getContext('2d');\n"
+                + "var chart" + idx + " = new Chart(ctx" + idx + ", { type:'line', data: { labels: " + labels
+                + ", datasets: [{ data:" + data + "}]},\n"
+                + "options:{scales: {xAxes:[{display:true, scaleLabel: {display:true, labelString:'" + xLabel
+                + "'}}],\n" + "yAxes:[{display:true, scaleLabel: {display:true, labelString:'" + yLabel
+                + "'}}]}}});");
+        newLine();
+    }
+
+    private void addSeriesChart(String id, String labels, Map<String, List<Double>> series, String xLabel,
+            String yLabel) throws XMLStreamException {
+        List<Map<String, Object>> datasets = new ArrayList<>();
+        for (Entry<String, List<Double>> s : series.entrySet()) {
+            Map<String, Object> dataset = new LinkedHashMap<>();
+            dataset.put("label", s.getKey());
+            dataset.put("data", s.getValue());
+            dataset.put("fill", false);
+            dataset.put("borderColor", CHART_COLORS[datasets.size() % CHART_COLORS.length]);
+            datasets.add(dataset);
         }
-        return gson.toJson(counts);
-    }
-
-    private String getMilliSecJSON(List<RunTimeLog> logs) {
-        Gson gson = new Gson();
-        return gson.toJson(logs.stream().map(l -> l.getDuration().toMillis()).collect(Collectors.toList()));
-    }
-
-    private void createCanvas(String id, List<RunTimeLog> logs, Element root, String title) {
-        Element div = root.addElement("div").addAttribute("style",
-                "width:512px; height:378px;margin:20px;padding:20px;");
-        div.addElement("h2").addText(title);
-        div.addElement("canvas").addAttribute("id", id).addAttribute("width", "512").addAttribute("height", "384")
-                .addText(" ");
-    }
-
-    private void createTable(String id, List<RunTimeLog> logs, Element root) {
-        saveStatistics(logs, root);
-        Element table = root.addElement("table");
-        table.addAttribute("id", id);
-        Element thead = table.addElement("thead");
-        Element headRow = thead.addElement("tr");
-        headRow.addElement("td").addText("Duration");
-        headRow.addElement("td").addText("Start");
-        headRow.addElement("td").addText("End");
-        headRow.addElement("td").addText("Thread");
-        headRow.addElement("td").addText("Response - Passed");
-        headRow.addElement("td").addText("Response - Error");
-        headRow.addElement("td").addText("Response - Hit");
-        headRow.addElement("td").addText("Response - Hit size");
+        int idx = ai.getAndIncrement();
+        element("script", "var ctx" + idx + "= document.getElementById('" + id + "').getContext('2d');\n"
+                + "var chart" + idx + " = new Chart(ctx" + idx + ", { type:'line', data: { labels: " + labels
+                + ", datasets: " + gson.toJson(datasets) + "},\n"
+                + "options:{scales: {xAxes:[{display:true, scaleLabel: {display:true, labelString:'" + xLabel
+                + "'}}],\n" + "yAxes:[{display:true, scaleLabel: {display:true, labelString:'" + yLabel
+                + "'}}]}}});");
+        newLine();
+    }
+
+    private void createCanvas(String id, String title) throws XMLStreamException {
+        xw.writeStartElement("div");
+        xw.writeAttribute("style", "width:512px; height:378px;margin:20px;padding:20px;");
+        element("h2", title);
+        xw.writeStartElement("canvas");
+        xw.writeAttribute("id", id);
+        xw.writeAttribute("width", "512");
+        xw.writeAttribute("height", "384");
+        xw.writeCharacters(" ");
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+    }
+
+    private void createTable(String id, List<RunTimeLog> logs) throws XMLStreamException {
+        xw.writeStartElement("table");
+        xw.writeAttribute("id", id);
+        xw.writeStartElement("thead");
+        xw.writeStartElement("tr");
+        element("td", "Duration");
+        element("td", "Start");
+        element("td", "End");
+        element("td", "Thread");
+        element("td", "Response - Passed");
+        element("td", "Response - Error");
+        element("td", "Response - Hit");
+        element("td", "Response - Hit size");
         if (saveInput) {
-            headRow.addElement("td").addText("Request");
+            element("td", "Request");
         }
-        Element tbody = table.addElement("tbody");
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+        xw.writeStartElement("tbody");
         SimpleDateFormat formatter = new SimpleDateFormat("yyyy.MM.dd - HH:mm:ss");
         for (RunTimeLog rtl : logs) {
-            Element tr = tbody.addElement("tr");
-            tr.addElement("td").addText(Long.toString(rtl.getDuration().toMillis()));
-            tr.addElement("td").addText(formatter.format(Date.from(rtl.getStart())));
-            tr.addElement("td").addText(formatter.format(Date.from(rtl.getEnd())));
-            tr.addElement("td").addText(rtl.getThreadName());
-            tr.addElement("td").addText(Integer.toString(rtl.getResponse().getPassed()));
-            tr.addElement("td").addText(Integer.toString(rtl.getResponse().getError()));
-            tr.addElement("td").addText(Integer.toString(rtl.getResponse().getHitCount()));
-            tr.addElement("td").addText(Integer.toString(rtl.getResponse().getHitSize()));
+            xw.writeStartElement("tr");
+            element("td", Long.toString(rtl.getDuration().toMillis()));
+            element("td", formatter.format(Date.from(rtl.getStart())));
+            element("td", formatter.format(Date.from(rtl.getEnd())));
+            element("td", rtl.getThreadName());
+            element("td", Integer.toString(rtl.getPassed()));
+            element("td", Integer.toString(rtl.getError()));
+            element("td", Integer.toString(rtl.getHitCount()));
+            element("td", Integer.toString(rtl.getHitSize()));
             if (saveInput) {
-                tr.addElement("td").addText(rtl.getRequest());
+                element("td", rtl.getRequest());
             }
+            xw.writeEndElement();
+            newLine();
         }
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
     }
 
-    private void saveStatistics(List<RunTimeLog> logs, Element root) {
-        Map<String, Double> summary = getStatisctics(logs);
-        writeKeyValueTable(root, summary);
+    private void saveStatistics(CallerStats callerStats) throws XMLStreamException {
+        if (isOpenModel()) {
+            element("h3", "Service time (measured from the actual send)");
+            writeKeyValueTable(getStatisctics(callerStats.getServiceTimes()));
+            element("h3", "Response time (measured from the intended send, corrected)");
+            writeKeyValueTable(getStatisctics(callerStats.getResponseTimes()));
+        } else {
+            if (callerStats.getFailedRequestCount() > 0) {
+                element("h3", "Successful requests");
+            }
+            Map<String, Double> summary = getStatisctics(callerStats.getServiceTimes());
+            writeKeyValueTable(summary);
+        }
+        if (callerStats.getFailedRequestCount() > 0) {
+            element("h3", "Failed requests (measured from the actual send)");
+            writeKeyValueTable(getStatisctics(callerStats.getFailedTimes()));
+        }
+    }
+
+    private boolean isOpenModel() {
+        return targetRate > 0;
     }
 
-    private void writeKeyValueTable(Element root, Map<String, Double> summary) {
-        Element table = root.addElement("table");
-        Element headerrow = table.addElement("thead").addElement("tr");
-        headerrow.addElement("td").addText("Stat");
-        headerrow.addElement("td").addText("value");
-        Element tbody = table.addElement("tbody");
+    private void writeKeyValueTable(Map<String, Double> summary) throws XMLStreamException {
+        xw.writeStartElement("table");
+        xw.writeStartElement("thead");
+        xw.writeStartElement("tr");
+        element("td", "Stat");
+        element("td", "value");
+        xw.writeEndElement();
+        xw.writeEndElement();
+        xw.writeStartElement("tbody");
         for (Entry<String, Double> e : summary.entrySet()) {
-            Element row = tbody.addElement("tr");
-            row.addElement("td").addText(e.getKey());
-            row.addElement("td").addText(Double.toString(e.getValue()));
+            xw.writeStartElement("tr");
+            element("td", e.getKey());
+            element("td", Double.toString(e.getValue()));
+            xw.writeEndElement();
         }
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+    }
+
+    private void element(String name, String text) throws XMLStreamException {
+        xw.writeStartElement(name);
+        xw.writeCharacters(text == null ? "" : text);
+        xw.writeEndElement();
     }
 
-    private Map<String, Double> getStatisctics(List<RunTimeLog> logs) {
-        DescriptiveStatistics stats = new DescriptiveStatistics();
-        logs.stream().map(l -> l.getDuration().toMillis()).forEach(l -> stats.addValue(l));
+    private void newLine() throws XMLStreamException {
+        xw.writeCharacters("\n");
+    }
+
+    private Map<String, Double> getStatisctics(Histogram histogram) {
+        long count = histogram.getTotalCount();
+        double populationVariance = Math.pow(toMillis(histogram.getStdDeviation()), 2);
         Map<String, Double> summary = new LinkedHashMap<>();
-        summary.put("Averrage", stats.getMean());
-        summary.put("Min", stats.getMin());
-        summary.put("Max", stats.getMax());
-        summary.put("Standard deviation", stats.getStandardDeviation());
-        summary.put("sum milliseconds", stats.getSum());
-        summary.put("sum seconds", stats.getSum() / 1000);
-        summary.put("max mode", StatUtils.max(StatUtils.mode(stats.getValues())));
-        summary.put("median", stats.getPercentile(50));
-        summary.put("variance", stats.getVariance());
-        summary.put("populatin variance", stats.getPopulationVariance());
+        summary.put("Count", (double) count);
+        summary.put("Averrage", toMillis(histogram.getMean()));
+        summary.put("Min", toMillis(histogram.getMinValue()));
+        summary.put("Max", toMillis(histogram.getMaxValue()));
+        summary.put("Standard deviation", toMillis(histogram.getStdDeviation()));
+        summary.put("sum milliseconds", toMillis(histogram.getMean()) * count);
+        summary.put("sum seconds", toMillis(histogram.getMean()) * count / 1000);
+        summary.put("median", toMillis(histogram.getValueAtPercentile(50)));
+        summary.put("90th percentile", toMillis(histogram.getValueAtPercentile(90)));
+        summary.put("99th percentile", toMillis(histogram.getValueAtPercentile(99)));
+        summary.put("99.9th percentile", toMillis(histogram.getValueAtPercentile(99.9)));
+        summary.put("variance", count > 1 ? populationVariance * count / (count - 1) : 0.0);
+        summary.put("populatin variance", populationVariance);
         return summary;
     }
 
-    private Map<Double, Long> countSimilarTimes(List<RunTimeLog> logs) {
-        Map<Double, Long> summary = new LinkedHashMap<>();
-        long minL = logs.stream().map(l -> l.getDuration().toMillis()).min((lhs, rhs) -> (int) (lhs - rhs)).get();
-        long maxL = logs.stream().map(l -> l.getDuration().toMillis()).max((lhs, rhs) -> (int) (lhs - rhs)).get();
-        for (double i = (minL / 1000.0); i < (maxL / 1000.0); i += 0.1) {
-            final double ip = Precision.round(i, 1);
-            summary.put(ip, logs.stream().map(l -> Precision.round((l.getDuration().toMillis() / 1000.0), 1))
-                    .filter(d -> Double.compare(d, ip) == 0).count());
-        }
-        return summary;
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.HttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the body of every request the generator sends to a JSONL file, a
+ * <code>{"timestamp": &lt;epoch millis&gt;, "request": &lt;request body&gt;}</code> line each, that can be replayed
+ * with {@link ReplaySource}. Retries are not written again.
+ * <p>
+ * Thread safe, one instance is shared by every caller.
+ */
+public class RequestCapture implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestCapture.class);
+    private static final byte[] TIMESTAMP = "{\"timestamp\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REQUEST = ",\"request\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final File file;
+    private final OutputStream out;
+    private IOException failure;
+
+    public RequestCapture(File file) throws IOException {
+        this.file = file;
+        this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+    }
+
+    /**
+     * Appends the request, as sent now.
+     */
+    public synchronized void append(HttpEntity request) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            out.write(TIMESTAMP);
+            out.write(Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+            out.write(REQUEST);
+            request.writeTo(out);
+            out.write(END);
+        } catch (IOException e) {
+            // the run goes on without the capture, and fails at the end
+            LOG.error("Could not write the capture " + file, e);
+            failure = e;
+        }
+    }
+
+    /**
+     * @return the error that stopped the capture, or null if every request was written
+     */
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                LOG.error("Could not write the capture " + file, e);
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+
+/**
+ * How long a request to the checker may take and how a failed one is retried. A failed request is sent again after an
+ * exponential backoff with jitter, at most the given number of times, if its failure is
+ * {@link FailureType#isRetryable(Throwable) retryable}.
+ */
+public class RequestPolicy {
+
+    private final int connectTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final int retries;
+    private final long backoffMillis;
+
+    /**
+     * @param connectTimeoutMillis the timeout of connecting and of waiting for a pooled connection, 0 for none
+     * @param socketTimeoutMillis the longest inactivity between two packets of a response, 0 for none
+     * @param requestTimeoutMillis the longest a request may take as a whole, the response read too, 0 for none
+     * @param retries how many times a failed request is sent again
+     * @param backoffMillis the wait before the first retry, doubled before every further one
+     */
+    public RequestPolicy(int connectTimeoutMillis, int socketTimeoutMillis, int requestTimeoutMillis, int retries,
+            long backoffMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.retries = retries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    public RequestConfig toRequestConfig() {
+        return RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis).setSocketTimeout(socketTimeoutMillis).build();
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public boolean hasRequestTimeout() {
+        return requestTimeoutMillis > 0;
+    }
+
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * @param attempt the number of the attempts that have failed so far
+     * @return whether the request should be sent again
+     */
+    public boolean shouldRetry(int attempt, Throwable failure) {
+        return attempt <= retries && FailureType.isRetryable(failure);
+    }
+
+    /**
+     * @param attempt the number of the attempts that have failed so far, from 1
+     * @return the wait before the next attempt, a random time between the half and the whole of the backoff
+     */
+    public long getBackoffNanos(int attempt) {
+        long backoff = TimeUnit.MILLISECONDS.toNanos(backoffMillis) << Math.min(attempt - 1, 20);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+}
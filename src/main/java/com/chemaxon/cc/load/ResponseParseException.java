@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the response of the checker is not the JSON it should send.
+ */
+public class ResponseParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ResponseParseException(String message) {
+        super("Could not parse the response: " + message);
+    }
+
+    public ResponseParseException(Throwable cause) {
+        super("Could not parse the response: " + cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Counts the passed, hit and error results of a /check/list response. By default the response is read token by token
+ * and only the fields needed for counting are looked at, everything else is skipped without being materialized. The
+ * full {@link LegistlationResponse} can still be deserialized for debugging.
+ * <p>
+ * Thread safe, one instance is shared by every caller.
+ */
+public class ResponseParser {
+
+    private static final Gson GSON = new Gson();
+
+    private final boolean materialize;
+
+    /**
+     * @param materialize whether the whole response is deserialized into {@link LegistlationData} objects
+     */
+    public ResponseParser(boolean materialize) {
+        this.materialize = materialize;
+    }
+
+    /**
+     * @param molCount the number of molecules sent, the response has to hold a result for each
+     * @throws ResponseParseException if the response is not the JSON of a check of molCount molecules
+     */
+    public SearchResponseStat parse(InputStream response, int molCount) throws IOException {
+        SearchResponseStat result;
+        try (Reader reader = new InputStreamReader(response, StandardCharsets.UTF_8)) {
+            result = materialize ? parseFull(reader) : parseStreaming(GSON.newJsonReader(reader));
+        } catch (JsonSyntaxException | IllegalStateException | NumberFormatException e) {
+            // the errors of reading the response are left as they are, e.g. a JsonIOException of a reset connection
+            throw new ResponseParseException(e);
+        }
+        int results = result.getPassed() + result.getError() + result.getHitCount();
+        if (results != molCount) {
+            throw new ResponseParseException(results + " results of " + molCount + " molecules");
+        }
+        return result;
+    }
+
+    private SearchResponseStat parseFull(Reader reader) throws ResponseParseException {
+        SearchResponseStat result = new SearchResponseStat();
+        LegistlationResponse lr = GSON.fromJson(reader, LegistlationResponse.class);
+        if (lr == null || lr.getSimpleResponses() == null) {
+            throw new ResponseParseException("no simpleResponses");
+        }
+        for (List<LegistlationData> lds : lr.getSimpleResponses()) {
+            if (lds == null || lds.isEmpty()) {
+                result.registerPassed();
+            } else {
+                if (lds.get(0).isError()) {
+                    result.registerError();
+                } else {
+                    result.registerHit(lds.size());
+                }
+            }
+        }
+        return result;
+    }
+
+    private SearchResponseStat parseStreaming(JsonReader json) throws IOException {
+        SearchResponseStat result = new SearchResponseStat();
+        boolean found = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("simpleResponses".equals(json.nextName())) {
+                found = true;
+                json.beginArray();
+                while (json.hasNext()) {
+                    countResult(json, result);
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (!found) {
+            throw new ResponseParseException("no simpleResponses");
+        }
+        return result;
+    }
+
+    /**
+     * Counts the result of one molecule: an empty list if it passed, an error if its first item is one, a hit
+     * otherwise.
+     */
+    private void countResult(JsonReader json, SearchResponseStat result) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            result.registerPassed();
+            return;
+        }
+        json.beginArray();
+        if (!json.hasNext()) {
+            json.endArray();
+            result.registerPassed();
+            return;
+        }
+        boolean error = isError(json);
+        int size = 1;
+        while (json.hasNext()) {
+            json.skipValue();
+            ++size;
+        }
+        json.endArray();
+        if (error) {
+            result.registerError();
+        } else {
+            result.registerHit(size);
+        }
+    }
+
+    private boolean isError(JsonReader json) throws IOException {
+        boolean error = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("error".equals(json.nextName()) && json.peek() == JsonToken.BOOLEAN) {
+                error = json.nextBoolean();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return error;
+    }
+}
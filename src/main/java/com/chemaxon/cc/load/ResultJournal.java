@@ -0,0 +1,388 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.gson.Gson;
+
+/**
+ * An append-only binary file of every completed or failed request, written while the test runs. The callers write
+ * fixed size records into memory mapped segments of the file at the slot they reserve atomically, so appending neither
+ * locks nor allocates, and whatever was appended survives if the load generator dies. The file starts with a header
+ * holding the number of records reserved, written on {@link #close()}, and the {@link Metadata} of the run as JSON.
+ * The segments start small and double up to a limit, so a short run leaves a small file.
+ */
+public class ResultJournal implements Closeable {
+
+    private static final int MAGIC = 0x43434a33; // CCJ3
+    static final int HEADER_SIZE = 64 * 1024;
+    /**
+     * thread + 1 (0 marks a slot not written yet), phase, mol count, passed, error, hits, hit sum, chunk: 8 ints,
+     * start epoch nanos, duration, corrected duration: 3 longs, failure: an int, and an unused int.
+     */
+    static final int RECORD_SIZE = 8 * 4 + 3 * 8 + 2 * 4;
+    /**
+     * The failure int of a failed request holds the ordinal of its {@link FailureType} + 1 in the lowest byte, the
+     * HTTP status above it, and this bit if the request was sent again. It is 0 for an answered request.
+     */
+    private static final int RETRIED = 1 << 30;
+    /** The record count of the header until the journal is closed. */
+    private static final long UNKNOWN_COUNT = -1;
+    private static final int FIRST_SEGMENT_RECORDS = 1 << 10;
+    /** The index of the first segment of the largest size, {@code FIRST_SEGMENT_RECORDS << GROWN_SEGMENT} records. */
+    private static final int GROWN_SEGMENT = 10;
+    private static final long GROWN_SEGMENT_START = (long) FIRST_SEGMENT_RECORDS * ((1 << GROWN_SEGMENT) - 1);
+    private static final int MAX_SEGMENTS = 1 << 12;
+
+    private final FileChannel channel;
+    private final AtomicLong nextRecord = new AtomicLong();
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+
+    /** What the records of a journal need to be understood. */
+    public static class Metadata {
+
+        private long startEpochNanos;
+        private List<String> threadNames = new ArrayList<>();
+        private int precision;
+        private double targetRate;
+        private List<Scenario.Phase> phases = new ArrayList<>();
+
+        public Metadata() {
+        }
+
+        /**
+         * @param targetRate the arrival rate of an open model run in requests/sec, or 0
+         * @param scenario the scenario of the run, or null
+         */
+        public Metadata(Instant start, List<String> threadNames, int precision, double targetRate, Scenario scenario) {
+            this.startEpochNanos = toEpochNanos(start);
+            this.threadNames = threadNames;
+            this.precision = precision;
+            this.targetRate = targetRate;
+            if (scenario != null) {
+                this.phases = scenario.getPhases();
+            }
+        }
+
+        public Instant getStart() {
+            return Instant.ofEpochSecond(0, startEpochNanos);
+        }
+
+        public List<String> getThreadNames() {
+            return threadNames;
+        }
+
+        public int getPrecision() {
+            return precision;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public List<Scenario.Phase> getPhases() {
+            return phases;
+        }
+    }
+
+    public ResultJournal(File file, Metadata metadata) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        byte[] json = new Gson().toJson(metadata).getBytes(StandardCharsets.UTF_8);
+        if (json.length > HEADER_SIZE - 20) {
+            throw new IllegalArgumentException("Too large journal metadata: " + json.length + " bytes");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(RECORD_SIZE).putLong(UNKNOWN_COUNT).putInt(json.length).put(json);
+        header.rewind();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    static long toEpochNanos(Instant instant) {
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+
+    /**
+     * Appends the record of a completed request. Can be called from any thread.
+     *
+     * @param phase the index of the scenario phase, -1 if there is no scenario
+     */
+    public void append(int thread, int phase, Instant start, long durationNanos, long correctedDurationNanos,
+            int molCount, SearchResponseStat response, int chunkIndex) throws IOException {
+        append(thread, phase, start, durationNanos, correctedDurationNanos, molCount, response.getPassed(),
+                response.getError(), response.getHitCount(), response.getHitSize(), chunkIndex, 0);
+    }
+
+    /**
+     * Appends the record of a request that has got no usable response, its latency measured from its actual send.
+     * Can be called from any thread.
+     *
+     * @param phase the index of the scenario phase, -1 if there is no scenario
+     * @param retried whether the request is sent again
+     */
+    public void appendFailure(int thread, int phase, Instant start, long durationNanos, int molCount,
+            Throwable failure, boolean retried, int chunkIndex) throws IOException {
+        int code = (FailureType.of(failure).ordinal() + 1) | FailureType.status(failure) << 8 | (retried ? RETRIED : 0);
+        append(thread, phase, start, durationNanos, durationNanos, molCount, 0, 0, 0, 0, chunkIndex, code);
+    }
+
+    private void append(int thread, int phase, Instant start, long durationNanos, long correctedDurationNanos,
+            int molCount, int passed, int errors, int hits, int hitSum, int chunkIndex, int failure)
+            throws IOException {
+        long record = nextRecord.getAndIncrement();
+        int index = segmentOf(record);
+        MappedByteBuffer segment = segment(index);
+        int at = (int) (record - segmentStart(index)) * RECORD_SIZE;
+        segment.putInt(at + 4, phase);
+        segment.putInt(at + 8, molCount);
+        segment.putInt(at + 12, passed);
+        segment.putInt(at + 16, errors);
+        segment.putInt(at + 20, hits);
+        segment.putInt(at + 24, hitSum);
+        segment.putInt(at + 28, chunkIndex);
+        segment.putLong(at + 32, toEpochNanos(start));
+        segment.putLong(at + 40, durationNanos);
+        segment.putLong(at + 48, correctedDurationNanos);
+        segment.putInt(at + 56, failure);
+        segment.putInt(at, thread + 1);
+    }
+
+    private MappedByteBuffer segment(int index) throws IOException {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null) {
+            synchronized (segments) {
+                segment = segments.get(index);
+                if (segment == null) {
+                    segment = channel.map(MapMode.READ_WRITE, HEADER_SIZE + segmentStart(index) * RECORD_SIZE,
+                            (long) segmentRecords(index) * RECORD_SIZE);
+                    segments.set(index, segment);
+                }
+            }
+        }
+        return segment;
+    }
+
+    static int segmentOf(long record) {
+        if (record < GROWN_SEGMENT_START) {
+            return 31 - Integer.numberOfLeadingZeros((int) (record / FIRST_SEGMENT_RECORDS) + 1);
+        }
+        return GROWN_SEGMENT + (int) ((record - GROWN_SEGMENT_START) / segmentRecords(GROWN_SEGMENT));
+    }
+
+    /**
+     * @return the index of the first record of a segment
+     */
+    static long segmentStart(int index) {
+        if (index <= GROWN_SEGMENT) {
+            return (long) FIRST_SEGMENT_RECORDS * ((1 << index) - 1);
+        }
+        return GROWN_SEGMENT_START + (long) (index - GROWN_SEGMENT) * segmentRecords(GROWN_SEGMENT);
+    }
+
+    static int segmentRecords(int index) {
+        return FIRST_SEGMENT_RECORDS << Math.min(index, GROWN_SEGMENT);
+    }
+
+    public long getRecordCount() {
+        return nextRecord.get();
+    }
+
+    /**
+     * Writes the appended records to the disk, then their number to the header. The unused end of the last segment is
+     * kept, as a file can not be truncated while it is mapped on every platform, and the {@link Reader} stops at the
+     * record count.
+     */
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < MAX_SEGMENTS && segments.get(i) != null; ++i) {
+            segments.get(i).force();
+        }
+        ByteBuffer count = ByteBuffer.allocate(8).putLong(0, nextRecord.get());
+        while (count.hasRemaining()) {
+            channel.write(count, 8 + count.position());
+        }
+        channel.force(false);
+        channel.close();
+    }
+
+    /**
+     * Reads a journal, written completely or cut by a crash. The slots reserved but not written, which a crash leaves
+     * among the records, are skipped. The records of a journal not closed are looked for up to the end of the file.
+     */
+    public static class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final Metadata metadata;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 4096);
+        private final long recordCount;
+        private long position = HEADER_SIZE;
+        private int current = -RECORD_SIZE;
+        private long slot;
+        private boolean ended;
+
+        public Reader(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // reading the whole header
+            }
+            header.flip();
+            if (header.remaining() < 20 || header.getInt() != MAGIC || header.getInt() != RECORD_SIZE) {
+                channel.close();
+                throw new IOException("Not a result journal: " + file);
+            }
+            this.recordCount = header.getLong();
+            byte[] json = new byte[header.getInt()];
+            header.get(json);
+            this.metadata = new Gson().fromJson(new String(json, StandardCharsets.UTF_8), Metadata.class);
+            buffer.limit(0);
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return false if there are no more records
+         */
+        public boolean next() throws IOException {
+            while (!ended) {
+                if (recordCount != UNKNOWN_COUNT && slot == recordCount) {
+                    ended = true;
+                    break;
+                }
+                current += RECORD_SIZE;
+                if (buffer.limit() - current < RECORD_SIZE) {
+                    buffer.position(current);
+                    buffer.compact();
+                    int read;
+                    while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+                        position += read;
+                    }
+                    buffer.flip();
+                    current = 0;
+                }
+                if (buffer.limit() - current < RECORD_SIZE) {
+                    ended = true;
+                    break;
+                }
+                ++slot;
+                if (buffer.getInt(current) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the number of records reserved by the writer, -1 if the journal was not closed
+         */
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        public int getThread() {
+            return buffer.getInt(current) - 1;
+        }
+
+        public int getPhase() {
+            return buffer.getInt(current + 4);
+        }
+
+        public int getMolCount() {
+            return buffer.getInt(current + 8);
+        }
+
+        public int getPassed() {
+            return buffer.getInt(current + 12);
+        }
+
+        public int getError() {
+            return buffer.getInt(current + 16);
+        }
+
+        public int getHitCount() {
+            return buffer.getInt(current + 20);
+        }
+
+        public int getHitSize() {
+            return buffer.getInt(current + 24);
+        }
+
+        public int getChunkIndex() {
+            return buffer.getInt(current + 28);
+        }
+
+        public long getStartEpochNanos() {
+            return buffer.getLong(current + 32);
+        }
+
+        public long getDurationNanos() {
+            return buffer.getLong(current + 40);
+        }
+
+        public long getCorrectedDurationNanos() {
+            return buffer.getLong(current + 48);
+        }
+
+        /**
+         * @return whether the request has got no usable response
+         */
+        public boolean isFailure() {
+            return buffer.getInt(current + 56) != 0;
+        }
+
+        /**
+         * @return the {@link FailureType} label of a failed request, e.g. "HTTP 503" or "timeout"
+         */
+        public String getFailureLabel() {
+            int failure = buffer.getInt(current + 56);
+            return FailureType.values()[(failure & 0xff) - 1].getLabel((failure & ~RETRIED) >>> 8);
+        }
+
+        /**
+         * @return whether a failed request was sent again
+         */
+        public boolean isRetried() {
+            return (buffer.getInt(current + 56) & RETRIED) != 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -22,19 +22,32 @@ import java.time.Instant;
 public class RunTimeLog {
 
     private final Instant start;
-    private final Instant end;
+    private final long durationNanos;
+    private final long correctedDurationNanos;
     private final String threadName;
     private final int molCount;
     private final String request;
-    private final SearchResponseStat response;
+    private final int passed;
+    private final int error;
+    private final int hitCount;
+    private final int hitSize;
 
-    public RunTimeLog(Instant start, Instant end, int molCount, String request, SearchResponseStat response) {
+    public RunTimeLog(Instant start, long durationNanos, long correctedDurationNanos, int molCount, String threadName,
+            String request, int passed, int error, int hitCount, int hitSize) {
         this.start = start;
-        this.end = end;
-        this.threadName = Thread.currentThread().getName();
+        this.durationNanos = durationNanos;
+        this.correctedDurationNanos = correctedDurationNanos;
+        this.threadName = threadName;
         this.molCount = molCount;
         this.request = request;
-        this.response = response;
+        this.passed = passed;
+        this.error = error;
+        this.hitCount = hitCount;
+        this.hitSize = hitSize;
+    }
+
+    public Instant getIntendedStart() {
+        return start.minusNanos(correctedDurationNanos - durationNanos);
     }
 
     public Instant getStart() {
@@ -42,7 +55,7 @@ public class RunTimeLog {
     }
 
     public Instant getEnd() {
-        return end;
+        return start.plusNanos(durationNanos);
     }
 
     public String getThreadName() {
@@ -54,15 +67,35 @@ public class RunTimeLog {
     }
 
     public Duration getDuration() {
-        return Duration.between(start, end);
+        return Duration.ofNanos(durationNanos);
+    }
+
+    /**
+     * @return the latency measured from the intended send time, which also counts the time the request waited for a
+     *         free caller (coordinated omission correction). Equals {@link #getDuration()} in closed model runs.
+     */
+    public Duration getCorrectedDuration() {
+        return Duration.ofNanos(correctedDurationNanos);
     }
 
     public String getRequest() {
         return request;
     }
 
-    public SearchResponseStat getResponse() {
-        return response;
+    public int getPassed() {
+        return passed;
+    }
+
+    public int getError() {
+        return error;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getHitSize() {
+        return hitSize;
     }
 
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The per request samples of a caller in primitive columns, 48 bytes a sample. The columns grow in blocks of 64k
+ * samples, so adding a sample copies at most one block; the first block starts small for callers sending few
+ * requests. The request itself is not copied, only the index of its chunk in
+ * the caller's {@link MoleculeSource}. There is one store for every caller, so the thread is not stored per sample.
+ * <p>
+ * Not thread safe: it is written by its own caller only and read after the caller has finished.
+ */
+public class SampleStore {
+
+    private static final int BLOCK_BITS = 16;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int FIRST_BLOCK_SIZE = 256;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int size = 0;
+
+    private static class Block {
+
+        private long[] startEpochNanos;
+        private long[] durationNanos;
+        private long[] correctedDurationNanos;
+        private int[] molCounts;
+        private int[] passed;
+        private int[] errors;
+        private int[] hits;
+        private int[] hitSums;
+        private int[] chunks;
+
+        Block(int capacity) {
+            resize(capacity);
+        }
+
+        int capacity() {
+            return chunks.length;
+        }
+
+        void resize(int capacity) {
+            startEpochNanos = startEpochNanos == null ? new long[capacity] : Arrays.copyOf(startEpochNanos, capacity);
+            durationNanos = durationNanos == null ? new long[capacity] : Arrays.copyOf(durationNanos, capacity);
+            correctedDurationNanos = correctedDurationNanos == null ? new long[capacity]
+                    : Arrays.copyOf(correctedDurationNanos, capacity);
+            molCounts = molCounts == null ? new int[capacity] : Arrays.copyOf(molCounts, capacity);
+            passed = passed == null ? new int[capacity] : Arrays.copyOf(passed, capacity);
+            errors = errors == null ? new int[capacity] : Arrays.copyOf(errors, capacity);
+            hits = hits == null ? new int[capacity] : Arrays.copyOf(hits, capacity);
+            hitSums = hitSums == null ? new int[capacity] : Arrays.copyOf(hitSums, capacity);
+            chunks = chunks == null ? new int[capacity] : Arrays.copyOf(chunks, capacity);
+        }
+    }
+
+    /**
+     * @param chunkIndex the index of the chunk the request was built from, see {@link MoleculeSource#getChunk}
+     */
+    public void add(long startEpochNanos, long durationNanos, long correctedDurationNanos, int molCount, int passed,
+            int errors, int hits, int hitSum, int chunkIndex) {
+        int i = size & BLOCK_MASK;
+        if (i == 0) {
+            blocks.add(new Block(blocks.isEmpty() ? FIRST_BLOCK_SIZE : BLOCK_SIZE));
+        }
+        Block b = blocks.get(size >>> BLOCK_BITS);
+        if (i == b.capacity()) {
+            b.resize(Math.min(b.capacity() * 2, BLOCK_SIZE));
+        }
+        b.startEpochNanos[i] = startEpochNanos;
+        b.durationNanos[i] = durationNanos;
+        b.correctedDurationNanos[i] = correctedDurationNanos;
+        b.molCounts[i] = molCount;
+        b.passed[i] = passed;
+        b.errors[i] = errors;
+        b.hits[i] = hits;
+        b.hitSums[i] = hitSum;
+        b.chunks[i] = chunkIndex;
+        ++size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private Block block(int sample) {
+        if (sample < 0 || sample >= size) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + size);
+        }
+        return blocks.get(sample >>> BLOCK_BITS);
+    }
+
+    public long getStartEpochNanos(int sample) {
+        return block(sample).startEpochNanos[sample & BLOCK_MASK];
+    }
+
+    public long getDurationNanos(int sample) {
+        return block(sample).durationNanos[sample & BLOCK_MASK];
+    }
+
+    public long getCorrectedDurationNanos(int sample) {
+        return block(sample).correctedDurationNanos[sample & BLOCK_MASK];
+    }
+
+    public int getMolCount(int sample) {
+        return block(sample).molCounts[sample & BLOCK_MASK];
+    }
+
+    public int getPassed(int sample) {
+        return block(sample).passed[sample & BLOCK_MASK];
+    }
+
+    public int getErrors(int sample) {
+        return block(sample).errors[sample & BLOCK_MASK];
+    }
+
+    public int getHits(int sample) {
+        return block(sample).hits[sample & BLOCK_MASK];
+    }
+
+    public int getHitSum(int sample) {
+        return block(sample).hitSums[sample & BLOCK_MASK];
+    }
+
+    public int getChunkIndex(int sample) {
+        return block(sample).chunks[sample & BLOCK_MASK];
+    }
+}
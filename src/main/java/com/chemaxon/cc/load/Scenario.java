@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+/**
+ * A load profile made of phases, each with a number of active users and a wall clock duration. A run following a
+ * scenario ends when its last phase ends, however big the input is, and the molecules are sent again and again until
+ * then. Example of a scenario file:
+ *
+ * <pre>
+ * {
+ *   "thinkTimeMillis": 200,
+ *   "pacingMillis": 1000,
+ *   "phases": [
+ *     { "name": "ramp-up", "type": "ramp", "users": 50, "durationSeconds": 120 },
+ *     { "name": "plateau", "type": "hold", "users": 50, "durationSeconds": 600 },
+ *     { "name": "step", "type": "hold", "users": 100, "durationSeconds": 600 },
+ *     { "name": "spike", "type": "hold", "users": 400, "durationSeconds": 10 },
+ *     { "name": "recovery", "type": "hold", "users": 100, "durationSeconds": 300 }
+ *   ]
+ * }
+ * </pre>
+ *
+ * A "ramp" phase changes the number of users linearly from the level of the previous phase (0 for the first one) to
+ * its own, a "hold" phase keeps its number of users for the whole phase. The think time is waited by every user after
+ * each response. The pacing is the least time between the starts of two requests of a user: after a fast response
+ * the user waits for the rest of it, after a slower one it sends its next request at once.
+ */
+public class Scenario {
+
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private long thinkTimeMillis;
+    private long pacingMillis;
+    private List<Phase> phases = new ArrayList<>();
+    private transient long startNanos;
+
+    public static class Phase {
+
+        private String name;
+        private String type = "hold";
+        private int users;
+        private double durationSeconds;
+
+        public Phase() {
+        }
+
+        public Phase(String name, String type, int users, double durationSeconds) {
+            this.name = name;
+            this.type = type;
+            this.users = users;
+            this.durationSeconds = durationSeconds;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getUsers() {
+            return users;
+        }
+
+        public double getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        private long getDurationNanos() {
+            return (long) (durationSeconds * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    public static Scenario load(File file) throws IOException {
+        Scenario scenario;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            scenario = new Gson().fromJson(reader, Scenario.class);
+        }
+        scenario.validate();
+        return scenario;
+    }
+
+    /**
+     * @return a scenario ramping up to the given users, then keeping them for the given duration
+     */
+    public static Scenario of(int users, double rampUpSeconds, double durationSeconds, long thinkTimeMillis,
+            long pacingMillis) {
+        Scenario scenario = new Scenario();
+        scenario.thinkTimeMillis = thinkTimeMillis;
+        scenario.pacingMillis = pacingMillis;
+        if (rampUpSeconds > 0) {
+            scenario.phases.add(new Phase("ramp-up", "ramp", users, rampUpSeconds));
+        }
+        scenario.phases.add(new Phase("steady", "hold", users, durationSeconds));
+        scenario.validate();
+        return scenario;
+    }
+
+    /**
+     * @return a scenario keeping the given users for a warm-up phase, then for a measured one
+     */
+    public static Scenario withWarmUp(int users, double warmUpSeconds, double durationSeconds,
+            long thinkTimeMillis, long pacingMillis) {
+        Scenario scenario = new Scenario();
+        scenario.thinkTimeMillis = thinkTimeMillis;
+        scenario.pacingMillis = pacingMillis;
+        if (warmUpSeconds > 0) {
+            scenario.phases.add(new Phase("warm-up", "hold", users, warmUpSeconds));
+        }
+        scenario.phases.add(new Phase("measured", "hold", users, durationSeconds));
+        scenario.validate();
+        return scenario;
+    }
+
+    private void validate() {
+        if (phases == null || phases.isEmpty()) {
+            throw new IllegalArgumentException("A scenario needs at least one phase");
+        }
+        if (thinkTimeMillis < 0 || pacingMillis < 0) {
+            throw new IllegalArgumentException("The think time and the pacing of a scenario must not be negative");
+        }
+        for (int i = 0; i < phases.size(); ++i) {
+            Phase p = phases.get(i);
+            if (p.name == null) {
+                p.name = "phase " + (i + 1);
+            }
+            if (!"ramp".equals(p.type) && !"hold".equals(p.type)) {
+                throw new IllegalArgumentException("Unknown type of phase " + p.name + ": " + p.type);
+            }
+            if (p.users < 0 || p.durationSeconds <= 0) {
+                throw new IllegalArgumentException("Phase " + p.name + " needs users >= 0 and durationSeconds > 0");
+            }
+        }
+    }
+
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    public int getMaxUsers() {
+        return phases.stream().mapToInt(Phase::getUsers).max().getAsInt();
+    }
+
+    public double getDurationSeconds() {
+        return phases.stream().mapToDouble(Phase::getDurationSeconds).sum();
+    }
+
+    public void start() {
+        start(System.nanoTime());
+    }
+
+    /**
+     * @param nanos the {@link System#nanoTime()} the first phase starts at
+     */
+    void start(long nanos) {
+        startNanos = nanos;
+    }
+
+    /**
+     * @return the index of the phase running at the given {@link System#nanoTime()}, or -1 if the scenario has ended
+     */
+    public int getPhaseIndex(long nanos) {
+        long elapsed = nanos - startNanos;
+        for (int i = 0; i < phases.size(); ++i) {
+            elapsed -= phases.get(i).getDurationNanos();
+            if (elapsed < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of users that should be active at the given {@link System#nanoTime()}
+     */
+    public int getActiveUsers(long nanos) {
+        long elapsed = nanos - startNanos;
+        int previousUsers = 0;
+        for (Phase p : phases) {
+            if (elapsed < p.getDurationNanos()) {
+                if ("ramp".equals(p.type)) {
+                    return previousUsers
+                            + (int) Math.round((p.users - previousUsers) * ((double) elapsed) / p.getDurationNanos());
+                }
+                return p.users;
+            }
+            elapsed -= p.getDurationNanos();
+            previousUsers = p.users;
+        }
+        return 0;
+    }
+
+    /**
+     * Waits until the given user is active.
+     *
+     * @param user the index of the user, users are activated in the order of their indexes
+     * @return false if the scenario has ended
+     */
+    public boolean awaitActive(int user) throws InterruptedException {
+        long now;
+        while (getPhaseIndex(now = System.nanoTime()) >= 0) {
+            if (user < getActiveUsers(now)) {
+                return true;
+            }
+            TimeUnit.NANOSECONDS.sleep(POLL_NANOS);
+        }
+        return false;
+    }
+
+    /**
+     * Waits before the next request of a user, see {@link #getWaitNanos(long, long)}.
+     */
+    public void awaitNextStart(long previousStartNanos) throws InterruptedException {
+        long wait = getWaitNanos(previousStartNanos, System.nanoTime());
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @param previousStartNanos the {@link System#nanoTime()} the previous request of the user was sent at
+     * @param nanos the {@link System#nanoTime()} the previous request was answered at
+     * @return how long the user waits before its next request: the think time, or the rest of the pacing if longer
+     */
+    public long getWaitNanos(long previousStartNanos, long nanos) {
+        long wait = TimeUnit.MILLISECONDS.toNanos(thinkTimeMillis);
+        if (pacingMillis > 0) {
+            wait = Math.max(wait, previousStartNanos + TimeUnit.MILLISECONDS.toNanos(pacingMillis) - nanos);
+        }
+        return wait;
+    }
+
+    public long getThinkTimeMillis() {
+        return thinkTimeMillis;
+    }
+
+    public long getPacingMillis() {
+        return pacingMillis;
+    }
+}
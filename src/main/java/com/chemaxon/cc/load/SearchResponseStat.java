@@ -26,6 +26,7 @@ public class SearchResponseStat {
     private int passed = 0;
     private int error = 0;
     private List<Integer> hits = new ArrayList<>();
+    private List<Integer> hitIndexes = new ArrayList<>();
 
     public void registerPassed() {
         ++passed;
@@ -36,6 +37,7 @@ public class SearchResponseStat {
     }
 
     public void registerHit(int hitSize) {
+        hitIndexes.add(passed + error + hits.size());
         hits.add(hitSize);
     }
 
@@ -51,6 +53,13 @@ public class SearchResponseStat {
         return Collections.unmodifiableList(hits);
     }
 
+    /**
+     * @return the positions of the hit molecules in the request, in the order of {@link #getHits()}
+     */
+    public List<Integer> getHitIndexes() {
+        return Collections.unmodifiableList(hitIndexes);
+    }
+
     public int getHitCount() {
         return hits.size();
     }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import chemaxon.formats.MolImporter;
+import chemaxon.struc.Molecule;
+
+/**
+ * Reads the input file on a background thread into a bounded queue shared by every caller, so memory use does not
+ * depend on the size of the file. Every molecule read is sent once per pass, by whichever caller takes it first.
+ * <p>
+ * If the file can not be read to its end, the callers finish with the molecules read so far and the error is kept
+ * for the run to fail with.
+ */
+public class StreamingMoleculeSource implements MoleculeSource, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingMoleculeSource.class);
+
+    /** Marks the end of the input, it is put back for the other callers once taken. */
+    private static final byte[] END = new byte[0];
+
+    private final File file;
+    private final int passes;
+    private final BlockingQueue<byte[]> queue;
+    private final AtomicLong readCount = new AtomicLong();
+    private final Thread reader;
+    private volatile Exception failure;
+
+    /**
+     * @param passes how many times the file is read, 0 to read it again and again until the source is closed
+     */
+    public StreamingMoleculeSource(File file, int queueSize, int passes) {
+        this.file = file;
+        this.passes = passes;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.reader = new Thread(this::read, "MoleculeReader");
+        this.reader.setDaemon(true);
+    }
+
+    public void start() {
+        reader.start();
+    }
+
+    private void read() {
+        try {
+            try {
+                for (int pass = 0; passes == 0 || pass < passes; ++pass) {
+                    try (MolImporter mi = new MolImporter(file)) {
+                        Molecule m = null;
+                        while ((m = mi.read()) != null) {
+                            queue.put(MoleculePayloads.exportOne(m));
+                            readCount.incrementAndGet();
+                        }
+                    }
+                    LOG.info("finished reading pass {} of {}", pass + 1, file);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Could not read molecules from " + file, e);
+                failure = e;
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            LOG.debug("Reading of {} stopped", file);
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+
+    @Override
+    public List<byte[]> nextChunk(int size) throws InterruptedException {
+        List<byte[]> srcs = new ArrayList<>(size);
+        while (srcs.size() < size) {
+            byte[] src = queue.take();
+            if (src == END) {
+                queue.put(END);
+                break;
+            }
+            srcs.add(src);
+        }
+        return srcs;
+    }
+
+    /**
+     * @return the number of molecules read so far, which is the number of checks planned
+     */
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * @return the error that stopped the reading of the file before its end, or null if there was none
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void close() {
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the test for a grid of chunk sizes and numbers of threads, each for a fixed duration after a warm-up, fits the
+ * {@link UslModel} to the throughputs of every chunk size and writes a {@link SweepReport}. If several engines are
+ * given, e.g. the HTTP/1.1 connection pool and HTTP/2, the grid is run with each and a model is fitted to every engine
+ * and chunk size.
+ */
+public class Sweep {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Sweep.class);
+    /** The engines that can run for a duration, which every run of the sweep does. */
+    private static final List<String> ENGINES = Arrays.asList("thread", "virtual", "h2");
+
+    private final CliOptions clio;
+
+    /** The results of one run of the sweep, measured after its warm-up. */
+    public static class Cell {
+
+        private final String series;
+        private final String engine;
+        private final int chunks;
+        private final int threads;
+        private final double requestRate;
+        private final double molRate;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final long errors;
+        private final long requests;
+        private final long failedRequests;
+
+        /**
+         * @param series the engine and chunk size the cell belongs to, the label of its row and model
+         */
+        Cell(String series, String engine, int chunks, int threads, CallerStats measured, double seconds) {
+            this.series = series;
+            this.engine = engine;
+            this.chunks = chunks;
+            this.threads = threads;
+            this.requestRate = measured.getRequestCount() / seconds;
+            this.molRate = measured.getCheckedCount() / seconds;
+            this.p50Millis = toMillis(measured.getServiceTimes().getValueAtPercentile(50));
+            this.p99Millis = toMillis(measured.getServiceTimes().getValueAtPercentile(99));
+            this.errors = measured.getErrorCount();
+            this.requests = measured.getRequestCount();
+            this.failedRequests = measured.getFailedRequestCount();
+        }
+
+        public String getSeries() {
+            return series;
+        }
+
+        public String getEngine() {
+            return engine;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public double getRequestRate() {
+            return requestRate;
+        }
+
+        public double getMolRate() {
+            return molRate;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        /**
+         * @return the number of molecules the checker answered with an error
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the number of requests that have got no usable response, e.g. timed out or answered with 5xx
+         */
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        /**
+         * @return the percentage of the requests finished in the measured phase that failed
+         */
+        public double getFailedRequestPercent() {
+            long finished = requests + failedRequests;
+            return finished == 0 ? 0.0 : failedRequests * 100.0 / finished;
+        }
+    }
+
+    public Sweep(CliOptions clio) {
+        this.clio = clio;
+    }
+
+    public void run() throws ParseException, IOException, URISyntaxException, InterruptedException {
+        List<Integer> threadCounts = clio.getSweepThreads();
+        List<Integer> chunkSizes = clio.getSweepChunks();
+        List<String> engines = clio.getSweepEngines();
+        double warmUp = clio.getSweepWarmup();
+        double duration = clio.getSweepDuration();
+        for (String engine : engines) {
+            if (!ENGINES.contains(engine)) {
+                throw new IllegalArgumentException("The sweep runs the engines " + ENGINES + ", not: " + engine);
+            }
+            if ("virtual".equals(engine) && !VirtualThreads.isSupported()) {
+                throw new IllegalArgumentException("The virtual engine needs a Java 21+ runtime");
+            }
+        }
+        LOG.info("sweeping {} engines x {} chunk sizes x {} thread counts, {} + {} seconds each", engines.size(),
+                chunkSizes.size(), threadCounts.size(), warmUp, duration);
+        Instant start = Instant.now();
+        List<Cell> cells = new ArrayList<>();
+        List<String> series = new ArrayList<>();
+        for (int chunks : chunkSizes) {
+            for (String engine : engines) {
+                String label = engines.size() > 1 ? chunks + " mols/request, " + engine : chunks + " mols/request";
+                series.add(label);
+                for (int threads : threadCounts) {
+                    Scenario scenario = Scenario.withWarmUp(threads, warmUp, duration, clio.getThinkTime(),
+                            clio.getPacing());
+                    CliOptions run = new CliOptions(
+                            clio.getSweepArgs(engine, threads, chunks).toArray(new String[0]), scenario, false);
+                    LoadRunner.Outcome outcome = LoadRunner.runLoad(run,
+                            new LiveMetrics(clio.getHistogramPrecision()), () -> {
+                            });
+                    CallerStats measured = CallerStats.merge("measured", outcome.getStats())
+                            .forPhase(scenario.getPhases().size() - 1);
+                    Cell cell = new Cell(label, engine, chunks, threads, measured, duration);
+                    cells.add(cell);
+                    LOG.info(String.format(Locale.ROOT,
+                            "%-6s  chunks %5d  threads %5d  %9.1f mol/s  %8.1f req/s  p50 %8.1f ms  p99 %8.1f ms  "
+                                    + "errors %d  failed requests %d (%.1f%%)",
+                            engine, chunks, threads, cell.getMolRate(), cell.getRequestRate(), cell.getP50Millis(),
+                            cell.getP99Millis(), cell.getErrors(), cell.getFailedRequests(),
+                            cell.getFailedRequestPercent()));
+                }
+            }
+        }
+        Instant end = Instant.now();
+        Map<String, UslModel> models = new LinkedHashMap<>();
+        for (String s : series) {
+            double[] concurrency = cells.stream().filter(c -> c.getSeries().equals(s))
+                    .mapToDouble(Cell::getThreads).toArray();
+            double[] throughput = cells.stream().filter(c -> c.getSeries().equals(s))
+                    .mapToDouble(Cell::getMolRate).toArray();
+            if (concurrency.length < 3) {
+                LOG.warn("At least 3 thread counts are needed to fit the scalability model");
+                break;
+            }
+            UslModel model = UslModel.fit(concurrency, throughput);
+            models.put(s, model);
+            LOG.info(String.format(Locale.ROOT,
+                    "%s  lambda %.2f mol/s  sigma %.4f  kappa %.6f  R^2 %.3f  knee %.0f threads  "
+                            + "peak %.0f threads, %.1f mol/s",
+                    s, model.getLambda(), model.getSigma(), model.getKappa(), model.getRSquared(),
+                    model.getKnee(), model.getPeakConcurrency(), model.getPeakThroughput()));
+        }
+        SweepReport report = new SweepReport(cells, models, start, end, warmUp, duration);
+        report.saveHtmlReport(clio.getOutput());
+        LOG.info("saved sweep report: {}", clio.getOutput());
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
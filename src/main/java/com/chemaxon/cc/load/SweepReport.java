@@ -0,0 +1,364 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.math3.util.Precision;
+
+import com.google.gson.Gson;
+
+/**
+ * Writes the HTML report of a {@link Sweep}: heatmaps of the throughput, the latencies and the failed requests of every
+ * chunk size and number of threads, and the fitted scalability model of every chunk size with its knee, peak and the
+ * throughput it predicts beyond the tested numbers of threads.
+ */
+public class SweepReport {
+
+    /** The model is drawn up to this many times the most threads tested. */
+    private static final int PREDICTION_FACTOR = 2;
+    private static final int MODEL_POINTS = 100;
+    private static final String[] ENGINE_COLORS = { "#1f77b4", "#d62728", "#2ca02c", "#ff7f0e" };
+
+    private final List<Sweep.Cell> cells;
+    private final Map<String, UslModel> models;
+    private final Instant start;
+    private final Instant end;
+    private final double warmUpSeconds;
+    private final double durationSeconds;
+    private final Gson gson = new Gson();
+    private int charts;
+    private XMLStreamWriter xw;
+
+    /**
+     * @param models the models fitted to the throughputs, by the series of the cells
+     */
+    public SweepReport(List<Sweep.Cell> cells, Map<String, UslModel> models, Instant start, Instant end,
+            double warmUpSeconds, double durationSeconds) {
+        this.cells = cells;
+        this.models = models;
+        this.start = start;
+        this.end = end;
+        this.warmUpSeconds = warmUpSeconds;
+        this.durationSeconds = durationSeconds;
+    }
+
+    public void saveHtmlReport(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            xw = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+            try {
+                writeDocument();
+                xw.flush();
+            } finally {
+                xw.close();
+                xw = null;
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not write the report to " + file, e);
+        }
+    }
+
+    private void writeDocument() throws XMLStreamException {
+        xw.writeDTD("<!DOCTYPE html>");
+        newLine();
+        xw.writeStartElement("html");
+        xw.writeStartElement("head");
+        element("title", "Sweep report");
+        xw.writeStartElement("script");
+        xw.writeAttribute("integrity", "sha256-VNbX9NjQNRW+Bk02G/RO6WiTKuhncWI4Ey7LkSbE+5s=");
+        xw.writeAttribute("crossorigin", "anonymous");
+        xw.writeAttribute("type", "text/javascript");
+        xw.writeAttribute("src", "https://cdnjs.cloudflare.com/ajax/libs/Chart.js/2.6.0/Chart.bundle.min.js");
+        xw.writeCharacters(" ");
+        xw.writeEndElement();
+        element("style", "table.heatmap td { padding:4px 8px; text-align:right; }");
+        xw.writeEndElement();
+        newLine();
+        xw.writeStartElement("body");
+        writeSummary();
+        element("h1", "Throughput (mol/second)");
+        writeHeatmap(Sweep.Cell::getMolRate, true);
+        element("h1", "99th percentile of the service time (ms)");
+        writeHeatmap(Sweep.Cell::getP99Millis, false);
+        element("h1", "Median of the service time (ms)");
+        writeHeatmap(Sweep.Cell::getP50Millis, false);
+        element("h1", "Failed requests (%)");
+        writeHeatmap(Sweep.Cell::getFailedRequestPercent, false);
+        if (getEngines().size() > 1) {
+            writeEngineComparison();
+        }
+        for (Entry<String, UslModel> model : models.entrySet()) {
+            writeModel(model.getKey(), model.getValue());
+        }
+        xw.writeEndElement();
+        xw.writeEndElement();
+        xw.writeEndDocument();
+    }
+
+    private void writeSummary() throws XMLStreamException {
+        element("h1", "Sweep");
+        Sweep.Cell peak = cells.stream().max(Comparator.comparingDouble(Sweep.Cell::getMolRate)).orElse(null);
+        Map<String, Double> summary = new LinkedHashMap<>();
+        summary.put("runs", (double) cells.size());
+        summary.put("warm-up of a run (seconds)", warmUpSeconds);
+        summary.put("measured part of a run (seconds)", durationSeconds);
+        summary.put("took (seconds)", Duration.between(start, end).toMillis() / 1000.0);
+        if (peak != null) {
+            summary.put("peak mol/second", round(peak.getMolRate()));
+            summary.put("peak request/second", round(peak.getRequestRate()));
+            summary.put("peak at chunks", (double) peak.getChunks());
+            summary.put("peak at threads", (double) peak.getThreads());
+            summary.put("99th percentile at peak (ms)", round(peak.getP99Millis()));
+            summary.put("failed requests % at peak", round(peak.getFailedRequestPercent()));
+        }
+        writeKeyValueTable(summary);
+    }
+
+    /**
+     * Writes a table of the series (chunk sizes and engines) by the numbers of threads, colored from red (worst) to
+     * green (best).
+     *
+     * @param higherIsBetter whether a higher value is better, like the throughput, or a lower one, like the latency
+     */
+    private void writeHeatmap(ToDoubleFunction<Sweep.Cell> value, boolean higherIsBetter)
+            throws XMLStreamException {
+        TreeSet<Integer> threads = new TreeSet<>();
+        Set<String> series = new LinkedHashSet<>();
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (Sweep.Cell c : cells) {
+            threads.add(c.getThreads());
+            series.add(c.getSeries());
+            min = Math.min(min, value.applyAsDouble(c));
+            max = Math.max(max, value.applyAsDouble(c));
+        }
+        xw.writeStartElement("table");
+        xw.writeAttribute("class", "heatmap");
+        xw.writeStartElement("thead");
+        xw.writeStartElement("tr");
+        element("th", "series \\ threads");
+        for (int t : threads) {
+            element("th", Integer.toString(t));
+        }
+        xw.writeEndElement();
+        xw.writeEndElement();
+        xw.writeStartElement("tbody");
+        for (String s : series) {
+            xw.writeStartElement("tr");
+            element("th", s);
+            for (int t : threads) {
+                Sweep.Cell cell = find(s, t);
+                xw.writeStartElement("td");
+                if (cell != null) {
+                    double v = value.applyAsDouble(cell);
+                    double goodness = 1;
+                    if (max > min) {
+                        goodness = higherIsBetter ? (v - min) / (max - min) : (max - v) / (max - min);
+                    }
+                    xw.writeAttribute("style", String.format(Locale.ROOT, "background-color:hsl(%d,70%%,70%%);",
+                            Math.round(goodness * 120)));
+                    xw.writeCharacters(String.format(Locale.ROOT, "%.1f", v));
+                }
+                xw.writeEndElement();
+            }
+            xw.writeEndElement();
+            newLine();
+        }
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+    }
+
+    private Sweep.Cell find(String series, int threads) {
+        for (Sweep.Cell c : cells) {
+            if (c.getSeries().equals(series) && c.getThreads() == threads) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    private List<String> getEngines() {
+        return cells.stream().map(Sweep.Cell::getEngine).distinct().collect(Collectors.toList());
+    }
+
+    /**
+     * Writes the throughput and the 99th percentile of every engine by the numbers of threads, a pair of charts for
+     * every chunk size.
+     */
+    private void writeEngineComparison() throws XMLStreamException {
+        List<String> engines = getEngines();
+        for (int chunks : cells.stream().map(Sweep.Cell::getChunks).distinct().collect(Collectors.toList())) {
+            element("h1", "Engines at " + chunks + " mols/request");
+            List<Map<String, Object>> throughputs = new ArrayList<>();
+            List<Map<String, Object>> latencies = new ArrayList<>();
+            for (int i = 0; i < engines.size(); ++i) {
+                List<Map<String, Double>> throughput = new ArrayList<>();
+                List<Map<String, Double>> latency = new ArrayList<>();
+                for (Sweep.Cell c : cells) {
+                    if (c.getChunks() == chunks && c.getEngine().equals(engines.get(i))) {
+                        throughput.add(point(c.getThreads(), c.getMolRate()));
+                        latency.add(point(c.getThreads(), c.getP99Millis()));
+                    }
+                }
+                String color = ENGINE_COLORS[i % ENGINE_COLORS.length];
+                throughputs.add(dataset(engines.get(i), throughput, color, true));
+                latencies.add(dataset(engines.get(i), latency, color, true));
+            }
+            writeChart(throughputs, "mol/second");
+            writeChart(latencies, "99th percentile (ms)");
+        }
+    }
+
+    private void writeModel(String series, UslModel model) throws XMLStreamException {
+        element("h1", "Scalability at " + series);
+        Map<String, Double> summary = new LinkedHashMap<>();
+        summary.put("lambda: mol/second of one thread", round(model.getLambda()));
+        summary.put("sigma: contention", model.getSigma());
+        summary.put("kappa: coherency", model.getKappa());
+        summary.put("R squared of the fit", round(model.getRSquared()));
+        summary.put("knee (threads)", model.getKnee());
+        summary.put("peak (threads)", round(model.getPeakConcurrency()));
+        summary.put("predicted peak mol/second", round(model.getPeakThroughput()));
+        writeKeyValueTable(summary);
+        List<Map<String, Double>> measured = new ArrayList<>();
+        int maxThreads = 1;
+        for (Sweep.Cell c : cells) {
+            if (c.getSeries().equals(series)) {
+                measured.add(point(c.getThreads(), c.getMolRate()));
+                maxThreads = Math.max(maxThreads, c.getThreads());
+            }
+        }
+        double until = maxThreads * PREDICTION_FACTOR;
+        if (model.getPeakConcurrency() < until * 2) {
+            until = Math.max(until, model.getPeakConcurrency() * 1.5);
+        }
+        List<Map<String, Double>> predicted = new ArrayList<>();
+        for (int i = 0; i <= MODEL_POINTS; ++i) {
+            double n = 1 + (until - 1) * i / MODEL_POINTS;
+            predicted.add(point(n, model.throughput(n)));
+        }
+        List<Map<String, Object>> datasets = new ArrayList<>();
+        datasets.add(dataset("measured", measured, "#d62728", false));
+        datasets.add(dataset("USL model", predicted, "#1f77b4", true));
+        writeChart(datasets, "mol/second");
+    }
+
+    /**
+     * Writes a scatter chart of the datasets by the numbers of threads.
+     */
+    private void writeChart(List<Map<String, Object>> datasets, String yLabel) throws XMLStreamException {
+        int idx = charts++;
+        String id = "chart_" + idx;
+        xw.writeStartElement("div");
+        xw.writeAttribute("style", "width:640px; height:400px;margin:20px;padding:20px;");
+        xw.writeStartElement("canvas");
+        xw.writeAttribute("id", id);
+        xw.writeAttribute("width", "640");
+        xw.writeAttribute("height", "400");
+        xw.writeCharacters(" ");
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+        element("script", "var ctx" + idx + "= document.getElementById('" + id + "').getContext('2d');\n"
+                + "var chart" + idx + " = new Chart(ctx" + idx + ", { type:'scatter', data: { datasets: "
+                + gson.toJson(datasets) + "},\n"
+                + "options:{scales: {xAxes:[{display:true, scaleLabel: {display:true, labelString:'Threads'}}],\n"
+                + "yAxes:[{display:true, scaleLabel: {display:true, labelString:'" + yLabel
+                + "'}}]}}});");
+        newLine();
+    }
+
+    private static Map<String, Double> point(double x, double y) {
+        Map<String, Double> point = new LinkedHashMap<>();
+        point.put("x", round(x));
+        point.put("y", round(y));
+        return point;
+    }
+
+    private static Map<String, Object> dataset(String label, List<Map<String, Double>> data, String color,
+            boolean line) {
+        Map<String, Object> dataset = new LinkedHashMap<>();
+        dataset.put("label", label);
+        dataset.put("data", data);
+        dataset.put("borderColor", color);
+        dataset.put("backgroundColor", color);
+        dataset.put("fill", false);
+        dataset.put("showLine", line);
+        dataset.put("pointRadius", line ? 0 : 4);
+        return dataset;
+    }
+
+    private static double round(double value) {
+        return Double.isInfinite(value) ? value : Precision.round(value, 2);
+    }
+
+    private void writeKeyValueTable(Map<String, Double> summary) throws XMLStreamException {
+        xw.writeStartElement("table");
+        xw.writeStartElement("thead");
+        xw.writeStartElement("tr");
+        element("td", "Stat");
+        element("td", "value");
+        xw.writeEndElement();
+        xw.writeEndElement();
+        xw.writeStartElement("tbody");
+        for (Entry<String, Double> e : summary.entrySet()) {
+            xw.writeStartElement("tr");
+            element("td", e.getKey());
+            element("td", Double.toString(e.getValue()));
+            xw.writeEndElement();
+        }
+        xw.writeEndElement();
+        xw.writeEndElement();
+        newLine();
+    }
+
+    private void element(String name, String text) throws XMLStreamException {
+        xw.writeStartElement(name);
+        xw.writeCharacters(text == null ? "" : text);
+        xw.writeEndElement();
+    }
+
+    private void newLine() throws XMLStreamException {
+        xw.writeCharacters("\n");
+    }
+}
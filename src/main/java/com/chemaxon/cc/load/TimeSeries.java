@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The throughput, errors and latency percentiles of a run second by second. One small point is kept per second, so
+ * it fits in memory for runs of any length.
+ */
+public class TimeSeries {
+
+    private final List<Point> points = Collections.synchronizedList(new ArrayList<>());
+
+    public static class Point {
+
+        private final double elapsedSeconds;
+        private final double seconds;
+        private final long requests;
+        private final long molecules;
+        private final long errors;
+        private final long failedRequests;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        public Point(double elapsedSeconds, double seconds, long requests, long molecules, long errors,
+                long failedRequests, double p50Millis, double p99Millis, double maxMillis) {
+            this.elapsedSeconds = elapsedSeconds;
+            this.seconds = seconds;
+            this.requests = requests;
+            this.molecules = molecules;
+            this.errors = errors;
+            this.failedRequests = failedRequests;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        /**
+         * @return the seconds from the start to the end of this point
+         */
+        public double getElapsedSeconds() {
+            return elapsedSeconds;
+        }
+
+        public double getRequestRate() {
+            return requests / seconds;
+        }
+
+        public double getMolRate() {
+            return molecules / seconds;
+        }
+
+        /**
+         * @return the percentage of the checked molecules with an error result
+         */
+        public double getErrorPercent() {
+            return molecules == 0 ? 0.0 : errors * 100.0 / molecules;
+        }
+
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        /**
+         * @return the percentage of the requests finished in this point that failed
+         */
+        public double getFailedPercent() {
+            return requests + failedRequests == 0 ? 0.0 : failedRequests * 100.0 / (requests + failedRequests);
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    /**
+     * @param latencies the response times of the requests finished in this point
+     */
+    public void add(double elapsedSeconds, double seconds, long requests, long molecules, long errors,
+            long failedRequests, Histogram latencies) {
+        if (seconds <= 0) {
+            return;
+        }
+        points.add(new Point(elapsedSeconds, seconds, requests, molecules, errors, failedRequests,
+                toMillis(latencies.getValueAtPercentile(50)), toMillis(latencies.getValueAtPercentile(99)),
+                toMillis(latencies.getMaxValue())));
+    }
+
+    public List<Point> getPoints() {
+        synchronized (points) {
+            return new ArrayList<>(points);
+        }
+    }
+
+    /**
+     * Merges every given number of consecutive points into one: the rates and the median are averaged, the 99th
+     * percentile and the maximum are the highest of the merged ones.
+     */
+    public static List<Point> downsample(List<Point> points, int step) {
+        if (step <= 1) {
+            return points;
+        }
+        List<Point> merged = new ArrayList<>(points.size() / step + 1);
+        for (int from = 0; from < points.size(); from += step) {
+            List<Point> group = points.subList(from, Math.min(from + step, points.size()));
+            double seconds = 0;
+            long requests = 0;
+            long molecules = 0;
+            long errors = 0;
+            long failedRequests = 0;
+            double p50 = 0;
+            double p99 = 0;
+            double max = 0;
+            for (Point p : group) {
+                seconds += p.seconds;
+                requests += p.requests;
+                molecules += p.molecules;
+                errors += p.errors;
+                failedRequests += p.failedRequests;
+                p50 += p.p50Millis / group.size();
+                p99 = Math.max(p99, p.p99Millis);
+                max = Math.max(max, p.maxMillis);
+            }
+            merged.add(new Point(group.get(group.size() - 1).elapsedSeconds, seconds, requests, molecules, errors,
+                    failedRequests, p50, p99, max));
+        }
+        return merged;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Compresses the request bodies and decompresses the response bodies if the transport is compressed, and counts the
+ * bytes of the bodies on the wire and the CPU time the compression takes, shared by every caller. Both directions are
+ * streamed: a request body is compressed while it is written to the connection, a response body while it is parsed.
+ * The CPU time spent reading and writing the connection itself is not counted as compression. The deflaters are
+ * pooled, as setting one up costs more than compressing a typical request.
+ */
+public class TransferMeter {
+
+    private static final String GZIP = "gzip";
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final boolean compress;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder requestWireBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final LongAdder responseWireBytes = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param compress whether the request bodies are gzipped and gzipped responses are accepted
+     */
+    public TransferMeter(boolean compress) {
+        this.compress = compress;
+    }
+
+    public boolean isCompressing() {
+        return compress;
+    }
+
+    /**
+     * @return the headers every request is sent with
+     */
+    public List<Header> getDefaultHeaders() {
+        if (!compress) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new BasicHeader(HttpHeaders.ACCEPT_ENCODING, GZIP));
+    }
+
+    /**
+     * @return the body to send, compressed while it is written if the transport is compressed
+     */
+    public HttpEntity requestEntity(HttpEntity body) {
+        return new MeteredRequestEntity(body);
+    }
+
+    /**
+     * @return the content of the response body, decompressed if the checker has compressed it
+     */
+    public InputStream responseContent(HttpEntity body) throws IOException {
+        Header encoding = body.getContentEncoding();
+        return responseContent(body.getContent(), encoding == null ? null : encoding.getValue());
+    }
+
+    /**
+     * @param contentEncoding the Content-Encoding of the response, or null
+     * @return the content of the response body, decompressed if the checker has compressed it
+     */
+    public InputStream responseContent(InputStream content, String contentEncoding) throws IOException {
+        responses.increment();
+        boolean gzipped = GZIP.equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding);
+        WireInputStream wire = new WireInputStream(content, gzipped);
+        if (!gzipped) {
+            return new CountingInputStream(wire, null);
+        }
+        return new CountingInputStream(new GZIPInputStream(wire, BUFFER_SIZE), wire);
+    }
+
+    /**
+     * @return the body to send as a whole, compressed if the transport is compressed, for clients that need it in
+     *         memory
+     */
+    public byte[] requestBody(HttpEntity body) throws IOException {
+        return EntityUtils.toByteArray(requestEntity(body));
+    }
+
+    public Map<String, Double> getMetrics() {
+        long sent = requests.sum();
+        long received = responses.sum();
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("compressed", compress ? 1.0 : 0.0);
+        metrics.put("request body bytes / request", perItem(requestBytes.sum(), sent));
+        metrics.put("request bytes on the wire / request", perItem(requestWireBytes.sum(), sent));
+        metrics.put("request compression ratio", perItem(requestBytes.sum(), requestWireBytes.sum()));
+        metrics.put("response body bytes / response", perItem(responseBytes.sum(), received));
+        metrics.put("response bytes on the wire / response", perItem(responseWireBytes.sum(), received));
+        metrics.put("response compression ratio", perItem(responseBytes.sum(), responseWireBytes.sum()));
+        metrics.put("compression CPU (us) / request", perItem(compressNanos.sum(), sent) / 1000.0);
+        metrics.put("decompression CPU (us) / response", perItem(decompressNanos.sum(), received) / 1000.0);
+        metrics.put("sent on the wire (MB)", requestWireBytes.sum() / 1e6);
+        metrics.put("received on the wire (MB)", responseWireBytes.sum() / 1e6);
+        return metrics;
+    }
+
+    /**
+     * Writes the body in the gzip format with a pooled deflater.
+     */
+    private void gzip(HttpEntity body, OutputStream out) throws IOException {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            out.write(GZIP_HEADER);
+            CRC32 crc = new CRC32();
+            DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            CheckedOutputStream checked = new CheckedOutputStream(deflating, crc);
+            body.writeTo(checked);
+            deflating.finish();
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, (int) deflater.getBytesRead());
+            out.flush();
+        } finally {
+            deflater.reset();
+            deflaters.add(deflater);
+        }
+    }
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException {
+        out.write(new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) });
+    }
+
+    private static double perItem(long total, long items) {
+        return items == 0 ? 0.0 : ((double) total) / items;
+    }
+
+    /**
+     * @return the CPU time of the current thread, or the wall clock time if it can not be measured, e.g. on a
+     *         virtual thread
+     */
+    private static long cpuNanos() {
+        long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        return cpu >= 0 ? cpu : System.nanoTime();
+    }
+
+    private class MeteredRequestEntity extends HttpEntityWrapper {
+
+        MeteredRequestEntity(HttpEntity body) {
+            super(body);
+        }
+
+        @Override
+        public long getContentLength() {
+            return compress ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public boolean isChunked() {
+            return compress || super.isChunked();
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return compress ? new BasicHeader(HttpHeaders.CONTENT_ENCODING, GZIP) : super.getContentEncoding();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            requests.increment();
+            requestBytes.add(super.getContentLength());
+            if (!compress) {
+                super.writeTo(out);
+                requestWireBytes.add(super.getContentLength());
+                return;
+            }
+            long start = cpuNanos();
+            WireOutputStream wire = new WireOutputStream(out);
+            gzip(wrappedEntity, wire);
+            compressNanos.add(cpuNanos() - start - wire.cpuNanos);
+            requestWireBytes.add(wire.bytes);
+        }
+
+        /**
+         * Compresses the whole body into memory first, for clients that pull the content instead of letting the
+         * entity write it.
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            if (!compress) {
+                requests.increment();
+                requestBytes.add(super.getContentLength());
+                requestWireBytes.add(super.getContentLength());
+                return super.getContent();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            writeTo(out);
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+    }
+
+    /**
+     * Counts the bytes written to the connection and the CPU time spent writing them.
+     */
+    private static class WireOutputStream extends FilterOutputStream {
+
+        private long bytes = 0;
+        private long cpuNanos = 0;
+
+        WireOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = cpuNanos();
+            out.write(b, off, len);
+            cpuNanos += cpuNanos() - start;
+            bytes += len;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = cpuNanos();
+            out.flush();
+            cpuNanos += cpuNanos() - start;
+        }
+
+        @Override
+        public void close() {
+            // the connection is closed by the client
+        }
+    }
+
+    /**
+     * Counts the bytes read from the connection and, under a decompressor, the CPU time spent reading them.
+     */
+    private class WireInputStream extends FilterInputStream {
+
+        private final boolean timed;
+        private long cpuNanos = 0;
+
+        WireInputStream(InputStream in, boolean timed) {
+            super(in);
+            this.timed = timed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = timed ? cpuNanos() : 0;
+            int b = in.read();
+            if (timed) {
+                cpuNanos += cpuNanos() - start;
+            }
+            if (b >= 0) {
+                responseWireBytes.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = timed ? cpuNanos() : 0;
+            int n = in.read(b, off, len);
+            if (timed) {
+                cpuNanos += cpuNanos() - start;
+            }
+            if (n > 0) {
+                responseWireBytes.add(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Counts the bytes of the response body and, over a decompressor, the CPU time the decompression takes.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        private final WireInputStream wire;
+
+        /**
+         * @param wire the stream under the decompressor, or null if the body is not compressed
+         */
+        CountingInputStream(InputStream in, WireInputStream wire) {
+            super(in);
+            this.wire = wire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (wire == null) {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    responseBytes.add(n);
+                }
+                return n;
+            }
+            long start = cpuNanos();
+            long wireStart = wire.cpuNanos;
+            int n = in.read(b, off, len);
+            decompressNanos.add(cpuNanos() - start - (wire.cpuNanos - wireStart));
+            if (n > 0) {
+                responseBytes.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(0, read);
+        }
+    }
+}
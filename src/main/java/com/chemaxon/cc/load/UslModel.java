@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * The Universal Scalability Law: the throughput at concurrency N is X(N) = &lambda;N / (1 + &sigma;(N - 1) +
+ * &kappa;N(N - 1)), where &lambda; is the throughput of one user, &sigma; the cost of contention (queueing on shared
+ * resources) and &kappa; the cost of coherency (crosstalk between the users). With &kappa; &gt; 0 the throughput has a
+ * peak, after that adding users makes it smaller.
+ */
+public class UslModel {
+
+    /** Smaller coefficients are taken as 0, as the fit rarely gives exactly 0. */
+    private static final double NEGLIGIBLE = 1e-9;
+    private static final int MAX_KNEE = 1_000_000;
+
+    private final double lambda;
+    private final double sigma;
+    private final double kappa;
+    private final double rSquared;
+
+    private UslModel(double lambda, double sigma, double kappa, double rSquared) {
+        this.lambda = lambda;
+        this.sigma = sigma;
+        this.kappa = kappa;
+        this.rSquared = rSquared;
+    }
+
+    /**
+     * Fits the model to the measured throughputs by non-linear least squares, keeping the coefficients non-negative.
+     *
+     * @param concurrency the numbers of users, at least 3 different ones
+     * @param throughput the throughput measured at each
+     */
+    public static UslModel fit(double[] concurrency, double[] throughput) {
+        if (concurrency.length < 3) {
+            throw new IllegalArgumentException("At least 3 points are needed to fit the USL: " + concurrency.length);
+        }
+        double lambda = 0;
+        double mean = 0;
+        for (int i = 0; i < concurrency.length; ++i) {
+            lambda = Math.max(lambda, throughput[i] / concurrency[i]);
+            mean += throughput[i] / concurrency.length;
+        }
+        Optimum optimum = new LevenbergMarquardtOptimizer().optimize(new LeastSquaresBuilder()
+                .model(point -> evaluate(concurrency, point))
+                .parameterValidator(point -> point.map(v -> Math.max(v, 0)))
+                .target(throughput)
+                .start(new double[] { lambda, 0.01, 0.0001 })
+                .maxEvaluations(10000)
+                .maxIterations(10000)
+                .build());
+        double[] p = optimum.getPoint().toArray();
+        double residuals = 0;
+        double total = 0;
+        for (int i = 0; i < concurrency.length; ++i) {
+            residuals += Math.pow(throughput[i] - throughput(p[0], p[1], p[2], concurrency[i]), 2);
+            total += Math.pow(throughput[i] - mean, 2);
+        }
+        return new UslModel(p[0], p[1], p[2], total > 0 ? 1 - residuals / total : 1);
+    }
+
+    private static Pair<RealVector, RealMatrix> evaluate(double[] concurrency, RealVector point) {
+        double lambda = point.getEntry(0);
+        double sigma = point.getEntry(1);
+        double kappa = point.getEntry(2);
+        double[] values = new double[concurrency.length];
+        double[][] jacobian = new double[concurrency.length][3];
+        for (int i = 0; i < concurrency.length; ++i) {
+            double n = concurrency[i];
+            double d = 1 + sigma * (n - 1) + kappa * n * (n - 1);
+            values[i] = lambda * n / d;
+            jacobian[i][0] = n / d;
+            jacobian[i][1] = -lambda * n * (n - 1) / (d * d);
+            jacobian[i][2] = -lambda * n * n * (n - 1) / (d * d);
+        }
+        return new Pair<>(new ArrayRealVector(values, false), new Array2DRowRealMatrix(jacobian, false));
+    }
+
+    private static double throughput(double lambda, double sigma, double kappa, double n) {
+        return lambda * n / (1 + sigma * (n - 1) + kappa * n * (n - 1));
+    }
+
+    /**
+     * @return the throughput the model predicts at the given concurrency
+     */
+    public double throughput(double concurrency) {
+        return throughput(lambda, sigma, kappa, concurrency);
+    }
+
+    /**
+     * @return the concurrency of the highest throughput, infinite if the throughput never decreases
+     */
+    public double getPeakConcurrency() {
+        return kappa > NEGLIGIBLE * NEGLIGIBLE ? Math.sqrt((1 - Math.min(sigma, 1)) / kappa) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the highest throughput, the asymptote 1 / &sigma; &middot; &lambda; if it never decreases
+     */
+    public double getPeakThroughput() {
+        double peak = getPeakConcurrency();
+        if (Double.isInfinite(peak)) {
+            return sigma > NEGLIGIBLE ? lambda / sigma : Double.POSITIVE_INFINITY;
+        }
+        return throughput(Math.max(1, peak));
+    }
+
+    /**
+     * @return the knee: the smallest concurrency at which one more user adds less than half the throughput of the
+     *         first user, infinite if the throughput grows linearly (up to a million users)
+     */
+    public double getKnee() {
+        if (sigma <= NEGLIGIBLE && kappa <= NEGLIGIBLE * NEGLIGIBLE || isAboveHalfGain(MAX_KNEE)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // the gain of one more user only decreases, so the knee is searched for by bisection
+        int low = 1;
+        int high = MAX_KNEE;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (isAboveHalfGain(mid)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean isAboveHalfGain(int n) {
+        return throughput(n + 1) - throughput(n) >= lambda / 2;
+    }
+
+    public double getLambda() {
+        return lambda;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    public double getKappa() {
+        return kappa;
+    }
+
+    /**
+     * @return the coefficient of determination of the fit
+     */
+    public double getRSquared() {
+        return rSquared;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads if the running JVM has them (Java 21 or newer). The project is built for older JVMs too, so
+ * the API is looked up at runtime.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a factory of virtual threads named prefix0, prefix1...
+     * @throws UnsupportedOperationException if the running JVM has no virtual threads
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads need Java 21 or newer, running on " + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class)
+                    .invoke(builder, prefix, 0L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Could not create virtual threads", e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Could not create virtual threads", e.getCause());
+        }
+    }
+}
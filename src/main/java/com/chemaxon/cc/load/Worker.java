@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@code worker} command: connects to a coordinator, runs its share of the test when the coordinator tells so,
+ * streams its live metrics to the coordinator every second and sends its results at the end.
+ */
+public class Worker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Worker.class);
+
+    private final WorkerConnection connection;
+    private final LiveMetrics live;
+    private final ScheduledExecutorService ticker;
+    private long requests;
+    private long molecules;
+    private long passed;
+    private long hits;
+    private long errors;
+    private long failedRequests;
+    private Map<String, Long> failures = new TreeMap<>();
+    private long retries;
+    private long inFlight;
+    private long activeUsers;
+
+    private Worker(WorkerConnection connection, LiveMetrics live) {
+        this.connection = connection;
+        this.live = live;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WorkerTicker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static void main(String[] args)
+            throws ParseException, IOException, URISyntaxException, InterruptedException {
+        Options opts = new Options();
+        opts.addOption(Option.builder().longOpt("coordinator").desc("The host:port of the coordinator").hasArg()
+                .required().build());
+        opts.addOption(Option.builder("f").longOpt("file")
+                .desc("The file to use instead of the one of the coordinator, if it is somewhere else on this host")
+                .hasArg().required(false).build());
+        new HelpFormatter().printHelp("cchecker-load-test worker",
+                "Runs a share of a test for the coordinator started with --workers", opts, null, true);
+        CommandLine commandline = new DefaultParser().parse(opts, args);
+        String coordinator = commandline.getOptionValue("coordinator");
+        int colon = coordinator.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("--coordinator needs host:port: " + coordinator);
+        }
+        LOG.info("connecting to coordinator: {}", coordinator);
+        try (WorkerConnection connection = new WorkerConnection(
+                new Socket(coordinator.substring(0, colon), Integer.parseInt(coordinator.substring(colon + 1))))) {
+            WorkerMessage plan = connection.receive(WorkerMessage.PLAN);
+            LOG.info("running as worker {} of {}", plan.getWorker() + 1, plan.getWorkers());
+            List<String> workerArgs = new ArrayList<>(plan.getArgs());
+            if (commandline.hasOption("file")) {
+                int file = workerArgs.indexOf("--file");
+                if (file >= 0) {
+                    workerArgs.subList(file, file + 2).clear();
+                }
+                workerArgs.add("--file");
+                workerArgs.add(commandline.getOptionValue("file"));
+            }
+            CliOptions clio = new CliOptions(workerArgs.toArray(new String[0]), plan.getScenario());
+            Worker worker = new Worker(connection, new LiveMetrics(clio.getHistogramPrecision()));
+            try {
+                worker.run(clio, "Worker_" + plan.getWorker());
+            } catch (IOException | URISyntaxException | InterruptedException | RuntimeException e) {
+                connection.send(WorkerMessage.error(e.toString()));
+                throw e;
+            }
+        }
+    }
+
+    private void run(CliOptions clio, String name) throws IOException, URISyntaxException, InterruptedException {
+        LoadRunner.Outcome outcome = LoadRunner.runLoad(clio, live, () -> {
+            connection.send(WorkerMessage.ready());
+            connection.receive(WorkerMessage.START);
+            live.takeIntervalLatencies();
+            ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+        });
+        ticker.shutdown();
+        ticker.awaitTermination(1, TimeUnit.MINUTES);
+        tick();
+        connection.send(WorkerMessage.result(WorkerMessage.Stats.of(CallerStats.merge(name, outcome.getStats())),
+                outcome.getPlannedChecks(), outcome.getEngineMetrics()));
+        LOG.info("sent the results of {} requests", live.getRequests());
+    }
+
+    private void tick() {
+        long requests = live.getRequests();
+        long molecules = live.getMolecules();
+        long passed = live.getPassed();
+        long hits = live.getHits();
+        long errors = live.getErrors();
+        long failedRequests = live.getFailedRequests();
+        Map<String, Long> failures = live.getFailures();
+        long retries = live.getRetries();
+        long inFlight = live.getInFlight();
+        long activeUsers = live.getActiveUsers();
+        Map<String, Long> newFailures = new TreeMap<>();
+        failures.forEach((label, count) -> {
+            long previous = this.failures.getOrDefault(label, 0L);
+            if (count > previous) {
+                newFailures.put(label, count - previous);
+            }
+        });
+        try {
+            connection.send(WorkerMessage.tick(requests - this.requests, molecules - this.molecules,
+                    passed - this.passed, hits - this.hits, errors - this.errors,
+                    failedRequests - this.failedRequests, newFailures, retries - this.retries,
+                    inFlight - this.inFlight, activeUsers - this.activeUsers, live.takeIntervalLatencies()));
+        } catch (IOException e) {
+            LOG.warn("Could not send the live metrics to the coordinator", e);
+            return;
+        }
+        this.requests = requests;
+        this.molecules = molecules;
+        this.passed = passed;
+        this.hits = hits;
+        this.errors = errors;
+        this.failedRequests = failedRequests;
+        this.failures = failures;
+        this.retries = retries;
+        this.inFlight = inFlight;
+        this.activeUsers = activeUsers;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+
+/**
+ * A TCP connection between the coordinator and a worker, carrying {@link WorkerMessage}s as lines of JSON.
+ */
+public class WorkerConnection implements Closeable {
+
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final Writer writer;
+    private final Gson gson = new Gson();
+
+    public WorkerConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends a message, may be called by several threads.
+     */
+    public synchronized void send(WorkerMessage message) throws IOException {
+        writer.write(gson.toJson(message));
+        writer.write('\n');
+        writer.flush();
+    }
+
+    /**
+     * @return the next message, never an error
+     * @throws IOException if the connection is closed or the other side has sent an error
+     */
+    public WorkerMessage receive() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Connection closed by " + socket.getRemoteSocketAddress());
+        }
+        WorkerMessage message = gson.fromJson(line, WorkerMessage.class);
+        if (WorkerMessage.ERROR.equals(message.getType())) {
+            throw new IOException(socket.getRemoteSocketAddress() + " failed: " + message.getMessage());
+        }
+        return message;
+    }
+
+    /**
+     * @return the next message, which has to be of the given type
+     */
+    public WorkerMessage receive(String type) throws IOException {
+        WorkerMessage message = receive();
+        if (!type.equals(message.getType())) {
+            throw new IOException("Expected " + type + " from " + socket.getRemoteSocketAddress() + " instead of "
+                    + message.getType());
+        }
+        return message;
+    }
+
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * A message between the coordinator and a worker. The coordinator sends a "plan" to every worker that connects, the
+ * workers answer "ready" when their input is loaded, the coordinator sends "start" to all of them at once, then the
+ * workers send a "tick" of their live metrics every second and their "result" or an "error" at the end. The latencies
+ * are sent as compressed histograms, so the coordinator can merge them without losing precision.
+ */
+public class WorkerMessage {
+
+    public static final String PLAN = "plan";
+    public static final String READY = "ready";
+    public static final String START = "start";
+    public static final String TICK = "tick";
+    public static final String RESULT = "result";
+    public static final String ERROR = "error";
+
+    private String type;
+
+    private List<String> args;
+    private Scenario scenario;
+    private int worker;
+    private int workers;
+
+    private long requests;
+    private long molecules;
+    private long passed;
+    private long hits;
+    private long errors;
+    private long failedRequests;
+    private Map<String, Long> failures;
+    private long retries;
+    private long inFlight;
+    private long activeUsers;
+    private String latencies;
+
+    private Stats stats;
+    private long plannedChecks;
+    private Map<String, Map<String, Double>> engineMetrics;
+
+    private String message;
+
+    /** The counts and latency histograms of a {@link CallerStats}, phase by phase too. */
+    public static class Stats {
+
+        private long sent;
+        private long passed;
+        private long hits;
+        private long errors;
+        private String serviceTimes;
+        private String responseTimes;
+        private Map<String, Long> failures;
+        private long retries;
+        private String failedTimes;
+        private List<Stats> phases = new ArrayList<>();
+
+        public static Stats of(CallerStats callerStats) {
+            Stats stats = new Stats();
+            stats.sent = callerStats.getSentCount();
+            stats.passed = callerStats.getPassedCount();
+            stats.hits = callerStats.getHitCount();
+            stats.errors = callerStats.getErrorCount();
+            stats.serviceTimes = encode(callerStats.getServiceTimes());
+            stats.responseTimes = encode(callerStats.getResponseTimes());
+            stats.failures = new TreeMap<>(callerStats.getFailures());
+            stats.retries = callerStats.getRetryCount();
+            stats.failedTimes = encode(callerStats.getFailedTimes());
+            for (int i = 0; i < callerStats.getPhaseCount(); ++i) {
+                stats.phases.add(of(callerStats.forPhase(i)));
+            }
+            return stats;
+        }
+
+        public void addTo(CallerStats callerStats) throws IOException {
+            callerStats.add(sent, passed, hits, errors, decode(serviceTimes), decode(responseTimes));
+            callerStats.addFailures(failures, retries, decode(failedTimes));
+            for (int i = 0; i < Math.min(phases.size(), callerStats.getPhaseCount()); ++i) {
+                phases.get(i).addTo(callerStats.forPhase(i));
+            }
+        }
+    }
+
+    private WorkerMessage(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @param args the arguments of the worker's share of the test
+     * @param scenario the scenario to follow, or null
+     * @param worker the index of the worker
+     */
+    public static WorkerMessage plan(List<String> args, Scenario scenario, int worker, int workers) {
+        WorkerMessage msg = new WorkerMessage(PLAN);
+        msg.args = args;
+        msg.scenario = scenario;
+        msg.worker = worker;
+        msg.workers = workers;
+        return msg;
+    }
+
+    public static WorkerMessage ready() {
+        return new WorkerMessage(READY);
+    }
+
+    public static WorkerMessage start() {
+        return new WorkerMessage(START);
+    }
+
+    /**
+     * A tick carries the changes of the counters since the previous tick and the latencies recorded since then.
+     *
+     * @param failures the failed requests by their {@link FailureType} label since the previous tick
+     */
+    public static WorkerMessage tick(long requests, long molecules, long passed, long hits, long errors,
+            long failedRequests, Map<String, Long> failures, long retries, long inFlight, long activeUsers,
+            Histogram latencies) {
+        WorkerMessage msg = new WorkerMessage(TICK);
+        msg.requests = requests;
+        msg.molecules = molecules;
+        msg.passed = passed;
+        msg.hits = hits;
+        msg.errors = errors;
+        msg.failedRequests = failedRequests;
+        msg.failures = failures;
+        msg.retries = retries;
+        msg.inFlight = inFlight;
+        msg.activeUsers = activeUsers;
+        msg.latencies = encode(latencies);
+        return msg;
+    }
+
+    public static WorkerMessage result(Stats stats, long plannedChecks,
+            Map<String, Map<String, Double>> engineMetrics) {
+        WorkerMessage msg = new WorkerMessage(RESULT);
+        msg.stats = stats;
+        msg.plannedChecks = plannedChecks;
+        msg.engineMetrics = engineMetrics;
+        return msg;
+    }
+
+    public static WorkerMessage error(String message) {
+        WorkerMessage msg = new WorkerMessage(ERROR);
+        msg.message = message;
+        return msg;
+    }
+
+    /**
+     * Adds the counters and latencies of a tick to the live metrics of the coordinator.
+     */
+    public void addTo(LiveMetrics live) throws IOException {
+        live.add(requests, molecules, passed, hits, errors, failedRequests, failures, retries, inFlight, activeUsers,
+                decode(latencies));
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public List<String> getArgs() {
+        return args;
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public int getWorker() {
+        return worker;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    public long getPlannedChecks() {
+        return plannedChecks;
+    }
+
+    public Map<String, Map<String, Double>> getEngineMetrics() {
+        return engineMetrics;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    private static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length));
+    }
+
+    private static Histogram decode(String histogram) throws IOException {
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(histogram)), 0);
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed histogram", e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+public class ChunkRequestEntityTest {
+
+    private static final Gson GSON = new Gson();
+    private static final List<String> MOLECULES = Arrays.asList("CC1=CC(=O)C=CC1=O", "C[C@@H](N)Cc1ccccc1",
+            "with \"quotes\", a \\ and <tags> & more", "\u00fcn\u00efc\u00f6d\u00e9 \u2713", "");
+
+    @Test
+    public void writesTheBodyGsonWrote() throws IOException {
+        assertBody("2017-06-01", Arrays.asList("Narcotic", "Precursor"), MOLECULES);
+    }
+
+    @Test
+    public void leavesOutTheMissingFields() throws IOException {
+        assertBody(null, null, MOLECULES);
+        assertBody("2017-06-01", null, MOLECULES.subList(0, 1));
+        assertBody(null, Collections.singletonList("Explosive"), Collections.emptyList());
+    }
+
+    private static void assertBody(String date, List<String> categories, List<String> molecules)
+            throws IOException {
+        CCheckingRequest request = new CCheckingRequest();
+        request.setInput(molecules);
+        request.setDate(date);
+        request.setCategories(categories);
+        byte[] expected = GSON.toJson(request).getBytes(StandardCharsets.UTF_8);
+        List<byte[]> srcs = new ArrayList<>();
+        for (String molecule : molecules) {
+            srcs.add(GSON.toJson(molecule).getBytes(StandardCharsets.UTF_8));
+        }
+        HttpEntity entity = new CheckRequestFactory(date, categories, false).createEntity(srcs);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        entity.writeTo(written);
+        assertArrayEquals(expected, written.toByteArray());
+        assertEquals(expected.length, entity.getContentLength());
+        assertArrayEquals(expected, readAll(entity.getContent()));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // odd sized reads, across the parts of the body
+        byte[] buffer = new byte[3];
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
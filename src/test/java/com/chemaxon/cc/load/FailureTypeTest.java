@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.NoHttpResponseException;
+import org.junit.Test;
+
+import com.google.gson.JsonSyntaxException;
+
+public class FailureTypeTest {
+
+    @Test
+    public void classifiesTheFailures() {
+        assertEquals(FailureType.HTTP_STATUS, FailureType.of(new CheckerStatusException(503, "Service Unavailable")));
+        assertEquals(FailureType.TIMEOUT, FailureType.of(new SocketTimeoutException("Read timed out")));
+        assertEquals(FailureType.CONNECTION_REFUSED, FailureType.of(new ConnectException("Connection refused")));
+        assertEquals(FailureType.CONNECTION_RESET, FailureType.of(new SocketException("Connection reset")));
+        assertEquals(FailureType.CONNECTION_RESET, FailureType.of(new NoHttpResponseException("no response")));
+        assertEquals(FailureType.PARSE_ERROR,
+                FailureType.of(new ResponseParseException(new JsonSyntaxException("Expected BEGIN_OBJECT"))));
+        assertEquals(FailureType.OTHER, FailureType.of(new IOException("something else")));
+    }
+
+    @Test
+    public void looksAtTheCauses() {
+        assertEquals(FailureType.TIMEOUT,
+                FailureType.of(new IOException("wrapped", new SocketTimeoutException("Read timed out"))));
+        assertEquals(503, FailureType.status(new IOException(new CheckerStatusException(503, "Service Unavailable"))));
+    }
+
+    @Test
+    public void doesNotTakeEveryIllegalStateForAParseError() {
+        assertEquals(FailureType.OTHER, FailureType.of(new IllegalStateException("Connection pool shut down")));
+    }
+
+    @Test
+    public void labelsEveryStatusOnItsOwn() {
+        assertEquals("HTTP 503", FailureType.label(new CheckerStatusException(503, "Service Unavailable")));
+        assertEquals("HTTP 429", FailureType.label(new CheckerStatusException(429, "Too Many Requests")));
+        assertEquals("timeout", FailureType.label(new SocketTimeoutException("Read timed out")));
+        assertEquals("parse error", FailureType.PARSE_ERROR.getLabel(200));
+    }
+
+    @Test
+    public void retriesTheTransientFailuresOnly() {
+        assertTrue(FailureType.isRetryable(new CheckerStatusException(503, "Service Unavailable")));
+        assertTrue(FailureType.isRetryable(new CheckerStatusException(429, "Too Many Requests")));
+        assertTrue(FailureType.isRetryable(new SocketTimeoutException("Read timed out")));
+        assertTrue(FailureType.isRetryable(new ConnectException("Connection refused")));
+        assertTrue(FailureType.isRetryable(new SocketException("Connection reset")));
+        assertFalse(FailureType.isRetryable(new CheckerStatusException(400, "Bad Request")));
+        assertFalse(FailureType.isRetryable(new CheckerStatusException(401, "Unauthorized")));
+        assertFalse(FailureType.isRetryable(new ResponseParseException(new NumberFormatException("x"))));
+        assertFalse(FailureType.isRetryable(new IllegalStateException("Connection pool shut down")));
+    }
+}
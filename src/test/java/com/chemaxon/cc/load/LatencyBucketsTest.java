@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class LatencyBucketsTest {
+
+    @Test
+    public void countsLinearBuckets() {
+        Map<Double, Long> expected = new LinkedHashMap<>();
+        expected.put(10.0, 1L);
+        expected.put(20.0, 2L);
+        expected.put(30.0, 0L);
+        expected.put(40.0, 0L);
+        expected.put(50.0, 1L);
+        assertEquals(expected, LatencyBuckets.parse("linear:10").count(histogram(3, 12, 15, 47)));
+    }
+
+    @Test
+    public void startsAtTheBucketOfTheSmallestValue() {
+        Map<Double, Long> expected = new LinkedHashMap<>();
+        expected.put(20.0, 2L);
+        expected.put(30.0, 1L);
+        assertEquals(expected, LatencyBuckets.parse("linear:10").count(histogram(12, 15, 21)));
+    }
+
+    @Test
+    public void countsLogarithmicBuckets() {
+        Map<Double, Long> expected = new LinkedHashMap<>();
+        expected.put(4.0, 1L);
+        expected.put(8.0, 0L);
+        expected.put(16.0, 2L);
+        assertEquals(expected, LatencyBuckets.parse("log:1:2").count(histogram(3, 12, 15)));
+    }
+
+    @Test
+    public void countsNothingOfAnEmptyHistogram() {
+        assertTrue(LatencyBuckets.parse("linear:100").count(new Histogram(3)).isEmpty());
+    }
+
+    @Test
+    public void rejectsInvalidSpecs() {
+        for (String spec : new String[] { "linear", "linear:0", "log:1", "log:1:1", "exp:10" }) {
+            try {
+                LatencyBuckets.parse(spec);
+                throw new AssertionError("Accepted " + spec);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static Histogram histogram(long... millis) {
+        Histogram histogram = new Histogram(3);
+        for (long m : millis) {
+            histogram.recordValue(TimeUnit.MILLISECONDS.toNanos(m));
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs the load test end to end against a {@link MockChecker} on an ephemeral port, with the sample molecules.
+ */
+public class LoadRunnerTest {
+
+    private static final File MOLECULES = new File("100_mols.csv");
+    private static final int MOLECULE_COUNT = 110;
+
+    private MockChecker mock;
+
+    @After
+    public void stopMock() {
+        if (mock != null) {
+            mock.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void checksEveryMoleculeOnEveryThread() throws Exception {
+        startMock(0, 500);
+        LoadRunner.Outcome outcome = run("--engine", "thread");
+        assertEquals(2 * MOLECULE_COUNT, outcome.getPlannedChecks());
+        assertEquals(2, outcome.getStats().size());
+        for (CallerStats stats : outcome.getStats()) {
+            assertEquals(11, stats.getRequestCount());
+            assertEquals(MOLECULE_COUNT, stats.getSentCount());
+            assertEquals(MOLECULE_COUNT, stats.getCheckedCount());
+            assertTrue(stats.isEveryCheckFinnished());
+            assertEquals(0, stats.getFailedRequestCount());
+        }
+        assertEquals(Collections.emptyList(), outcome.getFailures());
+    }
+
+    @Test(timeout = 60000)
+    public void checksEveryMoleculeWithTheAsyncEngine() throws Exception {
+        startMock(0, 500);
+        LoadRunner.Outcome outcome = run("--engine", "async");
+        assertEquals(2 * MOLECULE_COUNT,
+                outcome.getStats().stream().mapToLong(CallerStats::getCheckedCount).sum());
+    }
+
+    @Test(timeout = 60000)
+    public void countsTheFailedRequests() throws Exception {
+        startMock(1, 503);
+        LoadRunner.Outcome outcome = run("--engine", "thread", "--retries", "1", "--retryBackoff", "1");
+        for (CallerStats stats : outcome.getStats()) {
+            assertEquals(0, stats.getCheckedCount());
+            // every request is sent twice and fails both times
+            assertEquals(22, stats.getFailedRequestCount());
+            assertEquals(11, stats.getRetryCount());
+            assertEquals(Long.valueOf(22), stats.getFailures().get("HTTP 503"));
+            assertFalse(stats.isEveryCheckFinnished());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void labelsTheRequestsAbortedAtTheRequestTimeout() throws Exception {
+        startMock("fixed:1000", 0, 500);
+        for (String engine : new String[] { "thread", "async" }) {
+            LoadRunner.Outcome outcome = run("--engine", engine, "--requestTimeout", "100");
+            for (CallerStats stats : outcome.getStats()) {
+                assertEquals(engine, 0, stats.getCheckedCount());
+                assertEquals(engine, 11, stats.getFailedRequestCount());
+                assertEquals(engine, Collections.singletonMap("timeout", 11L), stats.getFailures());
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void labelsTheTimeoutOfAResponseBeingRead() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread stalling = new Thread(() -> stallResponses(server), "stalling-checker");
+            stalling.setDaemon(true);
+            stalling.start();
+            LoadRunner.Outcome outcome = runAt(
+                    "http://localhost:" + server.getLocalPort() + "/cc-bigdata/integration/", "--engine", "thread",
+                    "--requestTimeout", "100");
+            for (CallerStats stats : outcome.getStats()) {
+                assertEquals(Collections.singletonMap("timeout", 11L), stats.getFailures());
+            }
+        }
+    }
+
+    /**
+     * Answers every request with the headers and the start of the body, then waits for the client to give up.
+     */
+    private static void stallResponses(ServerSocket server) {
+        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 1000\r\n\r\n"
+                + "{\"simpleResponses\":[[],").getBytes(StandardCharsets.US_ASCII);
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> {
+                    try (Socket s = socket) {
+                        InputStream in = s.getInputStream();
+                        byte[] buffer = new byte[64 * 1024];
+                        while (in.read(buffer) != -1) {
+                            // the request is read as it comes, the client closes the socket at the timeout
+                            s.getOutputStream().write(head);
+                            s.getOutputStream().flush();
+                        }
+                    } catch (IOException e) {
+                        // closed by the client
+                    }
+                });
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void startMock(double failureRatio, int failureStatus) throws Exception {
+        startMock("fixed:1", failureRatio, failureStatus);
+    }
+
+    private void startMock(String latency, double failureRatio, int failureStatus) throws Exception {
+        mock = new MockChecker(0, "admin", "adminPass", 0.1, 0.01, 1, 3, MockChecker.Latency.parse(latency), 0,
+                failureRatio, failureStatus);
+        mock.start();
+    }
+
+    private LoadRunner.Outcome run(String... options) throws Exception {
+        return runAt("http://localhost:" + mock.getPort() + "/cc-bigdata/integration/", options);
+    }
+
+    private static LoadRunner.Outcome runAt(String url, String... options) throws Exception {
+        String[] common = { "--url", url, "-h", "admin", "-p", "adminPass", "-f", MOLECULES.getPath(), "-t", "2", "-c", "10", "--summaryOnly" };
+        String[] args = new String[common.length + options.length];
+        System.arraycopy(common, 0, args, 0, common.length);
+        System.arraycopy(options, 0, args, common.length, options.length);
+        CliOptions clio = new CliOptions(args, null, false);
+        return LoadRunner.runLoad(clio, new LiveMetrics(clio.getHistogramPrecision()), () -> {
+        });
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Scrapes the endpoint with a plain HTTP GET, as Prometheus does.
+ */
+public class MetricsServerTest {
+
+    private LiveMetrics metrics;
+    private MetricsServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        metrics = new LiveMetrics(3);
+        server = new MetricsServer(0, metrics, () -> 7);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void servesTheCountersAndTheHistogram() throws IOException {
+        SearchResponseStat response = new SearchResponseStat();
+        response.registerPassed();
+        response.registerHit(2);
+        response.registerError();
+        metrics.requestStarted();
+        metrics.requestCompleted(3, response, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.requestStarted();
+        metrics.requestCompleted(3, response, TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.requestStarted();
+        metrics.requestFailed("HTTP 503");
+        metrics.requestRetried();
+        metrics.requestStarted();
+
+        HttpURLConnection connection = open();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("text/plain; version=0.0.4; charset=utf-8", connection.getContentType());
+        List<String> lines = Arrays.asList(read(connection.getInputStream()).split("\n"));
+        assertTrue(lines.contains("# TYPE cc_load_requests_total counter"));
+        assertTrue(lines.contains("cc_load_requests_total 2"));
+        assertTrue(lines.contains("cc_load_failed_requests_total 1"));
+        assertTrue(lines.contains("cc_load_request_failures_total{type=\"HTTP 503\"} 1"));
+        assertTrue(lines.contains("cc_load_retries_total 1"));
+        assertTrue(lines.contains("cc_load_molecules_total 6"));
+        assertTrue(lines.contains("cc_load_results_total{result=\"passed\"} 2"));
+        assertTrue(lines.contains("cc_load_results_total{result=\"hit\"} 2"));
+        assertTrue(lines.contains("cc_load_results_total{result=\"error\"} 2"));
+        assertTrue(lines.contains("cc_load_in_flight_requests 1"));
+        assertTrue(lines.contains("cc_load_active_users 7"));
+        // the buckets are cumulative
+        assertTrue(lines.contains("cc_load_response_time_seconds_bucket{le=\"0.005\"} 1"));
+        assertTrue(lines.contains("cc_load_response_time_seconds_bucket{le=\"0.01\"} 1"));
+        assertTrue(lines.contains("cc_load_response_time_seconds_bucket{le=\"0.025\"} 2"));
+        assertTrue(lines.contains("cc_load_response_time_seconds_bucket{le=\"+Inf\"} 2"));
+        assertTrue(lines.contains("cc_load_response_time_seconds_sum 0.023000"));
+        assertTrue(lines.contains("cc_load_response_time_seconds_count 2"));
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("#") || line.matches("[a-z_]+(\\{[^}]*\\})? [0-9.]+"));
+        }
+    }
+
+    @Test
+    public void rejectsOtherMethods() throws IOException {
+        HttpURLConnection connection = open();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.getOutputStream().close();
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    private HttpURLConnection open() throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MoleculeCostsTest {
+
+    private static final int MOLECULES = 50;
+    private static final int CHUNK_SIZE = 5;
+    private static final double BASE_MILLIS = 5;
+
+    @Test
+    public void recoversThePlantedCosts() {
+        double[] costs = new double[MOLECULES];
+        Arrays.fill(costs, 0.5);
+        costs[7] = 20;
+        costs[13] = 10;
+        MoleculePayloads payloads = payloads();
+        MoleculeCosts moleculeCosts = new MoleculeCosts(payloads);
+        for (int caller = 0; caller < 4; ++caller) {
+            MoleculeSource source = new CachedMoleculeSource(payloads, true);
+            MoleculeCosts.Recorder recorder = moleculeCosts.recorder(source, CHUNK_SIZE);
+            for (int chunk = 0; chunk < 400; ++chunk) {
+                double millis = BASE_MILLIS;
+                for (int m : source.getMoleculeIndexes(chunk, CHUNK_SIZE)) {
+                    millis += costs[m];
+                }
+                recorder.record(chunk, (long) (millis * TimeUnit.MILLISECONDS.toNanos(1)), new SearchResponseStat());
+            }
+        }
+
+        MoleculeCosts.Estimate estimate = moleculeCosts.estimate();
+        List<MoleculeCosts.Structure> slowest = estimate.getSlowest(MOLECULES);
+        assertEquals("mol7", slowest.get(0).getId());
+        assertEquals(160, slowest.get(0).getRequests());
+        assertEquals("mol13", slowest.get(1).getId());
+        // with requests of the same size only the differences of the costs can be told, the rest is in the base
+        double other = slowest.get(2).getCostMillis();
+        for (MoleculeCosts.Structure s : slowest.subList(2, MOLECULES)) {
+            assertEquals(s.getId(), other, s.getCostMillis(), 0.01);
+        }
+        assertEquals(19.5, slowest.get(0).getCostMillis() - other, 0.1);
+        assertEquals(9.5, slowest.get(1).getCostMillis() - other, 0.1);
+        assertEquals(BASE_MILLIS + CHUNK_SIZE * 0.5,
+                estimate.getSummary().get("base latency of a request (ms)") + CHUNK_SIZE * other, 0.1);
+        assertEquals(1600, estimate.getSummary().get("requests"), 0);
+        assertEquals(MOLECULES, estimate.getSummary().get("molecules"), 0);
+        assertTrue(estimate.getSummary().get("R squared of the fit") > 0.99);
+    }
+
+    @Test
+    public void estimatesNothingWithoutRequests() {
+        MoleculeCosts.Estimate estimate = new MoleculeCosts(payloads()).estimate();
+        assertEquals(0, estimate.getSlowest(10).size());
+        assertEquals(0, estimate.getSummary().get("requests"), 0);
+    }
+
+    private static MoleculePayloads payloads() {
+        byte[][] sources = new byte[MOLECULES][];
+        String[] ids = new String[MOLECULES];
+        int[] atomCounts = new int[MOLECULES];
+        for (int m = 0; m < MOLECULES; ++m) {
+            sources[m] = ("\"C" + m + "\"").getBytes();
+            ids[m] = "mol" + m;
+            atomCounts[m] = m + 1;
+        }
+        return new MoleculePayloads(sources, ids, atomCounts);
+    }
+}
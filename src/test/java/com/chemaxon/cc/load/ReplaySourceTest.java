@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplaySourceTest {
+
+    private static final List<String> CAPTURE = Arrays.asList(
+            "{\"timestamp\":\"2017-06-01T10:00:00Z\",\"request\":{\"input\":[\"C\",\"CC\"],\"date\":\"2017-01-01\"}}",
+            "not a request",
+            "",
+            "{\"timestamp\":1496311200100,\"request\":{\"input\":[],\"date\":\"2017-01-01\"}}",
+            "{\"timestamp\":1496311200500,\"request\":{\"input\":[\"CCC\"]}}",
+            "{\"input\":[\"N\"],\"categories\":[\"narcotic\"]}");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 10000)
+    public void readsTheRequestsAndSkipsTheOtherLines() throws Exception {
+        try (ReplaySource source = start(0)) {
+            List<byte[]> first = source.nextChunk(100);
+            assertEquals(Arrays.asList("\"C\"", "\"CC\""), strings(first));
+            assertEquals("],\"date\":\"2017-01-01\"}", tail(first));
+            List<byte[]> second = source.nextChunk(100);
+            assertEquals(Arrays.asList("\"CCC\""), strings(second));
+            assertEquals("]}", tail(second));
+            List<byte[]> third = source.nextChunk(100);
+            assertEquals(Arrays.asList("\"N\""), strings(third));
+            assertEquals("],\"categories\":[\"narcotic\"]}", tail(third));
+            // the end is seen by every caller
+            assertTrue(source.nextChunk(100).isEmpty());
+            assertTrue(source.nextChunk(100).isEmpty());
+            assertEquals(4, source.getReadCount());
+            assertNull(source.getFailure());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void skipsTheRequestsWithoutMolecules() throws Exception {
+        File file = folder.newFile("capture.jsonl");
+        Files.write(file.toPath(), Arrays.asList("{\"input\":[]}", "{\"input\":[\"C\"]}", "{\"input\":[]}"),
+                StandardCharsets.UTF_8);
+        try (ReplaySource source = new ReplaySource(file, 10, 0)) {
+            source.start();
+            // an empty chunk would stop the caller before the rest of the capture
+            assertEquals(Arrays.asList("\"C\""), strings(source.nextChunk(100)));
+            assertTrue(source.nextChunk(100).isEmpty());
+            assertEquals(1, source.getReadCount());
+            assertNull(source.getFailure());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void sendsAsFastAsPossibleAtSpeedZero() throws Exception {
+        try (ReplaySource source = start(0)) {
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(0, source.getDueNanos(source.nextChunk(100)));
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void holdsBackTheRequestsUntilTheyAreDue() throws Exception {
+        try (ReplaySource source = start(5)) {
+            List<byte[]> first = source.nextChunk(100);
+            List<byte[]> second = source.nextChunk(100);
+            assertTrue(System.nanoTime() >= source.getDueNanos(second));
+            // the ISO and the epoch millis timestamps are 500 ms apart, replayed 5 times faster
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(100), source.getDueNanos(second) - source.getDueNanos(first));
+            // a request without a timestamp is not held back
+            assertEquals(0, source.getDueNanos(source.nextChunk(100)));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void keepsTheErrorOfAnUnreadableCapture() throws Exception {
+        try (ReplaySource source = new ReplaySource(folder.getRoot(), 10, 0)) {
+            source.start();
+            assertTrue(source.nextChunk(100).isEmpty());
+            assertNotNull(source.getFailure());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANegativeSpeed() throws IOException {
+        new ReplaySource(folder.newFile("capture.jsonl"), 10, -1);
+    }
+
+    private ReplaySource start(double speed) throws IOException {
+        File file = folder.newFile("capture.jsonl");
+        Files.write(file.toPath(), CAPTURE, StandardCharsets.UTF_8);
+        ReplaySource source = new ReplaySource(file, 10, speed);
+        source.start();
+        return source;
+    }
+
+    private static List<String> strings(List<byte[]> chunk) {
+        String[] strings = new String[chunk.size()];
+        for (int i = 0; i < strings.length; ++i) {
+            strings[i] = new String(chunk.get(i), StandardCharsets.UTF_8);
+        }
+        return Arrays.asList(strings);
+    }
+
+    private static String tail(List<byte[]> chunk) {
+        return new String(((ReplaySource.CapturedRequest) chunk).getTail(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RequestPolicyTest {
+
+    private static final Throwable UNAVAILABLE = new CheckerStatusException(503, "Service Unavailable");
+
+    @Test
+    public void retriesUpToTheLimit() {
+        RequestPolicy policy = new RequestPolicy(0, 0, 0, 2, 100);
+        assertTrue(policy.shouldRetry(1, UNAVAILABLE));
+        assertTrue(policy.shouldRetry(2, new SocketTimeoutException("Read timed out")));
+        assertFalse(policy.shouldRetry(3, UNAVAILABLE));
+    }
+
+    @Test
+    public void doesNotRetryWithoutRetries() {
+        assertFalse(new RequestPolicy(0, 0, 0, 0, 100).shouldRetry(1, UNAVAILABLE));
+    }
+
+    @Test
+    public void doesNotRetryPermanentFailures() {
+        assertFalse(new RequestPolicy(0, 0, 0, 2, 100).shouldRetry(1, new CheckerStatusException(400, "Bad Request")));
+    }
+
+    @Test
+    public void doublesTheBackoff() {
+        RequestPolicy policy = new RequestPolicy(0, 0, 0, 3, 100);
+        for (int i = 0; i < 100; ++i) {
+            assertBetween(TimeUnit.MILLISECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(100),
+                    policy.getBackoffNanos(1));
+            assertBetween(TimeUnit.MILLISECONDS.toNanos(200), TimeUnit.MILLISECONDS.toNanos(400),
+                    policy.getBackoffNanos(3));
+        }
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " is not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+}
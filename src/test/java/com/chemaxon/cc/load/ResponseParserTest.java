@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ResponseParserTest {
+
+    private static final String RESPONSE = "{\"id\":\"x\",\"simpleResponses\":["
+            + "[],"
+            + "null,"
+            + "[{\"error\":true,\"errorMessage\":\"Could not import\",\"input\":\"C1CC\"}],"
+            + "[{\"categoryName\":\"Narcotic\",\"casNubmers\":[\"50-36-2\"],\"error\":false},"
+            + "{\"categoryName\":\"Precursor\",\"molName\":\"ephedrine\"}],"
+            + "[{\"categoryName\":\"Explosive\",\"legislativeLinks\":\"{\\\"a\\\":[1,2]}\"}]"
+            + "],\"extra\":{\"nested\":[1,{\"error\":true}]}}";
+
+    @Test
+    public void countsTheResults() throws IOException {
+        SearchResponseStat stat = parse(false, RESPONSE);
+        assertEquals(2, stat.getPassed());
+        assertEquals(1, stat.getError());
+        assertEquals(Arrays.asList(2, 1), stat.getHits());
+        assertEquals(Arrays.asList(3, 4), stat.getHitIndexes());
+        assertEquals(3, stat.getHitSize());
+    }
+
+    @Test
+    public void countsAsTheFullParser() throws IOException {
+        SearchResponseStat streaming = parse(false, RESPONSE);
+        SearchResponseStat full = parse(true, RESPONSE);
+        assertEquals(full.getPassed(), streaming.getPassed());
+        assertEquals(full.getError(), streaming.getError());
+        assertEquals(full.getHits(), streaming.getHits());
+        assertEquals(full.getHitIndexes(), streaming.getHitIndexes());
+    }
+
+    @Test
+    public void failsWithAParseErrorInBothModes() {
+        for (String response : Arrays.asList("<html>Bad Gateway</html>", "{\"simpleResponses\":{\"a\":1}}",
+                "[1, 2]", "{\"id\":\"x\"}")) {
+            assertEquals(response, FailureType.PARSE_ERROR, failure(false, response, 5));
+            assertEquals(response, FailureType.PARSE_ERROR, failure(true, response, 5));
+        }
+    }
+
+    @Test
+    public void failsWithAParseErrorIfAResultIsMissing() {
+        for (int molCount : new int[] { 4, 6 }) {
+            assertEquals(FailureType.PARSE_ERROR, failure(false, RESPONSE, molCount));
+            assertEquals(FailureType.PARSE_ERROR, failure(true, RESPONSE, molCount));
+        }
+    }
+
+    private static FailureType failure(boolean materialize, String response, int molCount) {
+        try {
+            new ResponseParser(materialize)
+                    .parse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), molCount);
+        } catch (IOException e) {
+            return FailureType.of(e);
+        }
+        throw new AssertionError("Parsed: " + response);
+    }
+
+    private static SearchResponseStat parse(boolean materialize, String response) throws IOException {
+        return new ResponseParser(materialize)
+                .parse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), 5);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultJournalTest {
+
+    private static final Instant START = Instant.parse("2017-06-01T10:00:00.123456789Z");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        File file = folder.newFile("run.journal");
+        write(file, 3);
+        try (ResultJournal.Reader reader = new ResultJournal.Reader(file)) {
+            ResultJournal.Metadata metadata = reader.getMetadata();
+            assertEquals(START, metadata.getStart());
+            assertEquals(Arrays.asList("caller_0", "caller_1"), metadata.getThreadNames());
+            assertEquals(3, metadata.getPrecision());
+            assertEquals(2.5, metadata.getTargetRate(), 0);
+            for (int i = 0; i < 3; ++i) {
+                assertTrue(reader.next());
+                assertFalse(reader.isFailure());
+                assertEquals(i % 2, reader.getThread());
+                assertEquals(-1, reader.getPhase());
+                assertEquals(5, reader.getMolCount());
+                assertEquals(3, reader.getPassed());
+                assertEquals(1, reader.getError());
+                assertEquals(1, reader.getHitCount());
+                assertEquals(4, reader.getHitSize());
+                assertEquals(i, reader.getChunkIndex());
+                assertEquals(ResultJournal.toEpochNanos(START) + i, reader.getStartEpochNanos());
+                assertEquals(1000 + i, reader.getDurationNanos());
+                assertEquals(2000 + i, reader.getCorrectedDurationNanos());
+            }
+            assertFalse(reader.next());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void readsBackFailures() throws IOException {
+        File file = folder.newFile("run.journal");
+        try (ResultJournal journal = new ResultJournal(file,
+                new ResultJournal.Metadata(START, Arrays.asList("caller_0"), 3, 0, null))) {
+            journal.appendFailure(0, 1, START, 3000, 5, new CheckerStatusException(503, "Service Unavailable"), true,
+                    7);
+            journal.appendFailure(0, 1, START.plusMillis(1), 4000, 5, new SocketTimeoutException("Read timed out"),
+                    false, 7);
+        }
+        try (ResultJournal.Reader reader = new ResultJournal.Reader(file)) {
+            assertTrue(reader.next());
+            assertTrue(reader.isFailure());
+            assertEquals("HTTP 503", reader.getFailureLabel());
+            assertTrue(reader.isRetried());
+            assertEquals(1, reader.getPhase());
+            assertEquals(5, reader.getMolCount());
+            assertEquals(0, reader.getPassed());
+            assertEquals(7, reader.getChunkIndex());
+            assertEquals(3000, reader.getDurationNanos());
+            assertEquals(3000, reader.getCorrectedDurationNanos());
+            assertTrue(reader.next());
+            assertEquals("timeout", reader.getFailureLabel());
+            assertFalse(reader.isRetried());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void readsTheWholeRecordsOfACutFile() throws IOException {
+        File file = folder.newFile("run.journal");
+        write(file, 5);
+        File cut = folder.newFile("cut.journal");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        try (OutputStream out = new FileOutputStream(cut)) {
+            // two whole records and half of the third, as left by a crash
+            out.write(bytes, 0,
+                    ResultJournal.HEADER_SIZE + 2 * ResultJournal.RECORD_SIZE + ResultJournal.RECORD_SIZE / 2);
+        }
+        try (ResultJournal.Reader reader = new ResultJournal.Reader(cut)) {
+            assertTrue(reader.next());
+            assertEquals(0, reader.getChunkIndex());
+            assertTrue(reader.next());
+            assertEquals(1, reader.getChunkIndex());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void skipsTheSlotsNotWrittenOfAJournalNotClosed() throws IOException {
+        File file = folder.newFile("run.journal");
+        write(file, 3);
+        try (RandomAccessFile crashed = new RandomAccessFile(file, "rw")) {
+            // no record count, and the second slot reserved but not written, as left by a crash
+            crashed.seek(8);
+            crashed.writeLong(-1);
+            crashed.seek(ResultJournal.HEADER_SIZE + ResultJournal.RECORD_SIZE);
+            crashed.writeInt(0);
+        }
+        try (ResultJournal.Reader reader = new ResultJournal.Reader(file)) {
+            assertEquals(-1, reader.getRecordCount());
+            assertTrue(reader.next());
+            assertEquals(0, reader.getChunkIndex());
+            assertTrue(reader.next());
+            assertEquals(2, reader.getChunkIndex());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void startsWithASmallSegment() throws IOException {
+        File file = folder.newFile("run.journal");
+        write(file, 3);
+        assertEquals(ResultJournal.HEADER_SIZE + ResultJournal.segmentRecords(0) * ResultJournal.RECORD_SIZE,
+                file.length());
+        try (ResultJournal.Reader reader = new ResultJournal.Reader(file)) {
+            assertEquals(3, reader.getRecordCount());
+        }
+    }
+
+    @Test
+    public void growsTheSegments() {
+        assertEquals(0, ResultJournal.segmentStart(0));
+        long end = 0;
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(end, ResultJournal.segmentStart(i));
+            assertEquals(i, ResultJournal.segmentOf(end));
+            assertEquals(i, ResultJournal.segmentOf(end + ResultJournal.segmentRecords(i) - 1));
+            end += ResultJournal.segmentRecords(i);
+        }
+        assertEquals(2 * ResultJournal.segmentRecords(0), ResultJournal.segmentRecords(1));
+        assertEquals(1 << 20, ResultJournal.segmentRecords(19));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = folder.newFile("other.journal");
+        Files.write(file.toPath(), "not a journal".getBytes("UTF-8"));
+        new ResultJournal.Reader(file).close();
+    }
+
+    private static void write(File file, int records) throws IOException {
+        SearchResponseStat response = new SearchResponseStat();
+        response.registerPassed();
+        response.registerPassed();
+        response.registerHit(4);
+        response.registerError();
+        response.registerPassed();
+        try (ResultJournal journal = new ResultJournal(file,
+                new ResultJournal.Metadata(START, Arrays.asList("caller_0", "caller_1"), 3, 2.5, null))) {
+            for (int i = 0; i < records; ++i) {
+                journal.append(i % 2, -1, START.plusNanos(i), 1000 + i, 2000 + i, 5, response, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SampleStoreTest {
+
+    /** More than two blocks of 64k samples, the first one grown from its small start. */
+    private static final int SIZE = 150_000;
+
+    @Test
+    public void keepsEverySampleAcrossTheBlocks() {
+        SampleStore store = new SampleStore();
+        for (int i = 0; i < SIZE; ++i) {
+            store.add(1_000_000_000_000L + i, 2L * i, 3L * i, i % 100, i % 7, i % 3, i % 5, i % 11, i);
+        }
+        assertEquals(SIZE, store.size());
+        for (int i : new int[] { 0, 255, 256, 511, 512, 65_535, 65_536, 131_071, 131_072, SIZE - 1 }) {
+            assertEquals(1_000_000_000_000L + i, store.getStartEpochNanos(i));
+            assertEquals(2L * i, store.getDurationNanos(i));
+            assertEquals(3L * i, store.getCorrectedDurationNanos(i));
+            assertEquals(i % 100, store.getMolCount(i));
+            assertEquals(i % 7, store.getPassed(i));
+            assertEquals(i % 3, store.getErrors(i));
+            assertEquals(i % 5, store.getHits(i));
+            assertEquals(i % 11, store.getHitSum(i));
+            assertEquals(i, store.getChunkIndex(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsASampleBeyondTheEnd() {
+        SampleStore store = new SampleStore();
+        store.add(1, 2, 3, 4, 5, 6, 7, 8, 9);
+        store.getDurationNanos(1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsANegativeSample() {
+        new SampleStore().getDurationNanos(-1);
+    }
+}
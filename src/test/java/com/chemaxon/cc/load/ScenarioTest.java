@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.MissingOptionException;
+import org.apache.commons.cli.ParseException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScenarioTest {
+
+    private static final String SCENARIO = "{\"thinkTimeMillis\": 200, \"pacingMillis\": 1000, \"phases\": ["
+            + "{\"name\": \"ramp-up\", \"type\": \"ramp\", \"users\": 10, \"durationSeconds\": 10},"
+            + "{\"users\": 10, \"durationSeconds\": 5},"
+            + "{\"name\": \"spike\", \"type\": \"hold\", \"users\": 20, \"durationSeconds\": 5}]}";
+    private static final long START = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsThePhases() throws IOException {
+        Scenario scenario = Scenario.load(write(SCENARIO));
+        assertEquals(Arrays.asList("ramp-up", "phase 2", "spike"),
+                Arrays.asList(scenario.getPhases().stream().map(Scenario.Phase::getName).toArray()));
+        assertEquals("hold", scenario.getPhases().get(1).getType());
+        assertEquals(20, scenario.getMaxUsers());
+        assertEquals(20, scenario.getDurationSeconds(), 0);
+        assertEquals(200, scenario.getThinkTimeMillis());
+        assertEquals(1000, scenario.getPacingMillis());
+    }
+
+    @Test
+    public void followsThePhases() throws IOException {
+        Scenario scenario = Scenario.load(write(SCENARIO));
+        scenario.start(START);
+        assertEquals(0, scenario.getPhaseIndex(at(0)));
+        assertEquals(0, scenario.getPhaseIndex(at(9999)));
+        assertEquals(1, scenario.getPhaseIndex(at(10000)));
+        assertEquals(2, scenario.getPhaseIndex(at(15000)));
+        assertEquals(-1, scenario.getPhaseIndex(at(20000)));
+        assertEquals(0, scenario.getActiveUsers(at(0)));
+        assertEquals(5, scenario.getActiveUsers(at(5000)));
+        assertEquals(10, scenario.getActiveUsers(at(12000)));
+        assertEquals(20, scenario.getActiveUsers(at(16000)));
+        assertEquals(0, scenario.getActiveUsers(at(21000)));
+    }
+
+    @Test
+    public void rampsFromThePreviousPhase() {
+        Scenario scenario = new Scenario();
+        scenario.getPhases().add(new Scenario.Phase("low", "hold", 10, 1));
+        scenario.getPhases().add(new Scenario.Phase("up", "ramp", 30, 2));
+        scenario.start(START);
+        assertEquals(10, scenario.getActiveUsers(at(999)));
+        assertEquals(10, scenario.getActiveUsers(at(1000)));
+        assertEquals(20, scenario.getActiveUsers(at(2000)));
+    }
+
+    @Test
+    public void waitsTheRestOfThePacing() {
+        Scenario scenario = Scenario.of(1, 0, 10, 200, 1000);
+        // a fast response: the rest of the pacing
+        assertEquals(millis(900), scenario.getWaitNanos(millis(0), millis(100)));
+        // a slow one: the think time, which is longer than the rest of the pacing
+        assertEquals(millis(200), scenario.getWaitNanos(millis(0), millis(900)));
+        assertEquals(millis(200), scenario.getWaitNanos(millis(0), millis(1500)));
+    }
+
+    @Test
+    public void sendsAtOnceAfterASlowResponseWithoutThinkTime() {
+        Scenario scenario = Scenario.of(1, 0, 10, 0, 1000);
+        assertEquals(millis(400), scenario.getWaitNanos(millis(0), millis(600)));
+        assertEquals(0, scenario.getWaitNanos(millis(0), millis(1500)));
+    }
+
+    @Test
+    public void thinksWithoutPacing() {
+        assertEquals(millis(200), Scenario.of(1, 0, 10, 200, 0).getWaitNanos(millis(0), millis(5000)));
+    }
+
+    @Test
+    public void buildsARampUpAndASteadyPhase() {
+        Scenario scenario = Scenario.of(50, 60, 600, 0, 0);
+        assertEquals(2, scenario.getPhases().size());
+        assertEquals("ramp", scenario.getPhases().get(0).getType());
+        assertEquals(50, scenario.getPhases().get(1).getUsers());
+        assertEquals(660, scenario.getDurationSeconds(), 0);
+        assertEquals(1, Scenario.of(50, 0, 600, 0, 0).getPhases().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANegativePacing() {
+        Scenario.of(1, 0, 10, 0, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownPhaseType() throws IOException {
+        Scenario.load(write("{\"phases\": [{\"type\": \"spike\", \"users\": 10, \"durationSeconds\": 5}]}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAScenarioWithoutPhases() throws IOException {
+        Scenario.load(write("{\"thinkTimeMillis\": 200}"));
+    }
+
+    @Test
+    public void takesTheThreadsFromTheScenarioFile() throws IOException, ParseException {
+        File file = write(SCENARIO);
+        assertEquals(20, options("--scenario", file.getPath()).getThreads());
+        assertEquals(20, options("--scenario", file.getPath(), "-t", "20").getThreads());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsThreadsConflictingWithTheScenarioFile() throws IOException, ParseException {
+        options("--scenario", write(SCENARIO).getPath(), "-t", "50");
+    }
+
+    @Test(expected = MissingOptionException.class)
+    public void needsTheThreadsWithoutAScenario() throws IOException, ParseException {
+        options();
+    }
+
+    private File write(String json) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static CliOptions options(String... options) throws IOException, ParseException {
+        String[] common = { "--url", "http://localhost:8082/cc-bigdata/integration/", "-h", "admin", "-p",
+                "adminPass", "-f", "100_mols.csv", "-c", "10" };
+        String[] args = Arrays.copyOf(common, common.length + options.length);
+        System.arraycopy(options, 0, args, common.length, options.length);
+        return new CliOptions(args, null, false);
+    }
+
+    private static long at(long millis) {
+        return START + millis(millis);
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
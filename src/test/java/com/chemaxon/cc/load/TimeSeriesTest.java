@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class TimeSeriesTest {
+
+    @Test
+    public void keepsAPointPerInterval() {
+        TimeSeries series = new TimeSeries();
+        series.add(1, 1, 10, 100, 5, 0, histogram(10, 20, 30));
+        series.add(1.5, 0.5, 10, 100, 0, 10, histogram(40));
+        series.add(1.5, 0, 10, 100, 0, 0, histogram(40));
+        List<TimeSeries.Point> points = series.getPoints();
+        assertEquals(2, points.size());
+        TimeSeries.Point first = points.get(0);
+        assertEquals(1, first.getElapsedSeconds(), 0);
+        assertEquals(10, first.getRequestRate(), 0);
+        assertEquals(100, first.getMolRate(), 0);
+        assertEquals(5, first.getErrorPercent(), 0);
+        assertEquals(0, first.getFailedPercent(), 0);
+        assertEquals(20, first.getP50Millis(), 0.1);
+        assertEquals(30, first.getMaxMillis(), 0.1);
+        TimeSeries.Point second = points.get(1);
+        assertEquals(20, second.getRequestRate(), 0);
+        assertEquals(10, second.getFailedRequests());
+        assertEquals(50, second.getFailedPercent(), 0);
+    }
+
+    @Test
+    public void downsamplesConsecutivePoints() {
+        TimeSeries series = new TimeSeries();
+        series.add(1, 1, 10, 100, 0, 1, histogram(10, 100));
+        series.add(2, 1, 30, 300, 4, 3, histogram(30, 50));
+        series.add(3, 1, 20, 200, 0, 0, histogram(5));
+        List<TimeSeries.Point> merged = TimeSeries.downsample(series.getPoints(), 2);
+        assertEquals(2, merged.size());
+        TimeSeries.Point first = merged.get(0);
+        assertEquals(2, first.getElapsedSeconds(), 0);
+        assertEquals(20, first.getRequestRate(), 0);
+        assertEquals(200, first.getMolRate(), 0);
+        assertEquals(1, first.getErrorPercent(), 0);
+        assertEquals(4, first.getFailedRequests());
+        // the medians are averaged, the 99th percentiles and the maximums are the highest
+        assertEquals((series.getPoints().get(0).getP50Millis() + series.getPoints().get(1).getP50Millis()) / 2,
+                first.getP50Millis(), 1e-9);
+        assertEquals(100, first.getP99Millis(), 0.1);
+        assertEquals(100, first.getMaxMillis(), 0.1);
+        assertEquals(3, merged.get(1).getElapsedSeconds(), 0);
+        assertEquals(series.getPoints(), TimeSeries.downsample(series.getPoints(), 1));
+    }
+
+    private static Histogram histogram(long... millis) {
+        Histogram histogram = new Histogram(3);
+        for (long m : millis) {
+            histogram.recordValue(TimeUnit.MILLISECONDS.toNanos(m));
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class UslModelTest {
+
+    private static final double[] CONCURRENCY = { 1, 2, 4, 8, 16, 32, 64, 128 };
+
+    @Test
+    public void fitsTheCoefficientsOfExactData() {
+        UslModel model = fit(100, 0.05, 0.001);
+        assertEquals(100, model.getLambda(), 1e-3);
+        assertEquals(0.05, model.getSigma(), 1e-6);
+        assertEquals(0.001, model.getKappa(), 1e-8);
+        assertEquals(1, model.getRSquared(), 1e-9);
+        assertEquals(Math.sqrt(0.95 / 0.001), model.getPeakConcurrency(), 1e-3);
+        assertEquals(model.throughput(model.getPeakConcurrency()), model.getPeakThroughput(), 1e-9);
+    }
+
+    @Test
+    public void hasNoPeakWithoutCoherencyCost() {
+        UslModel model = fit(100, 0.05, 0);
+        assertTrue(Double.isInfinite(model.getPeakConcurrency()));
+        assertEquals(100 / model.getSigma(), model.getPeakThroughput(), 1e-6);
+    }
+
+    @Test
+    public void findsTheSameKneeAsAScan() {
+        UslModel model = fit(100, 0.05, 0.001);
+        assertEquals(scanKnee(model), model.getKnee(), 0);
+        model = fit(100, 0.02, 0);
+        assertEquals(scanKnee(model), model.getKnee(), 0);
+    }
+
+    @Test(timeout = 5000)
+    public void findsAFarKneeQuickly() {
+        // the knee is at tens of thousands of users, a step by step search used to take very long
+        UslModel model = fit(100, 1e-5, 0);
+        double knee = model.getKnee();
+        assertTrue(knee > 10_000 && knee < 1_000_000);
+        assertTrue(model.throughput(knee + 1) - model.throughput(knee) < model.getLambda() / 2);
+        assertTrue(model.throughput(knee) - model.throughput(knee - 1) >= model.getLambda() / 2);
+    }
+
+    @Test(timeout = 5000)
+    public void hasNoKneeWhenTheThroughputGrowsLinearly() {
+        assertTrue(Double.isInfinite(fit(100, 0, 0).getKnee()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsThreePoints() {
+        UslModel.fit(new double[] { 1, 2 }, new double[] { 100, 190 });
+    }
+
+    private static UslModel fit(double lambda, double sigma, double kappa) {
+        double[] throughput = new double[CONCURRENCY.length];
+        for (int i = 0; i < CONCURRENCY.length; ++i) {
+            double n = CONCURRENCY[i];
+            throughput[i] = lambda * n / (1 + sigma * (n - 1) + kappa * n * (n - 1));
+        }
+        return UslModel.fit(CONCURRENCY, throughput);
+    }
+
+    private static double scanKnee(UslModel model) {
+        int n = 1;
+        while (model.throughput(n + 1) - model.throughput(n) >= model.getLambda() / 2) {
+            ++n;
+        }
+        return n;
+    }
+}
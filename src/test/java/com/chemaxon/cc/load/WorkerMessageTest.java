@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 ChemAxon Ltd. https://ww.chemaxon.com/
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.chemaxon.cc.load;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+/**
+ * Sends the messages through JSON, as a {@link WorkerConnection} does.
+ */
+public class WorkerMessageTest {
+
+    private static final Gson GSON = new Gson();
+
+    @Test
+    public void addsATickToTheLiveMetrics() throws IOException {
+        Histogram latencies = new Histogram(3);
+        for (int i = 1; i <= 1000; ++i) {
+            latencies.recordValue(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        Map<String, Long> failures = new TreeMap<>();
+        failures.put("HTTP 503", 4L);
+        failures.put("timeout", 1L);
+        LiveMetrics live = new LiveMetrics(3);
+        live.requestFailed("HTTP 503");
+        roundTrip(WorkerMessage.tick(1000, 5000, 4000, 300, 200, 5, failures, 3, 2, 7, latencies)).addTo(live);
+
+        assertEquals(1000, live.getRequests());
+        assertEquals(5000, live.getMolecules());
+        assertEquals(4000, live.getPassed());
+        assertEquals(300, live.getHits());
+        assertEquals(200, live.getErrors());
+        assertEquals(6, live.getFailedRequests());
+        assertEquals(Long.valueOf(5), live.getFailures().get("HTTP 503"));
+        assertEquals(Long.valueOf(1), live.getFailures().get("timeout"));
+        assertEquals(3, live.getRetries());
+        assertEquals(1, live.getInFlight());
+        assertEquals(7, live.getActiveUsers());
+        assertEqualHistograms(latencies, live.takeIntervalLatencies());
+    }
+
+    @Test
+    public void addsTheResultStats() throws IOException {
+        CallerStats worker = new CallerStats("worker", 3, false, 2);
+        for (int i = 1; i <= 500; ++i) {
+            long start = TimeUnit.MILLISECONDS.toNanos(i);
+            worker.registerSent(5);
+            worker.registerResponse(4, 1, 1);
+            worker.record(start - 1000, start, start + TimeUnit.MILLISECONDS.toNanos(i % 50));
+            worker.forPhase(i % 2).registerSent(5);
+        }
+        worker.recordFailure("HTTP 503", 0, TimeUnit.MILLISECONDS.toNanos(30));
+        worker.registerRetry();
+
+        WorkerMessage message = roundTrip(WorkerMessage.result(WorkerMessage.Stats.of(worker), 2500,
+                Collections.singletonMap("engine", Collections.singletonMap("reused", 1.0))));
+        CallerStats coordinator = new CallerStats("threads", 3, false, 2);
+        message.getStats().addTo(coordinator);
+
+        assertEquals(2500, message.getPlannedChecks());
+        assertEquals(1.0, message.getEngineMetrics().get("engine").get("reused"), 0);
+        assertEquals(worker.getSentCount(), coordinator.getSentCount());
+        assertEquals(worker.getPassedCount(), coordinator.getPassedCount());
+        assertEquals(worker.getHitCount(), coordinator.getHitCount());
+        assertEquals(worker.getErrorCount(), coordinator.getErrorCount());
+        assertEquals(worker.getFailures(), coordinator.getFailures());
+        assertEquals(1, coordinator.getRetryCount());
+        assertEqualHistograms(worker.getServiceTimes(), coordinator.getServiceTimes());
+        assertEqualHistograms(worker.getResponseTimes(), coordinator.getResponseTimes());
+        assertEqualHistograms(worker.getFailedTimes(), coordinator.getFailedTimes());
+        assertEquals(1250, coordinator.forPhase(0).getSentCount());
+        assertEquals(1250, coordinator.forPhase(1).getSentCount());
+    }
+
+    private static WorkerMessage roundTrip(WorkerMessage message) {
+        return GSON.fromJson(GSON.toJson(message), WorkerMessage.class);
+    }
+
+    private static void assertEqualHistograms(Histogram expected, Histogram actual) {
+        assertEquals(expected.getTotalCount(), actual.getTotalCount());
+        for (double percentile : new double[] { 0, 50, 90, 99, 99.9, 100 }) {
+            assertEquals(expected.getValueAtPercentile(percentile), actual.getValueAtPercentile(percentile));
+        }
+    }
+}